@@ -11,6 +11,7 @@ public final class R {
     public static final class array {
         public static final int difficulty_list=0x7f060000;
         public static final int difficulty_vals_list=0x7f060001;
+        public static final int colors_list=0x7f060002;
     }
     public static final class attr {
     }
@@ -22,6 +23,21 @@ public final class R {
         public static final int red=0x7f070002;
         public static final int selected=0x7f070005;
         public static final int storage=0x7f070007;
+        public static final int yellow=0x7f070008;
+        public static final int magenta=0x7f070009;
+        public static final int cyan=0x7f07000a;
+        public static final int orange=0x7f07000b;
+        public static final int purple=0x7f07000c;
+        public static final int pink=0x7f07000d;
+        public static final int brown=0x7f07000e;
+        public static final int grey=0x7f07000f;
+        public static final int navy=0x7f070010;
+        public static final int teal=0x7f070011;
+        public static final int olive=0x7f070012;
+        public static final int maroon=0x7f070013;
+        public static final int lime=0x7f070014;
+        public static final int dropTarget=0x7f070015;
+        public static final int deadEnd=0x7f070016;
         public static final int white=0x7f070006;
     }
     public static final class dimen {
@@ -78,9 +94,12 @@ public final class R {
         /**  General 
          */
         public static final int app_name=0x7f090000;
+        public static final int best=0x7f090023;
         public static final int difficulty_label=0x7f09000a;
         public static final int difficulty_summary=0x7f09000b;
         public static final int easy_label=0x7f09000c;
+        public static final int grid_mode_label=0x7f09002a;
+        public static final int grid_mode_summary=0x7f09002b;
         public static final int hard_label=0x7f09000e;
         public static final int instructions=0x7f090004;
         public static final int instructions_image1=0x7f090007;
@@ -107,6 +126,8 @@ public final class R {
         /**  Gameplay 
          */
         public static final int puzzle_solved=0x7f09001d;
+        public static final int race_server_label=0x7f090028;
+        public static final int race_server_summary=0x7f090029;
         public static final int score=0x7f090022;
         /**  Settings 
          */
@@ -114,6 +135,10 @@ public final class R {
         public static final int sfx_label=0x7f090012;
         public static final int sfx_summary=0x7f090013;
         public static final int super_hard_label=0x7f09000f;
+        public static final int surface_view_label=0x7f090024;
+        public static final int surface_view_summary=0x7f090025;
+        public static final int telemetry_label=0x7f090026;
+        public static final int telemetry_summary=0x7f090027;
         public static final int time=0x7f090021;
         public static final int time_up=0x7f09001f;
         public static final int timed_challenge=0x7f090003;
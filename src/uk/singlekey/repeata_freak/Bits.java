@@ -0,0 +1,237 @@
+package uk.singlekey.repeata_freak;
+
+/**
+ * Helper methods for arrays of longs used as packed storage - either as one bit per
+ * square (which squares are occupied) or four bits per square (the color of each square,
+ * 16 squares to a long). Everything works on whole 64-bit words where it can.
+ *
+ * Bit 0 of word 0 is the first bit, bit 63 of word 0 is the 64th and so on.
+ *
+ * @author Samuel O'Sullivan
+ */
+public final class Bits {
+	
+	// The amount of bits used to store the color of a single square
+	public static final int BITS_PER_SQUARE = 4;
+	
+	// The amount of squares that fit in one long
+	public static final int SQUARES_PER_WORD = 64 / BITS_PER_SQUARE;
+	
+	private Bits() {
+	}
+	
+	/**
+	 * @param bits - an amount of bits
+	 * @return the amount of longs needed to hold that many bits
+	 */
+	public static int words(int bits) {
+		return (bits + 63) >>> 6;
+	}
+	
+	/**
+	 * Reads the color of a single square
+	 * @param squares - the packed squares
+	 * @param position - the position of the square
+	 * @return the color index of the square (0-15)
+	 */
+	public static int getSquare(long[] squares, int position) {
+		return (int) (squares[position >>> 4] >>> ((position & 15) << 2)) & 0xF;
+	}
+	
+	/**
+	 * Sets the color of a single square
+	 * @param squares - the packed squares
+	 * @param position - the position of the square
+	 * @param color - the color index of the square (0-15)
+	 */
+	public static void setSquare(long[] squares, int position, int color) {
+		int shift = (position & 15) << 2;
+		squares[position >>> 4] = (squares[position >>> 4] & ~(0xFL << shift)) | ((long) color << shift);
+	}
+	
+	/**
+	 * Reads a single bit
+	 * @param bits - the array of bits
+	 * @param index - the index of the bit
+	 * @return true if the bit is set
+	 */
+	public static boolean get(long[] bits, int index) {
+		return (bits[index >>> 6] & (1L << index)) != 0;
+	}
+	
+	/**
+	 * Sets a single bit
+	 * @param bits - the array of bits
+	 * @param index - the index of the bit
+	 */
+	public static void set(long[] bits, int index) {
+		bits[index >>> 6] |= 1L << index;
+	}
+	
+	/**
+	 * Reads up to 64 bits starting at any bit
+	 * @param bits - the array of bits
+	 * @param from - the first bit to read
+	 * @return the 64 bits starting at from (bits past the end of the array are 0)
+	 */
+	public static long extract(long[] bits, long from) {
+		int word = (int) (from >>> 6);
+		int shift = (int) (from & 63);
+		if (word >= bits.length) {
+			return 0;
+		}
+		long value = bits[word] >>> shift;
+		if (shift != 0 && word + 1 < bits.length) {
+			value |= bits[word + 1] << (64 - shift);
+		}
+		return value;
+	}
+	
+	/**
+	 * Copies bits from one array to another, a word at a time
+	 * @param src - the array to copy from
+	 * @param srcFrom - the first bit to copy
+	 * @param dst - the array to copy to
+	 * @param dstFrom - where the first bit should be copied to
+	 * @param count - the amount of bits to copy
+	 */
+	public static void copy(long[] src, long srcFrom, long[] dst, long dstFrom, long count) {
+		while (count > 0) {
+			int word = (int) (dstFrom >>> 6);
+			int shift = (int) (dstFrom & 63);
+			// Copy as many bits as are left in the destination word
+			int n = (int) Math.min(count, 64 - shift);
+			long mask = (n == 64 ? -1L : (1L << n) - 1) << shift;
+			long value = extract(src, srcFrom) << shift;
+			dst[word] = (dst[word] & ~mask) | (value & mask);
+			srcFrom += n;
+			dstFrom += n;
+			count -= n;
+		}
+	}
+	
+	/**
+	 * Sets or clears every bit in a range, a word at a time
+	 * @param bits - the array of bits
+	 * @param from - the first bit to change
+	 * @param to - the bit after the last bit to change
+	 * @param value - true to set the bits, false to clear them
+	 */
+	public static void fill(long[] bits, int from, int to, boolean value) {
+		while (from < to) {
+			int word = from >>> 6;
+			int shift = from & 63;
+			int n = Math.min(to - from, 64 - shift);
+			long mask = (n == 64 ? -1L : (1L << n) - 1) << shift;
+			if (value) {
+				bits[word] |= mask;
+			}
+			else {
+				bits[word] &= ~mask;
+			}
+			from += n;
+		}
+	}
+	
+	/**
+	 * Counts the set bits in a range, a word at a time
+	 * @param bits - the array of bits
+	 * @param from - the first bit to count
+	 * @param to - the bit after the last bit to count
+	 * @return the amount of set bits
+	 */
+	public static int count(long[] bits, int from, int to) {
+		int total = 0;
+		while (from < to) {
+			int word = from >>> 6;
+			int shift = from & 63;
+			int n = Math.min(to - from, 64 - shift);
+			long mask = (n == 64 ? -1L : (1L << n) - 1) << shift;
+			total += Long.bitCount(bits[word] & mask);
+			from += n;
+		}
+		return total;
+	}
+	
+	/**
+	 * Finds the next set bit, a word at a time
+	 * @param bits - the array of bits
+	 * @param from - the first bit to look at
+	 * @param to - the bit after the last bit to look at
+	 * @return the index of the first set bit from from, or to if there isn't one
+	 */
+	public static int nextSet(long[] bits, int from, int to) {
+		return next(bits, from, to, 0);
+	}
+	
+	/**
+	 * Finds the next clear bit, a word at a time
+	 * @param bits - the array of bits
+	 * @param from - the first bit to look at
+	 * @param to - the bit after the last bit to look at
+	 * @return the index of the first clear bit from from, or to if there isn't one
+	 */
+	public static int nextClear(long[] bits, int from, int to) {
+		return next(bits, from, to, -1L);
+	}
+	
+	/**
+	 * Finds the next bit that differs from flip (0 to find set bits, -1 to find clear bits)
+	 */
+	private static int next(long[] bits, int from, int to, long flip) {
+		if (from >= to) {
+			return to;
+		}
+		int word = from >>> 6;
+		long value = (bits[word] ^ flip) & (-1L << from);
+		while (value == 0) {
+			word++;
+			if (word << 6 >= to) {
+				return to;
+			}
+			value = bits[word] ^ flip;
+		}
+		return Math.min(to, (word << 6) + Long.numberOfTrailingZeros(value));
+	}
+	
+	/**
+	 * Scrambles a number so that every bit of the result depends on every bit of the
+	 * number (the finaliser of SplitMix64). Used to make hash keys out of small numbers.
+	 * @param x - the number to scramble
+	 * @return the scrambled number
+	 */
+	public static long mix(long x) {
+		x += 0x9E3779B97F4A7C15L;
+		x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+		x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+		return x ^ (x >>> 31);
+	}
+	
+	/**
+	 * Checks whether the squares in two ranges have exactly the same colors, comparing
+	 * 16 squares at a time
+	 * @param squares - the packed squares
+	 * @param a - the first square of the first range
+	 * @param b - the first square of the second range
+	 * @param count - the amount of squares in each range
+	 * @return true if every square in one range matches the square in the other
+	 */
+	public static boolean squaresEqual(long[] squares, int a, int b, int count) {
+		long bitsA = (long) a * BITS_PER_SQUARE;
+		long bitsB = (long) b * BITS_PER_SQUARE;
+		long remaining = (long) count * BITS_PER_SQUARE;
+		while (remaining > 0) {
+			long diff = extract(squares, bitsA) ^ extract(squares, bitsB);
+			if (remaining < 64) {
+				diff &= (1L << remaining) - 1;
+			}
+			if (diff != 0) {
+				return false;
+			}
+			bitsA += 64;
+			bitsB += 64;
+			remaining -= 64;
+		}
+		return true;
+	}
+}
@@ -1,22 +1,26 @@
 package uk.singlekey.repeata_freak;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 
 /**
  * This class represents blocks that contains a number of squares.
  * Visually, blocks are the shapes that are moved around by the user.
- * 
+ *
  * @author Samuel O'Sullivan
  *
  */
 public class Block {
 	
 	/**
-	 * The coloured squares that a block contains
-	 * The Integer represents a color from a resource
+	 * The coloured squares that a block contains, packed 16 to a long (see Bits).
+	 * Each square is an index into the puzzle's palette.
+	 */
+	private long[] squares;
+	
+	/**
+	 * The amount of squares the block contains
 	 */
-	private ArrayList<Integer> squares = new ArrayList<Integer>();
+	private int size;
 	
 	/**
 	 * The position of the block on the board (where it's left most square is positioned)
@@ -24,12 +28,48 @@ public class Block {
 	private int boardPosition;
 	
 	/**
-	 * Constructor for a block that sets its initial board position to -1
+	 * A hash of the block's colors, so that identical blocks have the same hash
 	 */
-	public Block() {
+	private long colorHash;
+	
+	/**
+	 * Constructor for a block that copies its squares out of a packed board, and sets its
+	 * initial board position to -1
+	 * @param board - the packed squares to copy from
+	 * @param start - the position of the first square of the block
+	 * @param size - the amount of squares in the block
+	 */
+	public Block(long[] board, int start, int size) {
 		super();
+		reset(board, start, size);
+	}
+	
+	/**
+	 * Turns the block into a different block, as if it had just been created, so that
+	 * puzzles can reuse their blocks. The squares array is only replaced if the new block
+	 * needs a different amount of words.
+	 * @param board - the packed squares to copy from
+	 * @param start - the position of the first square of the block
+	 * @param size - the amount of squares in the block
+	 */
+	void reset(long[] board, int start, int size) {
+		this.size = size;
+		int words = Bits.words(size * Bits.BITS_PER_SQUARE);
+		if (squares == null || squares.length != words) {
+			this.squares = new long[words];
+		}
+		else {
+			Arrays.fill(squares, 0);
+		}
+		Bits.copy(board, (long) start * Bits.BITS_PER_SQUARE, squares, 0, (long) size * Bits.BITS_PER_SQUARE);
 		// Represents the block not being on the game board
 		this.boardPosition = -1;
+		
+		long hash = Bits.mix(size);
+		for (long word : squares) {
+			hash = Bits.mix(hash ^ word);
+		}
+		this.colorHash = hash;
 	}
 	
 	/**
@@ -52,22 +92,29 @@ public class Block {
 	 * @return the amount of squares that the block contains
 	 */
 	public int getSize() {
-		return this.squares.size();
+		return this.size;
+	}
+	
+	/**
+	 * Gets the color of one of the block's squares
+	 * @param index - which square of the block, starting at 0 for the left-most
+	 * @return the index of the square's color in the puzzle's palette
+	 */
+	public int getSquare(int index) {
+		return Bits.getSquare(this.squares, index);
 	}
 	
 	/**
-	 * Adds a new square to the block
-	 * @param color - the color that the new square should be
+	 * @return a hash of the block's colors, the same for every block with the same colors
 	 */
-	public void addSquare(int color) {
-		this.squares.add(color);
+	public long getColorHash() {
+		return this.colorHash;
 	}
 	
 	/**
-	 * Creates an iterator to go through the squares contained in the block
-	 * @return an iterator of the array of squares
+	 * @return the block's squares, packed 16 to a long - these must not be changed
 	 */
-	public Iterator<Integer> create_iterator() {
-		return this.squares.iterator();
+	long[] getPackedSquares() {
+		return this.squares;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,184 @@
+package uk.singlekey.repeata_freak;
+
+/**
+ * Keeps track of the animations on the puzzle screen: blocks sliding into the place they've
+ * been moved to, and a wave across the sections when a puzzle is solved.
+ *
+ * The game itself never waits for an animation - a block is in its new place as soon as it
+ * has been moved, and only its picture catches up. So animations can never add latency to a
+ * touch. Every animation is a function of the time a frame is drawn, so frames that are
+ * skipped under load just make an animation jump ahead rather than run late.
+ *
+ * There is a fixed amount of animation slots, allocated once. If they are all in use, the
+ * oldest animation is replaced. The easing curves are tables calculated once, so nothing is
+ * allocated while animating. Used on the UI thread, and copied into every PuzzleSnapshot.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class BlockAnimator {
+	
+	// The most blocks that can be moving at once
+	public static final int MAX_MOVES = 8;
+	
+	// How long a block takes to slide into place
+	public static final long MOVE_NANOS = 120000000L;
+	
+	// How long each section of the solved wave lights up for, and how long after the section
+	// before it that it starts
+	public static final long SOLVED_PULSE_NANOS = 400000000L;
+	public static final long SOLVED_STAGGER_NANOS = 60000000L;
+	
+	// The amount of steps in each easing table
+	private static final int EASING_STEPS = 64;
+	
+	/**
+	 * Starts fast and slows down into place
+	 */
+	public static final float[] DECELERATE = new float[EASING_STEPS + 1];
+	
+	/**
+	 * Goes up to 1 and back down to 0
+	 */
+	public static final float[] PULSE = new float[EASING_STEPS + 1];
+	
+	static {
+		for (int i = 0; i <= EASING_STEPS; i++) {
+			float t = (float) i / EASING_STEPS;
+			DECELERATE[i] = 1 - (1 - t) * (1 - t);
+			PULSE[i] = (float) Math.sin(Math.PI * t);
+		}
+	}
+	
+	// Used by snapshots when nothing is moving
+	private static final PuzzleSnapshot.Move[] NO_MOVES = new PuzzleSnapshot.Move[0];
+	
+	// The animation slots: the block that is moving, where it was drawn when it started
+	// moving, and when it started (null block for an empty slot)
+	private Block[] blocks = new Block[MAX_MOVES];
+	private float[] fromX = new float[MAX_MOVES];
+	private float[] fromY = new float[MAX_MOVES];
+	private long[] startTimes = new long[MAX_MOVES];
+	
+	// When the puzzle was last solved, or Long.MIN_VALUE if it hasn't been
+	private long solvedTime = Long.MIN_VALUE;
+	
+	/**
+	 * Finds how far through an easing curve an animation is
+	 * @param curve - the easing table, e.g. DECELERATE
+	 * @param elapsed - how long the animation has been running
+	 * @param duration - how long the animation lasts
+	 * @return the value of the curve, from its first value before the start to its last
+	 * 		value after the end
+	 */
+	public static float ease(float[] curve, long elapsed, long duration) {
+		if (elapsed <= 0) {
+			return curve[0];
+		}
+		if (elapsed >= duration) {
+			return curve[EASING_STEPS];
+		}
+		float step = (float) elapsed * EASING_STEPS / duration;
+		int i = (int) step;
+		return curve[i] + (curve[i+1] - curve[i]) * (step - i);
+	}
+	
+	/**
+	 * Starts sliding a block from where it was drawn to where it is now. If the block is
+	 * already moving, it starts again from the new place.
+	 * @param block - the block that has moved
+	 * @param x - the x-coordinate the block was drawn at (pixels)
+	 * @param y - the y-coordinate the block was drawn at (pixels)
+	 * @param now - the time now (System.nanoTime)
+	 */
+	public void startMove(Block block, float x, float y, long now) {
+		int slot = -1;
+		int oldest = 0;
+		for (int i = 0; i < MAX_MOVES; i++) {
+			// Use the block's own slot if it has one, otherwise the first free one
+			if (blocks[i] == block) {
+				slot = i;
+				break;
+			}
+			if (slot == -1 && (blocks[i] == null || now - startTimes[i] >= MOVE_NANOS)) {
+				slot = i;
+			}
+			if (startTimes[i] < startTimes[oldest]) {
+				oldest = i;
+			}
+		}
+		if (slot == -1) {
+			slot = oldest;
+		}
+		blocks[slot] = block;
+		fromX[slot] = x;
+		fromY[slot] = y;
+		startTimes[slot] = now;
+	}
+	
+	/**
+	 * Starts the solved wave
+	 * @param now - the time now (System.nanoTime)
+	 */
+	public void startSolved(long now) {
+		solvedTime = now;
+	}
+	
+	/**
+	 * Stops every animation, e.g. when a new puzzle is created
+	 */
+	public void clear() {
+		for (int i = 0; i < MAX_MOVES; i++) {
+			blocks[i] = null;
+		}
+	}
+	
+	/**
+	 * @return when the puzzle was last solved, or Long.MIN_VALUE if it hasn't been
+	 */
+	public long getSolvedTime() {
+		return solvedTime;
+	}
+	
+	/**
+	 * Copies the blocks that are still moving, with where they are moving to, for a snapshot.
+	 * Slots that have finished are freed.
+	 * @param puzzle - the puzzle the blocks are in
+	 * @param layout - where everything is shown on the screen
+	 * @param now - the time now (System.nanoTime)
+	 * @return the moving blocks
+	 */
+	PuzzleSnapshot.Move[] capture(Puzzle puzzle, PuzzleLayout layout, long now) {
+		int count = 0;
+		for (int i = 0; i < MAX_MOVES; i++) {
+			if (blocks[i] != null && now - startTimes[i] >= MOVE_NANOS) {
+				blocks[i] = null;
+			}
+			if (blocks[i] != null) {
+				count++;
+			}
+		}
+		if (count == 0) {
+			return NO_MOVES;
+		}
+		PuzzleSnapshot.Move[] moves = new PuzzleSnapshot.Move[count];
+		count = 0;
+		for (int i = 0; i < MAX_MOVES; i++) {
+			Block block = blocks[i];
+			if (block != null) {
+				int boardPosition = block.getBoardPosition();
+				int storagePosition = boardPosition == -1 ? puzzle.getBlockStoragePosition(block) : -1;
+				moves[count++] = new PuzzleSnapshot.Move(
+						block,
+						boardPosition,
+						storagePosition,
+						fromX[i],
+						fromY[i],
+						boardPosition != -1 ? layout.boardX(boardPosition) : layout.storageX(),
+						boardPosition != -1 ? layout.boardY(boardPosition) : layout.storageY(storagePosition),
+						startTimes[i]
+						);
+			}
+		}
+		return moves;
+	}
+}
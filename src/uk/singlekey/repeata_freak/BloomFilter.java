@@ -0,0 +1,109 @@
+package uk.singlekey.repeata_freak;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size set of 64-bit fingerprints that can say for certain that a fingerprint has
+ * never been added, but only that it probably has been (it can be wrong about a fingerprint
+ * that hasn't been added, never about one that has).
+ *
+ * Each fingerprint sets a few bits, chosen from the fingerprint itself. The filter never
+ * grows: once it holds as many fingerprints as it was made for, it's cleared and starts
+ * again, so it uses the same memory however long it's used for.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class BloomFilter {
+	
+	// The bits of the filter
+	private long[] bits;
+	private int bitCount;
+	
+	// The amount of bits each fingerprint sets
+	private int hashCount;
+	
+	// The amount of fingerprints the filter is made for, and how many it holds
+	private int capacity;
+	private int size;
+	
+	/**
+	 * Creates an empty filter. With 16 bits per fingerprint and 4 bits set for each, a full
+	 * filter is wrong about roughly 1 in 400 fingerprints.
+	 * @param capacity - the most fingerprints the filter holds before it's cleared
+	 */
+	public BloomFilter(int capacity) {
+		this(capacity, 16, 4);
+	}
+	
+	/**
+	 * Creates an empty filter
+	 * @param capacity - the most fingerprints the filter holds before it's cleared
+	 * @param bitsPerEntry - the amount of bits to use for each fingerprint
+	 * @param hashCount - the amount of bits each fingerprint sets
+	 */
+	public BloomFilter(int capacity, int bitsPerEntry, int hashCount) {
+		if (capacity < 1 || bitsPerEntry < 1 || hashCount < 1) {
+			throw new IllegalArgumentException("A bloom filter needs room for at least one fingerprint");
+		}
+		this.capacity = capacity;
+		this.hashCount = hashCount;
+		this.bitCount = capacity * bitsPerEntry;
+		this.bits = new long[Bits.words(bitCount)];
+	}
+	
+	/**
+	 * Adds a fingerprint, clearing the filter first if it's full
+	 * @param fingerprint - the fingerprint to add
+	 */
+	public void add(long fingerprint) {
+		if (size == capacity) {
+			clear();
+		}
+		// Double hashing: the i-th bit comes from h1 + i*h2
+		long h1 = Bits.mix(fingerprint);
+		long h2 = Bits.mix(h1) | 1;
+		for (int i = 0; i < hashCount; i++) {
+			Bits.set(bits, index(h1 + i * h2));
+		}
+		size++;
+	}
+	
+	/**
+	 * Checks for a fingerprint
+	 * @param fingerprint - the fingerprint to look for
+	 * @return false if the fingerprint hasn't been added since the filter was last cleared,
+	 * 		true if it probably has
+	 */
+	public boolean mightContain(long fingerprint) {
+		long h1 = Bits.mix(fingerprint);
+		long h2 = Bits.mix(h1) | 1;
+		for (int i = 0; i < hashCount; i++) {
+			if (!Bits.get(bits, index(h1 + i * h2))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes every fingerprint
+	 */
+	public void clear() {
+		Arrays.fill(bits, 0);
+		size = 0;
+	}
+	
+	/**
+	 * @return the amount of fingerprints added since the filter was last cleared
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Maps a hash onto a bit of the filter
+	 */
+	private int index(long hash) {
+		return (int) ((hash >>> 1) % bitCount);
+	}
+}
@@ -0,0 +1,391 @@
+package uk.singlekey.repeata_freak;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Grades how hard a puzzle is to solve, quickly enough to grade every puzzle as it is
+ * created.
+ *
+ * A block can only go where its colors match the solution's section, which depends only on
+ * where the block starts within a section (its phase). So each block gets a bitmask of the
+ * phases it fits at, worked out with one shift and AND per square, and everything else is
+ * found from these masks:
+ * 		placements - the amount of board positions each block could be put in
+ * 		branching - filling the board from left to right along the solution, the amount of
+ * 		            different blocks that could be put in the next square at each step
+ * 		identical blocks - blocks with the same colors as another block, which are
+ * 		                   interchangeable and so don't make the puzzle harder
+ * 		section ratio - the section length compared to the length of the board
+ *
+ * The score is the sum of log2(branching) over every step, which estimates how many bits
+ * of guessing a player has to do. Puzzles can be sorted by it.
+ *
+ * Usage: DifficultyEstimator [-n count] [-length n] [-colors n] [-seed n] [pack [sorted-pack]]
+ * 		grades generated puzzles, or every puzzle in a pack (writing them sorted, easiest
+ * 		first, if a second file is given)
+ *
+ * @author Samuel O'Sullivan
+ */
+public final class DifficultyEstimator {
+	
+	/**
+	 * The grade of a single puzzle
+	 */
+	public static class Estimate implements Comparable<Estimate> {
+		
+		// The amount of blocks in the puzzle
+		private int blockCount;
+		
+		// The amount of positions the blocks could be put in
+		private double meanPlacements;
+		private int minPlacements;
+		
+		// The amount of choices at each step of filling the board, in solution order
+		private int[] branching;
+		private double meanBranching;
+		private int maxBranching;
+		
+		// The amount of blocks that have the same colors as an earlier block
+		private int identicalBlocks;
+		
+		// The section length divided by the board length
+		private double sectionRatio;
+		
+		// The sum of log2(branching)
+		private double score;
+		
+		/**
+		 * @return the amount of blocks in the puzzle
+		 */
+		public int getBlockCount() {
+			return blockCount;
+		}
+		
+		/**
+		 * @return the mean amount of board positions that a block fits in the solution
+		 */
+		public double getMeanPlacements() {
+			return meanPlacements;
+		}
+		
+		/**
+		 * @return the least amount of board positions that any block fits in the solution
+		 */
+		public int getMinPlacements() {
+			return minPlacements;
+		}
+		
+		/**
+		 * @param depth - the amount of blocks already on the board, from 0 to getBlockCount()-1
+		 * @return the amount of different blocks that could be put next
+		 */
+		public int getBranching(int depth) {
+			return branching[depth];
+		}
+		
+		/**
+		 * @return the mean of getBranching over every depth
+		 */
+		public double getMeanBranching() {
+			return meanBranching;
+		}
+		
+		/**
+		 * @return the most choices at any depth
+		 */
+		public int getMaxBranching() {
+			return maxBranching;
+		}
+		
+		/**
+		 * @return the amount of blocks that have the same colors as another block
+		 */
+		public int getIdenticalBlocks() {
+			return identicalBlocks;
+		}
+		
+		/**
+		 * @return the section length divided by the board length
+		 */
+		public double getSectionRatio() {
+			return sectionRatio;
+		}
+		
+		/**
+		 * @return the estimated bits of guessing needed to solve the puzzle (higher is harder)
+		 */
+		public double getScore() {
+			return score;
+		}
+		
+		/**
+		 * Orders estimates easiest first
+		 */
+		public int compareTo(Estimate other) {
+			return Double.compare(score, other.score);
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("score %.1f, placements %.1f (min %d), branching %.2f (max %d), %d/%d identical, section ratio %.3f",
+					score, meanPlacements, minPlacements, meanBranching, maxBranching, identicalBlocks, blockCount, sectionRatio);
+		}
+	}
+	
+	private DifficultyEstimator() {
+	}
+	
+	/**
+	 * Grades a puzzle. The puzzle can be in any state, as only its solution is used.
+	 * @param puzzle - the puzzle to grade
+	 * @return the grade
+	 */
+	public static Estimate estimate(Puzzle puzzle) {
+		int length = puzzle.getLength();
+		int sectionLength = puzzle.getSectionLength();
+		int[] section = puzzle.getSection();
+		int blockCount = puzzle.getBlockCount();
+		Estimate estimate = new Estimate();
+		estimate.blockCount = blockCount;
+		estimate.sectionRatio = (double) sectionLength / length;
+		
+		// Group identical blocks into classes, as it makes no difference which of them is used
+		int[] blockClass = new int[blockCount];
+		int[] classSize = new int[blockCount];
+		Block[] classBlock = new Block[blockCount];
+		int classCount = 0;
+		// Classes are found by a hash of their colors, with classes that share a hash chained
+		HashMap<Integer, Integer> classByHash = new HashMap<Integer, Integer>();
+		int[] nextWithHash = new int[blockCount];
+		for (int b = 0; b < blockCount; b++) {
+			Block block = puzzle.getBlock(b);
+			int hash = 31 * Arrays.hashCode(block.getPackedSquares()) + block.getSize();
+			Integer first = classByHash.get(hash);
+			int c = first == null ? -1 : first;
+			while (c != -1 && !sameColors(block, classBlock[c])) {
+				c = nextWithHash[c];
+			}
+			if (c == -1) {
+				c = classCount++;
+				classBlock[c] = block;
+				nextWithHash[c] = first == null ? -1 : first;
+				classByHash.put(hash, c);
+			}
+			else {
+				estimate.identicalBlocks++;
+			}
+			blockClass[b] = c;
+		}
+		
+		for (int b = 0; b < blockCount; b++) {
+			classSize[blockClass[b]]++;
+		}
+		
+		// canStart[phase] is a bitmask of the classes that fit at that phase
+		int classWords = Bits.words(classCount);
+		long[][] canStart = new long[sectionLength][classWords];
+		long[] phases = new long[Bits.words(sectionLength)];
+		long placements = 0;
+		int maxSize = 0;
+		estimate.minPlacements = blockCount == 0 ? 0 : Integer.MAX_VALUE;
+		for (int c = 0; c < classCount; c++) {
+			Block block = classBlock[c];
+			maxSize = Math.max(maxSize, block.getSize());
+			findPhases(block, section, phases);
+			int classPlacements = 0;
+			int last = length - block.getSize();
+			for (int phase = 0; phase < sectionLength; phase++) {
+				if (Bits.get(phases, phase)) {
+					Bits.set(canStart[phase], c);
+					// Every position at this phase that the block doesn't overflow the board from
+					if (phase <= last) {
+						classPlacements += (last - phase) / sectionLength + 1;
+					}
+				}
+			}
+			estimate.minPlacements = Math.min(estimate.minPlacements, classPlacements);
+			placements += (long) classSize[c] * classPlacements;
+		}
+		estimate.meanPlacements = blockCount == 0 ? 0 : (double) placements / blockCount;
+		
+		// Fill the board along the solution, counting the classes that could go next each time
+		long[] remaining = new long[classWords];
+		Bits.fill(remaining, 0, classCount, true);
+		int[] left = Arrays.copyOf(classSize, classCount);
+		estimate.branching = new int[blockCount];
+		int position = 0;
+		long totalBranching = 0;
+		for (int b = 0; b < blockCount; b++) {
+			long[] candidates = canStart[position % sectionLength];
+			int choices = 0;
+			for (int w = 0; w < classWords; w++) {
+				long bits = candidates[w] & remaining[w];
+				if (length - position < maxSize && bits != 0) {
+					// Near the end of the board, some blocks are too long to fit
+					long fits = 0;
+					for (long rest = bits; rest != 0; rest &= rest - 1) {
+						int c = (w << 6) + Long.numberOfTrailingZeros(rest);
+						if (classBlock[c].getSize() <= length - position) {
+							fits |= rest & -rest;
+						}
+					}
+					bits = fits;
+				}
+				choices += Long.bitCount(bits);
+			}
+			estimate.branching[b] = choices;
+			estimate.maxBranching = Math.max(estimate.maxBranching, choices);
+			estimate.score += Math.log(Math.max(choices, 1)) / Math.log(2);
+			totalBranching += choices;
+			
+			int c = blockClass[b];
+			if (--left[c] == 0) {
+				remaining[c >>> 6] &= ~(1L << c);
+			}
+			position += puzzle.getBlock(b).getSize();
+		}
+		estimate.meanBranching = blockCount == 0 ? 0 : (double) totalBranching / blockCount;
+		return estimate;
+	}
+	
+	/**
+	 * Finds every phase that a block matches the section at.
+	 * Blocks are cut from a repeating solution, so if the first sectionLength squares of a
+	 * block match, the rest do too.
+	 * @param block - the block
+	 * @param section - the colors of the solution's section
+	 * @param phases - set to a bitmask of the phases the block fits at
+	 */
+	private static void findPhases(Block block, int[] section, long[] phases) {
+		int sectionLength = section.length;
+		int squares = Math.min(block.getSize(), sectionLength);
+		if (sectionLength <= 64) {
+			// Square i of the block is at phase+i, so shift the mask of where each color is
+			// in the section back by i and AND them together
+			long all = sectionLength == 64 ? -1L : (1L << sectionLength) - 1;
+			long fits = all;
+			for (int i = 0; i < squares && fits != 0; i++) {
+				long colorMask = 0;
+				int color = block.getSquare(i);
+				for (int s = 0; s < sectionLength; s++) {
+					if (section[s] == color) {
+						colorMask |= 1L << s;
+					}
+				}
+				// Rotate right by i within sectionLength bits
+				long rotated = i == 0 ? colorMask : ((colorMask >>> i) | (colorMask << (sectionLength - i))) & all;
+				fits &= rotated;
+			}
+			phases[0] = fits;
+			return;
+		}
+		// Sections too long for a single long are rare, so just compare square by square
+		Arrays.fill(phases, 0);
+		for (int phase = 0; phase < sectionLength; phase++) {
+			int i = 0;
+			while (i < squares && block.getSquare(i) == section[(phase + i) % sectionLength]) {
+				i++;
+			}
+			if (i == squares) {
+				Bits.set(phases, phase);
+			}
+		}
+	}
+	
+	/**
+	 * @return true if the two blocks have the same colors
+	 */
+	private static boolean sameColors(Block a, Block b) {
+		if (a.getSize() != b.getSize()) {
+			return false;
+		}
+		long[] squaresA = a.getPackedSquares();
+		long[] squaresB = b.getPackedSquares();
+		for (int w = 0; w < squaresA.length; w++) {
+			if (squaresA[w] != squaresB[w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Grades generated puzzles or a pack, and prints a summary
+	 * @param args - see the class description
+	 */
+	public static void main(String[] args) throws IOException {
+		int n = 100000;
+		int length = 18;
+		int colors = Puzzle.DEFAULT_COLORS;
+		long seed = 1;
+		int i = 0;
+		for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+			String value = args[i+1];
+			if (args[i].equals("-n")) {
+				n = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-length")) {
+				length = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-colors")) {
+				colors = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-seed")) {
+				seed = Long.parseLong(value);
+			}
+			else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		
+		PuzzlePack pack = null;
+		if (i < args.length) {
+			pack = PuzzlePack.open(new File(args[i]));
+			n = pack.size();
+		}
+		
+		Random seeds = new Random(seed);
+		Estimate[] estimates = new Estimate[n];
+		long nanos = 0;
+		for (int p = 0; p < n; p++) {
+			Puzzle puzzle = pack != null ? pack.get(p)
+					: new Puzzle(length, colors, PuzzleLayout.DEFAULT_MAX_SQUARES, seeds.nextLong());
+			long start = System.nanoTime();
+			estimates[p] = estimate(puzzle);
+			nanos += System.nanoTime() - start;
+		}
+		System.out.println(String.format("graded %d puzzles, %.2fus each", n, nanos / 1e3 / Math.max(n, 1)));
+		
+		// Sort the puzzles by their score, keeping track of where each came from
+		Integer[] order = new Integer[n];
+		for (int p = 0; p < n; p++) {
+			order[p] = p;
+		}
+		final Estimate[] sortBy = estimates;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return sortBy[a].compareTo(sortBy[b]);
+			}
+		});
+		if (n > 0) {
+			System.out.println("easiest: " + estimates[order[0]]);
+			System.out.println("median:  " + estimates[order[n / 2]]);
+			System.out.println("hardest: " + estimates[order[n - 1]]);
+		}
+		
+		if (pack != null && i + 1 < args.length) {
+			PuzzlePack.Writer writer = new PuzzlePack.Writer(new File(args[i+1]));
+			for (int p = 0; p < n; p++) {
+				writer.add(pack.get(order[p]));
+			}
+			writer.close();
+			System.out.println("wrote the puzzles, easiest first, to " + args[i+1]);
+		}
+	}
+}
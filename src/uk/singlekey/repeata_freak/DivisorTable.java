@@ -0,0 +1,109 @@
+package uk.singlekey.repeata_freak;
+
+import java.util.Arrays;
+
+/**
+ * A table of the smallest prime factor of every number up to a limit, so that the divisors
+ * of a board length can be found from its prime factors instead of by trial division.
+ * The table is shared by every puzzle and grows (by doubling) when a longer board is needed.
+ *
+ * @author Samuel O'Sullivan
+ */
+public final class DivisorTable {
+	
+	// smallestFactor[n] is the smallest prime that divides n (for n >= 2)
+	private static int[] smallestFactor = sieve(1024);
+	
+	private DivisorTable() {
+	}
+	
+	/**
+	 * Finds every divisor of a number
+	 * @param n - the number, at least 1
+	 * @return the divisors of n (including 1 and n), smallest first
+	 */
+	public static int[] divisors(int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("Can't find the divisors of " + n);
+		}
+		int[] table = tableFor(n);
+		
+		// Start with just 1, then for each prime power p^k dividing n, multiply every
+		// divisor found so far by p, p^2 ... p^k
+		int[] divisors = new int[countDivisors(n, table)];
+		divisors[0] = 1;
+		int count = 1;
+		int remaining = n;
+		while (remaining > 1) {
+			int prime = table[remaining];
+			int previousCount = count;
+			int power = 1;
+			while (remaining % prime == 0) {
+				remaining /= prime;
+				power *= prime;
+				for (int i = 0; i < previousCount; i++) {
+					divisors[count++] = divisors[i] * power;
+				}
+			}
+		}
+		Arrays.sort(divisors);
+		return divisors;
+	}
+	
+	/**
+	 * @param n - the number to check
+	 * @return true if n is prime
+	 */
+	public static boolean isPrime(int n) {
+		return n >= 2 && tableFor(n)[n] == n;
+	}
+	
+	/**
+	 * Counts the divisors of n from its prime factors
+	 */
+	private static int countDivisors(int n, int[] table) {
+		int count = 1;
+		while (n > 1) {
+			int prime = table[n];
+			int exponent = 0;
+			while (n % prime == 0) {
+				n /= prime;
+				exponent++;
+			}
+			count *= exponent + 1;
+		}
+		return count;
+	}
+	
+	/**
+	 * Gets a table that covers n, growing the shared table if it is too small
+	 */
+	private static synchronized int[] tableFor(int n) {
+		if (n >= smallestFactor.length) {
+			int size = smallestFactor.length;
+			while (size <= n) {
+				size = size > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE - 8 : size * 2;
+			}
+			smallestFactor = sieve(size);
+		}
+		return smallestFactor;
+	}
+	
+	/**
+	 * Sieve of Eratosthenes, recording the smallest prime factor of every number below size
+	 */
+	private static int[] sieve(int size) {
+		int[] table = new int[size];
+		for (int i = 2; i < size; i++) {
+			if (table[i] == 0) {
+				// i is prime, so it's the smallest factor of every multiple not already marked
+				for (long j = i; j < size; j += i) {
+					if (table[(int) j] == 0) {
+						table[(int) j] = i;
+					}
+				}
+			}
+		}
+		return table;
+	}
+}
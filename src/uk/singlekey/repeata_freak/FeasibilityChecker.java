@@ -0,0 +1,304 @@
+package uk.singlekey.repeata_freak;
+
+import java.util.Arrays;
+
+/**
+ * Works out, while a puzzle is being played, whether the blocks left in storage can still
+ * finish the board, so the user can be told as soon as they have made a dead end rather
+ * than only once the storage area is empty.
+ *
+ * A solved board repeats every section, so the squares of each "column" (the squares the
+ * same distance into their section) must all be one color. The checker keeps, for each
+ * column, how many squares of each color have been put in it, which is updated a block at a
+ * time as blocks are moved:
+ * 		- a column with two colors in it can never be finished
+ * 		- every block is used in the end, so each color fills a fixed amount of columns (its
+ * 		  squares divided by the amount of sections); once that many columns have a color,
+ * 		  no other column can have it
+ * Then each gap left on the board must be filled exactly by remaining blocks whose colors
+ * are allowed in the columns they would cover, which is found for each gap in one pass
+ * along it. Finally the sizes of the remaining blocks must be able to add up to each gap.
+ *
+ * These are all things any solution needs, so when the checker says there is a dead end
+ * there certainly is one; it may miss a dead end that only a full search would find.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class FeasibilityChecker {
+	
+	// The puzzle being checked, and its stateHash when the counts were last brought up to date
+	private Puzzle puzzle;
+	private long syncedHash;
+	
+	// The amount of sections and of colors, and the length of a section
+	private int sections;
+	private int colorCount;
+	private int sectionLength;
+	
+	// How many squares of each color are in each column (column*colorCount + color), and how
+	// many different colors each column has
+	private int[] columnCounts = new int[0];
+	private int[] columnColors = new int[0];
+	
+	// The amount of columns with more than one color
+	private int conflicts;
+	
+	// How many columns each color will fill once solved, and how many columns have it so far
+	private int[] quota = new int[0];
+	private int[] claimed = new int[0];
+	
+	// Whether the last answer is still right, and what it was
+	private boolean known;
+	private boolean deadEnd;
+	
+	// The remaining blocks with different squares (identical blocks are only tried once),
+	// and how many there are. Reused for every check.
+	private Block[] kinds = new Block[0];
+	private int kindCount;
+	
+	// Which positions of the gap being checked can be reached by filling it from its start
+	private boolean[] reachable = new boolean[0];
+	
+	// Which sums the sizes of the remaining blocks can add up to, one bit each
+	private long[] sums = new long[0];
+	
+	/**
+	 * Starts checking a puzzle, in whatever state it is in
+	 * @param puzzle - the puzzle being played
+	 */
+	public void reset(Puzzle puzzle) {
+		this.puzzle = puzzle;
+		this.sectionLength = puzzle.getSectionLength();
+		this.colorCount = puzzle.getColorCount();
+		this.sections = puzzle.getLength() / sectionLength;
+		
+		if (columnCounts.length < sectionLength * colorCount) {
+			columnCounts = new int[sectionLength * colorCount];
+		}
+		if (columnColors.length < sectionLength) {
+			columnColors = new int[sectionLength];
+		}
+		if (quota.length < colorCount) {
+			quota = new int[colorCount];
+			claimed = new int[colorCount];
+		}
+		if (reachable.length < puzzle.getLength() + 1) {
+			reachable = new boolean[puzzle.getLength() + 1];
+		}
+		if (kinds.length < puzzle.getBlockCount()) {
+			kinds = new Block[puzzle.getBlockCount()];
+		}
+		Arrays.fill(columnCounts, 0);
+		Arrays.fill(columnColors, 0);
+		Arrays.fill(quota, 0);
+		Arrays.fill(claimed, 0);
+		conflicts = 0;
+		
+		// Every square of every block ends up on the board, a section's worth at a time
+		for (int b = 0; b < puzzle.getBlockCount(); b++) {
+			Block block = puzzle.getBlock(b);
+			for (int i = 0; i < block.getSize(); i++) {
+				quota[block.getSquare(i)]++;
+			}
+			if (block.getBoardPosition() != -1) {
+				place(block, block.getBoardPosition(), 1);
+			}
+		}
+		for (int color = 0; color < colorCount; color++) {
+			quota[color] /= sections;
+		}
+		syncedHash = puzzle.stateHash();
+		known = false;
+	}
+	
+	/**
+	 * Brings the counts up to date after a block has been moved, without going through the
+	 * rest of the board
+	 * @param block - the block that was moved
+	 * @param from - where it was on the board before, or -1 if it was in storage
+	 */
+	public void blockMoved(Block block, int from) {
+		if (from != -1) {
+			place(block, from, -1);
+		}
+		if (block.getBoardPosition() != -1) {
+			place(block, block.getBoardPosition(), 1);
+		}
+		syncedHash = puzzle.stateHash();
+		known = false;
+	}
+	
+	/**
+	 * Adds a block's squares to the columns they are in, or takes them away
+	 * @param position - where the block is
+	 * @param change - 1 to add the squares, -1 to take them away
+	 */
+	private void place(Block block, int position, int change) {
+		for (int i = 0; i < block.getSize(); i++) {
+			int column = (position + i) % sectionLength;
+			int color = block.getSquare(i);
+			int count = columnCounts[column*colorCount + color] += change;
+			if (change == 1 && count == 1) {
+				if (++columnColors[column] == 2) {
+					conflicts++;
+				}
+				claimed[color]++;
+			}
+			else if (change == -1 && count == 0) {
+				if (--columnColors[column] == 1) {
+					conflicts--;
+				}
+				claimed[color]--;
+			}
+		}
+	}
+	
+	/**
+	 * @return true if the remaining blocks certainly can't finish the board. The answer is
+	 * 		kept until a block is moved, so asking again is free.
+	 */
+	public boolean isDeadEnd() {
+		// Blocks may have been moved without telling us (e.g. an opponent's copy of a race)
+		if (puzzle.stateHash() != syncedHash) {
+			reset(puzzle);
+		}
+		if (!known) {
+			Tracer.begin("isDeadEnd");
+			deadEnd = check();
+			known = true;
+			Tracer.end();
+		}
+		return deadEnd;
+	}
+	
+	/**
+	 * Does the checks, from the cheapest to the dearest
+	 */
+	private boolean check() {
+		if (puzzle.getStorageSize() == 0) {
+			return !puzzle.isSolved();
+		}
+		if (conflicts > 0) {
+			return true;
+		}
+		for (int color = 0; color < colorCount; color++) {
+			if (claimed[color] > quota[color]) {
+				return true;
+			}
+		}
+		
+		findKinds();
+		findSums();
+		
+		// Go through each gap on the board
+		int length = puzzle.getLength();
+		int gapStart = 0;
+		while (gapStart < length) {
+			while (gapStart < length && puzzle.getSquare(gapStart) != Puzzle.EMPTY) {
+				gapStart++;
+			}
+			int gapEnd = gapStart;
+			while (gapEnd < length && puzzle.getSquare(gapEnd) == Puzzle.EMPTY) {
+				gapEnd++;
+			}
+			if (gapEnd > gapStart) {
+				if (!Bits.get(sums, gapEnd - gapStart) || !canFill(gapStart, gapEnd)) {
+					return true;
+				}
+			}
+			gapStart = gapEnd;
+		}
+		return false;
+	}
+	
+	/**
+	 * Finds the remaining blocks that are different from each other
+	 */
+	private void findKinds() {
+		kindCount = 0;
+		for (int i = 0; i < puzzle.getStorageSize(); i++) {
+			Block block = puzzle.getBlockFromStorage(i);
+			boolean seen = false;
+			for (int k = 0; k < kindCount && !seen; k++) {
+				seen = kinds[k].getColorHash() == block.getColorHash();
+			}
+			if (!seen) {
+				kinds[kindCount++] = block;
+			}
+		}
+	}
+	
+	/**
+	 * Finds every sum of the sizes of some of the remaining blocks, each used at most once,
+	 * by adding each block to every sum found so far - a word at a time
+	 */
+	private void findSums() {
+		int length = puzzle.getLength();
+		int words = Bits.words(length + 1);
+		if (sums.length < words) {
+			sums = new long[words];
+		}
+		else {
+			Arrays.fill(sums, 0);
+		}
+		Bits.set(sums, 0);
+		for (int i = 0; i < puzzle.getStorageSize(); i++) {
+			int size = puzzle.getBlockFromStorage(i).getSize();
+			// sums |= sums << size, from the top down so that a block is only added once
+			int wordShift = size / 64;
+			int bitShift = size % 64;
+			for (int w = words - 1; w >= wordShift; w--) {
+				long shifted = sums[w - wordShift] << bitShift;
+				if (bitShift != 0 && w - wordShift - 1 >= 0) {
+					shifted |= sums[w - wordShift - 1] >>> (64 - bitShift);
+				}
+				sums[w] |= shifted;
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether a gap can be filled exactly by remaining blocks whose colors fit the
+	 * columns they cover, going along the gap and marking where each block that fits would end
+	 * @param start - the first square of the gap
+	 * @param end - the square after the gap
+	 * @return true if the gap can be filled (using any amount of each kind of block)
+	 */
+	private boolean canFill(int start, int end) {
+		Arrays.fill(reachable, start, end + 1, false);
+		reachable[start] = true;
+		for (int position = start; position < end; position++) {
+			if (!reachable[position]) {
+				continue;
+			}
+			for (int k = 0; k < kindCount; k++) {
+				Block block = kinds[k];
+				int blockEnd = position + block.getSize();
+				if (blockEnd <= end && !reachable[blockEnd] && fits(block, position)) {
+					reachable[blockEnd] = true;
+				}
+			}
+		}
+		return reachable[end];
+	}
+	
+	/**
+	 * @return true if every square of a block could be the color of the column it would be in
+	 * 		at a position: the column's color if it has one, or any color with columns to spare
+	 */
+	private boolean fits(Block block, int position) {
+		for (int i = 0; i < block.getSize(); i++) {
+			int column = (position + i) % sectionLength;
+			int color = block.getSquare(i);
+			if (columnColors[column] == 0) {
+				if (claimed[color] >= quota[color]) {
+					return false;
+				}
+			}
+			else if (columnCounts[column*colorCount + color] == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,140 @@
+package uk.singlekey.repeata_freak;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Calls back once on the next frame of the display, however many times a frame is asked for
+ * before then.
+ *
+ * From Jelly Bean (API 16) frames come from Choreographer, so they are in step with the
+ * display's vsync. Before that, frames are timed to the next 16ms boundary, which is as close
+ * as older versions of android can get.
+ *
+ * A scheduler belongs to the thread of its looper, and must only be used on that thread.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class FrameScheduler {
+	
+	/**
+	 * Told when a frame starts
+	 */
+	public interface Callback {
+		/**
+		 * Called on the scheduler's thread at the start of a frame
+		 * @param frameTimeNanos - when the frame started (in the time base of System.nanoTime)
+		 */
+		void onFrame(long frameTimeNanos);
+	}
+	
+	// How long a frame lasts when the display can't tell us (60 frames per second)
+	private static final long FRAME_MILLIS = 16;
+	private static final long FRAME_NANOS = 16666667L;
+	
+	// Told when each frame starts
+	private Callback callback;
+	
+	// Whether a frame has been asked for and hasn't started yet
+	private boolean scheduled;
+	
+	// Used to time frames before Jelly Bean
+	private Handler handler;
+	
+	// Used to get frames from the display from Jelly Bean onwards, created on first use
+	private Vsync vsync;
+	
+	/**
+	 * Starts a frame before Jelly Bean
+	 */
+	private Runnable frameTask = new Runnable() {
+		public void run() {
+			onFrame(System.nanoTime());
+		}
+	};
+	
+	/**
+	 * Constructor for the FrameScheduler class
+	 * @param looper - the looper of the thread that frames will be called back on
+	 * @param callback - told when each frame starts
+	 */
+	public FrameScheduler(Looper looper, Callback callback) {
+		this.handler = new Handler(looper);
+		this.callback = callback;
+	}
+	
+	/**
+	 * Asks for the callback to be called at the start of the next frame. Does nothing if a
+	 * frame has already been asked for.
+	 */
+	public void scheduleFrame() {
+		if (scheduled) {
+			return;
+		}
+		scheduled = true;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			if (vsync == null) {
+				vsync = new Vsync();
+			}
+			vsync.post();
+		}
+		else {
+			handler.postDelayed(frameTask, FRAME_MILLIS - SystemClock.uptimeMillis() % FRAME_MILLIS);
+		}
+	}
+	
+	/**
+	 * Stops the callback being called for a frame that has been asked for
+	 */
+	public void cancel() {
+		if (!scheduled) {
+			return;
+		}
+		scheduled = false;
+		if (vsync != null) {
+			vsync.remove();
+		}
+		handler.removeCallbacks(frameTask);
+	}
+	
+	/**
+	 * Checks whether a frame has started so long ago that the next one is already due, e.g.
+	 * because the thread was busy. Drawing an animation for a late frame only makes the
+	 * frame after it late too, so it's better skipped.
+	 * @param frameTimeNanos - when the frame started
+	 * @return true if the frame is more than a frame late
+	 */
+	public static boolean isLate(long frameTimeNanos) {
+		return System.nanoTime() - frameTimeNanos > FRAME_NANOS;
+	}
+	
+	private void onFrame(long frameTimeNanos) {
+		scheduled = false;
+		callback.onFrame(frameTimeNanos);
+	}
+	
+	/**
+	 * Gets frames from Choreographer. Kept in its own class so that it's only loaded on
+	 * versions of android that have Choreographer.
+	 */
+	private class Vsync implements Choreographer.FrameCallback {
+		
+		// Choreographer belongs to the thread that gets it, which is the scheduler's thread
+		private Choreographer choreographer = Choreographer.getInstance();
+		
+		void post() {
+			choreographer.postFrameCallback(this);
+		}
+		
+		void remove() {
+			choreographer.removeFrameCallback(this);
+		}
+		
+		public void doFrame(long frameTimeNanos) {
+			onFrame(frameTimeNanos);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package uk.singlekey.repeata_freak;
+
+/**
+ * A block of a GridPuzzle: a polyomino, i.e. squares joined along their sides in any shape.
+ *
+ * The shape is a bitboard with the same layout as the GridPuzzle's board (bit row*STRIDE +
+ * column), with the top left of the block's bounding box at bit 0. Shifting it left by a
+ * board position gives the squares it would cover there, so moving a block is a handful of
+ * word-wide operations however many squares it has.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class GridBlock {
+	
+	/**
+	 * The squares of the block, with the top left of its bounding box at bit 0
+	 */
+	private final long shape;
+	
+	/**
+	 * The squares of the block of each color, laid out like shape
+	 */
+	private final long[] colorMasks;
+	
+	/**
+	 * The size of the block's bounding box
+	 */
+	private final int width, height;
+	
+	/**
+	 * The position of the top left of the block's bounding box on the board, or -1 if the
+	 * block is in storage
+	 */
+	private int boardPosition = -1;
+	
+	/**
+	 * A hash of the block's shape and colors, so that identical blocks have the same hash
+	 */
+	private final long colorHash;
+	
+	/**
+	 * Constructor for the GridBlock class. The block starts in storage.
+	 * @param shape - the squares of the block, with the top left of its bounding box at bit 0
+	 * @param colorMasks - the squares of the block of each color, laid out like shape
+	 */
+	public GridBlock(long shape, long[] colorMasks) {
+		this.shape = shape;
+		this.colorMasks = colorMasks;
+		
+		int width = 0;
+		int height = 0;
+		for (long rest = shape; rest != 0; rest &= rest - 1) {
+			int bit = Long.numberOfTrailingZeros(rest);
+			width = Math.max(width, bit % GridPuzzle.STRIDE + 1);
+			height = Math.max(height, bit / GridPuzzle.STRIDE + 1);
+		}
+		this.width = width;
+		this.height = height;
+		
+		long hash = Bits.mix(shape);
+		for (long mask : colorMasks) {
+			hash = Bits.mix(hash ^ mask);
+		}
+		this.colorHash = hash;
+	}
+	
+	/**
+	 * @return the squares of the block, with the top left of its bounding box at bit 0
+	 */
+	public long getShape() {
+		return this.shape;
+	}
+	
+	/**
+	 * @param color - the index of a color of the puzzle's palette
+	 * @return the squares of the block of that color, laid out like getShape()
+	 */
+	public long getColorMask(int color) {
+		return this.colorMasks[color];
+	}
+	
+	/**
+	 * Get the color of a square of the block
+	 * @param row - the row of the square, from the top of the bounding box
+	 * @param column - the column of the square, from the left of the bounding box
+	 * @return the index of the square's color, or Puzzle.EMPTY if the square isn't part of
+	 * 		the block
+	 */
+	public int getSquare(int row, int column) {
+		long bit = 1L << (row*GridPuzzle.STRIDE + column);
+		for (int color = 0; color < colorMasks.length; color++) {
+			if ((colorMasks[color] & bit) != 0) {
+				return color;
+			}
+		}
+		return Puzzle.EMPTY;
+	}
+	
+	/**
+	 * @return the amount of squares in the block
+	 */
+	public int getSize() {
+		return Long.bitCount(this.shape);
+	}
+	
+	/**
+	 * @return the width of the block's bounding box (squares)
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+	
+	/**
+	 * @return the height of the block's bounding box (squares)
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+	
+	/**
+	 * @return the position of the top left of the block's bounding box on the board, or -1
+	 * 		if the block is in storage
+	 */
+	public int getBoardPosition() {
+		return this.boardPosition;
+	}
+	
+	/**
+	 * @param position - the new position of the block on the board, or -1 for storage
+	 */
+	public void setBoardPosition(int position) {
+		this.boardPosition = position;
+	}
+	
+	/**
+	 * @return a hash of the block's shape and colors
+	 */
+	public long getColorHash() {
+		return this.colorHash;
+	}
+}
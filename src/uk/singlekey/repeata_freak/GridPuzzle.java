@@ -0,0 +1,578 @@
+package uk.singlekey.repeata_freak;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * A two-dimensional puzzle: the board is a grid split into identical rectangular tiles, which
+ * repeat both across and down it, and the blocks are polyominoes (see GridBlock). The puzzle
+ * is solved when every block is on the board and every tile is the same.
+ *
+ * The board is at most 8 by 8, so the whole of it fits in a 64-bit bitboard, with square
+ * (row, column) at bit row*STRIDE + column. Which squares are occupied is one bitboard, and
+ * the squares of each color are another, so checking whether a block fits, finding every
+ * place it could go and checking whether the puzzle is solved are all a few word-wide
+ * operations rather than loops over squares.
+ *
+ * Moving blocks works the same way as Puzzle, with a board position being row*STRIDE + column
+ * of the top left of the block's bounding box.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class GridPuzzle {
+	
+	/**
+	 * The distance between the bits of two squares above each other on a bitboard, which is
+	 * also the most rows and columns a board can have
+	 */
+	public static final int STRIDE = 8;
+	
+	/**
+	 * The most squares a block can have
+	 */
+	public static final int MAX_BLOCK_SQUARES = 5;
+	
+	// The sizes a side of the board can be: each can be split into at least two tiles that
+	// are more than one square long
+	private static final int[] SIDES = { 4, 6, 8 };
+	
+	// The first column of every row, and the last
+	private static final long FIRST_COLUMN = 0x0101010101010101L;
+	private static final long LAST_COLUMN = FIRST_COLUMN << (STRIDE - 1);
+	
+	/**
+	 * The size of the board and of a tile (squares)
+	 */
+	private final int width, height;
+	private int tileWidth, tileHeight;
+	
+	/**
+	 * The amount of colors the puzzle uses
+	 */
+	private final int colorCount;
+	
+	/**
+	 * The squares of the board
+	 */
+	private final long boardMask;
+	
+	/**
+	 * The squares that must match the square a tile to their right, and a tile below them,
+	 * for the puzzle to be solved
+	 */
+	private long acrossMask, downMask;
+	
+	/**
+	 * The squares that have a block in them
+	 */
+	private long occupied;
+	
+	/**
+	 * The squares of each color. A square's color only means something if it is occupied.
+	 */
+	private final long[] colorBoards;
+	
+	/**
+	 * All of the blocks, in the order they were cut from the solution, and the blocks in
+	 * storage (a sublist of allBlocks)
+	 */
+	private final ArrayList<GridBlock> allBlocks = new ArrayList<GridBlock>();
+	private final ArrayList<GridBlock> storageArea = new ArrayList<GridBlock>();
+	
+	/**
+	 * A Zobrist hash of where the blocks are on the board (see Puzzle.stateHash)
+	 */
+	private long stateHash;
+	
+	/**
+	 * The seed that every random choice made while creating the puzzle comes from
+	 */
+	private final long seed;
+	
+	/**
+	 * Constructor for the GridPuzzle class.
+	 * Creates a puzzle whose size depends on a difficulty, from 4 by 4 for difficulty 1 up to
+	 * 8 by 8.
+	 * @param difficulty - decides the size of the board
+	 * @param colorCount - the amount of colors the puzzle uses
+	 * @param seed - the seed used for every random choice when creating the puzzle
+	 */
+	public GridPuzzle(int difficulty, int colorCount, long seed) {
+		this(SIDES[Math.max(0, Math.min(SIDES.length - 1, difficulty / 2))],
+				SIDES[Math.max(0, Math.min(SIDES.length - 1, (difficulty - 1) / 2))],
+				colorCount, seed);
+	}
+	
+	/**
+	 * Constructor for the GridPuzzle class.
+	 * Creates a random puzzle with a board of the given size. Two puzzles created with the
+	 * same arguments are identical.
+	 * @param width - the amount of columns on the board, which must be 4, 6 or 8
+	 * @param height - the amount of rows on the board, which must be 4, 6 or 8
+	 * @param colorCount - the amount of colors the puzzle uses
+	 * @param seed - the seed used for every random choice when creating the puzzle
+	 */
+	public GridPuzzle(int width, int height, int colorCount, long seed) {
+		if (width < 4 || width > STRIDE || height < 4 || height > STRIDE || DivisorTable.isPrime(width) || DivisorTable.isPrime(height)) {
+			throw new IllegalArgumentException("A board of " + width + " by " + height + " can't be split into tiles");
+		}
+		if (colorCount < 2 || colorCount > Puzzle.MAX_COLORS) {
+			throw new IllegalArgumentException("A puzzle can't use " + colorCount + " colors");
+		}
+		this.width = width;
+		this.height = height;
+		this.colorCount = colorCount;
+		this.seed = seed;
+		this.boardMask = columns(width) & rows(height);
+		this.colorBoards = new long[colorCount];
+		
+		Random random = new Random(seed);
+		createSolution(random);
+		createBlocks(random);
+		Collections.shuffle(storageArea, random);
+		
+		// Empty the board, ready for the user to play
+		occupied = 0;
+		for (int color = 0; color < colorCount; color++) {
+			colorBoards[color] = 0;
+		}
+	}
+	
+	/**
+	 * @param count - an amount of columns, at most STRIDE
+	 * @return the first count columns of every row
+	 */
+	private static long columns(int count) {
+		return ((1L << count) - 1) * FIRST_COLUMN;
+	}
+	
+	/**
+	 * @param count - an amount of rows, at most STRIDE
+	 * @return every square of the first count rows
+	 */
+	private static long rows(int count) {
+		return count >= STRIDE ? -1L : (1L << (count*STRIDE)) - 1;
+	}
+	
+	/**
+	 * @param squares - some squares of the board
+	 * @return the squares next to them (above, below, left or right), including off the board
+	 * 		below or to the right
+	 */
+	private static long neighbours(long squares) {
+		return ((squares << 1) & ~FIRST_COLUMN)
+				| ((squares >>> 1) & ~LAST_COLUMN)
+				| (squares << STRIDE)
+				| (squares >>> STRIDE);
+	}
+	
+	/**
+	 * Picks a random size for a tile along one side of the board: a divisor of the side that
+	 * is at least 2 and at most half of it
+	 */
+	private static int randomTileSide(int side, Random random) {
+		int[] divisors = DivisorTable.divisors(side);
+		// divisors[0] is 1, so the sizes we want start at 1
+		int count = 0;
+		while (count+1 < divisors.length && divisors[count+1] <= side/2) {
+			count++;
+		}
+		return divisors[1 + random.nextInt(count)];
+	}
+	
+	/**
+	 * Creates the solved board: a tile of random colors, repeated across and down the board.
+	 * No square of the tile is the same color as the one to its left.
+	 */
+	private void createSolution(Random random) {
+		tileWidth = randomTileSide(width, random);
+		tileHeight = randomTileSide(height, random);
+		acrossMask = columns(width - tileWidth) & rows(height);
+		downMask = columns(width) & rows(height - tileHeight);
+		
+		for (int row = 0; row < tileHeight; row++) {
+			int previous = -1;
+			for (int column = 0; column < tileWidth; column++) {
+				int color;
+				if (previous == -1) {
+					color = random.nextInt(colorCount);
+				}
+				else {
+					color = random.nextInt(colorCount - 1);
+					if (color >= previous) {
+						color++;
+					}
+				}
+				colorBoards[color] |= 1L << (row*STRIDE + column);
+				previous = color;
+			}
+		}
+		
+		// Repeat the tile across the board, then repeat the top row of tiles down it
+		for (int color = 0; color < colorCount; color++) {
+			long board = colorBoards[color];
+			for (int column = tileWidth; column < width; column += tileWidth) {
+				board |= board << tileWidth;
+			}
+			board &= columns(width);
+			for (int row = tileHeight; row < height; row += tileHeight) {
+				board |= board << (tileHeight*STRIDE);
+			}
+			colorBoards[color] = board & boardMask;
+		}
+		occupied = boardMask;
+	}
+	
+	/**
+	 * Cuts the solved board up into polyominoes of 2 to MAX_BLOCK_SQUARES squares, cutting it
+	 * again if it can't be done in one go (see cutBoard)
+	 */
+	private void createBlocks(Random random) {
+		long[] blocks = new long[STRIDE*STRIDE];
+		int count;
+		do {
+			count = cutBoard(random, blocks);
+		} while (count == -1);
+		for (int i = 0; i < count; i++) {
+			allBlocks.add(cutBlock(blocks[i]));
+		}
+		storageArea.addAll(allBlocks);
+	}
+	
+	/**
+	 * Cuts the solved board up into polyominoes of random sizes, by growing each block from
+	 * the first square not yet in a block into random neighbouring squares. A square that is
+	 * left with no free neighbours can't grow into a block, so it is added to the smallest
+	 * block next to it that has room for it.
+	 * @param random - where the sizes and shapes are chosen from
+	 * @param blocks - filled with the squares of each block
+	 * @return the amount of blocks, or -1 if a square was left that no block next to it had
+	 * 		room for
+	 */
+	private int cutBoard(Random random, long[] blocks) {
+		int count = 0;
+		long remaining = boardMask;
+		while (remaining != 0) {
+			long block = Long.lowestOneBit(remaining);
+			int target = 2 + random.nextInt(MAX_BLOCK_SQUARES - 1);
+			for (int size = 1; size < target; size++) {
+				long frontier = neighbours(block) & remaining & ~block;
+				if (frontier == 0) {
+					break;
+				}
+				// Pick one of the squares of the frontier at random
+				for (int skip = random.nextInt(Long.bitCount(frontier)); skip > 0; skip--) {
+					frontier &= frontier - 1;
+				}
+				block |= Long.lowestOneBit(frontier);
+			}
+			remaining &= ~block;
+			
+			if (Long.bitCount(block) > 1) {
+				blocks[count++] = block;
+				continue;
+			}
+			int merge = -1;
+			for (int i = 0; i < count; i++) {
+				int size = Long.bitCount(blocks[i]);
+				if ((neighbours(blocks[i]) & block) != 0 && size < MAX_BLOCK_SQUARES
+						&& (merge == -1 || size < Long.bitCount(blocks[merge]))) {
+					merge = i;
+				}
+			}
+			if (merge == -1) {
+				return -1;
+			}
+			blocks[merge] |= block;
+		}
+		return count;
+	}
+	
+	/**
+	 * Creates a block from some squares of the solved board
+	 * @param squares - the squares of the block
+	 * @return the block, with its shape moved to the top left of the bitboard
+	 */
+	private GridBlock cutBlock(long squares) {
+		// The top row of the block is the row of its lowest bit; the leftmost column is the
+		// lowest column that any of its rows has a square in
+		int top = Long.numberOfTrailingZeros(squares) / STRIDE;
+		int left = STRIDE;
+		for (long rest = squares; rest != 0; rest &= rest - 1) {
+			left = Math.min(left, Long.numberOfTrailingZeros(rest) % STRIDE);
+		}
+		int origin = top*STRIDE + left;
+		long[] colorMasks = new long[colorCount];
+		for (int color = 0; color < colorCount; color++) {
+			colorMasks[color] = (colorBoards[color] & squares) >>> origin;
+		}
+		return new GridBlock(squares >>> origin, colorMasks);
+	}
+	
+	/**
+	 * Check if the puzzle has been solved: every block is on the board, and every square is
+	 * the same color as the square one tile to its right and one tile below it (where there
+	 * is one). Each check is two word-wide operations per color.
+	 * @return true if the puzzle is solved, false otherwise
+	 */
+	public boolean isSolved() {
+		if (!storageArea.isEmpty()) {
+			return false;
+		}
+		for (int color = 0; color < colorCount; color++) {
+			long board = colorBoards[color];
+			if (((board ^ (board >>> tileWidth)) & acrossMask) != 0
+					|| ((board ^ (board >>> (tileHeight*STRIDE))) & downMask) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @param block - a block
+	 * @param position - a position on the board
+	 * @return true if the block's bounding box fits on the board at the position
+	 */
+	private boolean inBounds(GridBlock block, int position) {
+		int row = position / STRIDE;
+		int column = position % STRIDE;
+		return position >= 0 && row + block.getHeight() <= height && column + block.getWidth() <= width;
+	}
+	
+	/**
+	 * Check that there is space to move a block to a position on the board. As with
+	 * Puzzle.isSpace, the squares the block is already on count as empty, so that it can be
+	 * moved by a square or two.
+	 * @param block - the block being moved
+	 * @param position - where the top left of the block's bounding box would go
+	 * @return true if there is space, false otherwise
+	 */
+	public boolean isSpace(GridBlock block, int position) {
+		if (!inBounds(block, position)) {
+			return false;
+		}
+		long others = occupied;
+		if (block.getBoardPosition() != -1) {
+			others &= ~(block.getShape() << block.getBoardPosition());
+		}
+		return ((block.getShape() << position) & others) == 0;
+	}
+	
+	/**
+	 * Finds every position a block could be moved to. Rather than trying each position, the
+	 * occupied squares are shifted back by each square of the block, so a position is ruled
+	 * out if any square of the block would land on an occupied square: one shift per square
+	 * of the block.
+	 * @param block - the block being moved
+	 * @return the positions isSpace(block, position) would return true for, one bit each
+	 */
+	public long findDropTargets(GridBlock block) {
+		long others = occupied;
+		if (block.getBoardPosition() != -1) {
+			others &= ~(block.getShape() << block.getBoardPosition());
+		}
+		long targets = columns(width - block.getWidth() + 1) & rows(height - block.getHeight() + 1);
+		for (long rest = block.getShape(); rest != 0; rest &= rest - 1) {
+			targets &= ~(others >>> Long.numberOfTrailingZeros(rest));
+		}
+		return targets;
+	}
+	
+	/**
+	 * Moves a block to the board. Whether or not there is space for it should have already
+	 * been checked by the caller.
+	 * @param block - the block being moved
+	 * @param position - where the top left of the block's bounding box should go
+	 */
+	public void addBlockToBoard(GridBlock block, int position) {
+		if (block.getBoardPosition() != -1) {
+			occupied &= ~(block.getShape() << block.getBoardPosition());
+			stateHash ^= placementKey(block, block.getBoardPosition());
+		}
+		else {
+			storageArea.remove(block);
+		}
+		long squares = block.getShape() << position;
+		occupied |= squares;
+		for (int color = 0; color < colorCount; color++) {
+			colorBoards[color] = (colorBoards[color] & ~squares) | (block.getColorMask(color) << position);
+		}
+		stateHash ^= placementKey(block, position);
+		block.setBoardPosition(position);
+	}
+	
+	/**
+	 * Moves a block from the board to the storage area
+	 * @param block - the block to be moved
+	 */
+	public void removeBlockFromBoard(GridBlock block) {
+		if (block.getBoardPosition() != -1) {
+			occupied &= ~(block.getShape() << block.getBoardPosition());
+			stateHash ^= placementKey(block, block.getBoardPosition());
+			storageArea.add(block);
+			block.setBoardPosition(-1);
+		}
+	}
+	
+	/**
+	 * The Zobrist key of a block being in a position
+	 */
+	private static long placementKey(GridBlock block, int position) {
+		return Bits.mix(block.getColorHash() ^ Bits.mix(position));
+	}
+	
+	/**
+	 * @return a hash of where the blocks are on the board (see Puzzle.stateHash)
+	 */
+	public long stateHash() {
+		return this.stateHash;
+	}
+	
+	/**
+	 * Get the block that covers a square of the board
+	 * @param position - the square, row*STRIDE + column
+	 * @return the block, or null if the square is empty
+	 */
+	public GridBlock getBlockFromBoard(int position) {
+		if ((occupied & (1L << position)) == 0) {
+			return null;
+		}
+		for (GridBlock block : allBlocks) {
+			if (block.getBoardPosition() != -1 && ((block.getShape() << block.getBoardPosition()) & (1L << position)) != 0) {
+				return block;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @param position - the position of a block in storage
+	 * @return the block in that position
+	 */
+	public GridBlock getBlockFromStorage(int position) {
+		return this.storageArea.get(position);
+	}
+	
+	/**
+	 * @param block - a block in storage
+	 * @return the position of the block in storage, or -1 if it isn't there
+	 */
+	public int getBlockStoragePosition(GridBlock block) {
+		return this.storageArea.indexOf(block);
+	}
+	
+	/**
+	 * @return the current amount of blocks in the storage area
+	 */
+	public int getStorageSize() {
+		return this.storageArea.size();
+	}
+	
+	/**
+	 * @return the amount of blocks in the puzzle, wherever they are
+	 */
+	public int getBlockCount() {
+		return this.allBlocks.size();
+	}
+	
+	/**
+	 * @param index - the index of the block, in the order blocks were cut from the solution
+	 * @return the block
+	 */
+	public GridBlock getBlock(int index) {
+		return this.allBlocks.get(index);
+	}
+	
+	/**
+	 * Get the color of a single square on the board
+	 * @param position - the square, row*STRIDE + column
+	 * @return the index of the square's color, or Puzzle.EMPTY if there isn't a block there
+	 */
+	public int getSquare(int position) {
+		long bit = 1L << position;
+		if ((occupied & bit) == 0) {
+			return Puzzle.EMPTY;
+		}
+		for (int color = 0; color < colorCount; color++) {
+			if ((colorBoards[color] & bit) != 0) {
+				return color;
+			}
+		}
+		return Puzzle.EMPTY;
+	}
+	
+	/**
+	 * @param color - the index of a color
+	 * @return the occupied squares of that color, as a bitboard
+	 */
+	public long getColorBoard(int color) {
+		return this.colorBoards[color] & this.occupied;
+	}
+	
+	/**
+	 * @return the occupied squares, as a bitboard
+	 */
+	public long getOccupied() {
+		return this.occupied;
+	}
+	
+	/**
+	 * @return every square of the board, as a bitboard
+	 */
+	public long getBoardMask() {
+		return this.boardMask;
+	}
+	
+	/**
+	 * @return the amount of columns on the board
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+	
+	/**
+	 * @return the amount of rows on the board
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+	
+	/**
+	 * @return the amount of columns in a tile
+	 */
+	public int getTileWidth() {
+		return this.tileWidth;
+	}
+	
+	/**
+	 * @return the amount of rows in a tile
+	 */
+	public int getTileHeight() {
+		return this.tileHeight;
+	}
+	
+	/**
+	 * @return the amount of colors the puzzle uses
+	 */
+	public int getColorCount() {
+		return this.colorCount;
+	}
+	
+	/**
+	 * Get the color that an index returned by getSquare represents
+	 * @param index - the index of the color
+	 * @return the color, as a resource
+	 */
+	public int getColor(int index) {
+		return Puzzle.PALETTE[index];
+	}
+	
+	/**
+	 * @return the seed that the puzzle was created from
+	 */
+	public long getSeed() {
+		return this.seed;
+	}
+}
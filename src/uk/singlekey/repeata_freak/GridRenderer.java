@@ -0,0 +1,359 @@
+package uk.singlekey.repeata_freak;
+
+import java.util.ArrayList;
+
+import uk.ac.surrey.so00076.repeater.R;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.Align;
+import android.graphics.Rect;
+
+/**
+ * Draws a GridPuzzle onto a canvas: the board at the top, with bold lines between the tiles,
+ * and the blocks in storage underneath it, laid out in rows at half the size.
+ *
+ * The board is drawn straight from the puzzle's bitboards in the same way as PuzzleRenderer
+ * draws the one-dimensional board: each run of squares of the same color along a row becomes
+ * one line as thick as a square, and every run of a color is drawn in one call. Blocks in
+ * storage are copied from a TileAtlas.
+ *
+ * The renderer also remembers where it drew everything, so that touches can be matched to
+ * squares and blocks. Like PuzzleRenderer, it must only be used by one thread.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class GridRenderer {
+	
+	// The size of a square of the board, and of a block in storage (pixels)
+	private int cellSize;
+	private int storageCellSize;
+	
+	// The top left of the board, and the area underneath it where storage is drawn
+	private int boardLeft, boardTop;
+	private int storageLeft, storageTop, storageRight, storageBottom;
+	
+	// Where each block in storage was drawn in the last frame
+	private ArrayList<Rect> storageRects = new ArrayList<Rect>();
+	private int storageDrawn;
+	
+	// Used to draw anything that needs a rectangle
+	private Rect squareRect = new Rect();
+	
+	/*
+	 * The paints that will be used to draw the puzzle
+	 */
+	private Paint linePaint;
+	private Paint separatorPaint;
+	private Paint selectedPaint;
+	private Paint dropTargetPaint;
+	private Paint runPaint;
+	private Paint textPaint;
+	
+	// Colors from resources
+	private int backgroundColor;
+	private int emptyColor;
+	
+	// Text from resources
+	private String puzzleSolvedText;
+	private String newPuzzleText;
+	private float solvedTextSize;
+	private float newPuzzleTextSize;
+	
+	// A tile of each color of the palette, which blocks in storage are copied from
+	private TileAtlas tiles;
+	
+	// The runs of each color, then of empty squares, and the lines between squares and
+	// tiles, as lists of lines for drawLines. Reused for every frame.
+	private float[][] runs = new float[0][];
+	private int[] runCounts = new int[0];
+	private float[] outlines = new float[4 * 2 * (GridPuzzle.STRIDE + 1)];
+	private float[] separators = new float[4 * 2 * (GridPuzzle.STRIDE + 1)];
+	
+	/**
+	 * Constructor for the GridRenderer class
+	 * @param resources - where the colors and text are looked up
+	 */
+	public GridRenderer(Resources resources) {
+		backgroundColor = resources.getColor(R.color.background);
+		emptyColor = resources.getColor(R.color.white);
+		puzzleSolvedText = resources.getString(R.string.puzzle_solved);
+		newPuzzleText = resources.getString(R.string.new_puzzle);
+		solvedTextSize = resources.getDimension(R.dimen.solvedText);
+		newPuzzleTextSize = resources.getDimension(R.dimen.new_puzzleText);
+		
+		// Set up basic paint that other paints can be based on (saves repeating)
+		Paint basePaint = new Paint();
+		basePaint.setColor(resources.getColor(R.color.lineColor));
+		basePaint.setStyle(Paint.Style.STROKE);
+		basePaint.setAntiAlias(true);
+		
+		linePaint = new Paint(basePaint);
+		
+		// Thick paint used to show where each tile ends
+		separatorPaint = new Paint(basePaint);
+		separatorPaint.setStrokeWidth(6);
+		
+		selectedPaint = new Paint(basePaint);
+		selectedPaint.setColor(resources.getColor(R.color.selected));
+		selectedPaint.setStrokeWidth(5);
+		
+		dropTargetPaint = new Paint(basePaint);
+		dropTargetPaint.setColor(resources.getColor(R.color.dropTarget));
+		dropTargetPaint.setStyle(Paint.Style.FILL);
+		
+		// Fills runs of squares as lines as thick as a square (see PuzzleRenderer)
+		runPaint = new Paint(basePaint);
+		runPaint.setAntiAlias(false);
+		runPaint.setStrokeCap(Paint.Cap.BUTT);
+		
+		textPaint = new Paint(basePaint);
+		textPaint.setTextAlign(Align.CENTER);
+		
+		tiles = new TileAtlas(linePaint);
+	}
+	
+	/**
+	 * Works out where everything goes for a view of the given size. The board takes up to
+	 * half of the height, and the storage area the rest.
+	 * @param puzzle - the puzzle that will be drawn
+	 * @param w - the width of the view (pixels)
+	 * @param h - the height of the view (pixels)
+	 */
+	public void setSize(GridPuzzle puzzle, int w, int h) {
+		cellSize = Math.max(2, Math.min((w-20) / puzzle.getWidth(), (h/2 - 20) / puzzle.getHeight()));
+		storageCellSize = cellSize / 2;
+		boardLeft = (w - cellSize*puzzle.getWidth()) / 2;
+		boardTop = 10;
+		storageLeft = 10;
+		storageTop = boardTop + cellSize*puzzle.getHeight() + 20;
+		storageRight = w - 10;
+		storageBottom = h - 10;
+	}
+	
+	/**
+	 * Draws a whole frame
+	 * @param canvas - the canvas to draw on
+	 * @param puzzle - the puzzle to draw
+	 * @param palette - the color of each index of the puzzle's palette
+	 * @param selected - the block the user has selected, or null
+	 */
+	public void draw(Canvas canvas, GridPuzzle puzzle, int[] palette, GridBlock selected) {
+		canvas.drawColor(backgroundColor);
+		drawBoard(canvas, puzzle, palette);
+		if (selected != null) {
+			drawDropTargets(canvas, puzzle, selected);
+		}
+		drawStorage(canvas, puzzle, palette, selected);
+		if (selected != null && selected.getBoardPosition() != -1) {
+			drawBlockOutline(canvas, selected);
+		}
+		
+		// If the puzzle is solved, ask the user to start a new puzzle
+		if (puzzle.isSolved()) {
+			int middle = (storageLeft + storageRight) / 2;
+			textPaint.setTextSize(solvedTextSize);
+			canvas.drawText(puzzleSolvedText, middle, storageTop + (storageBottom-storageTop)/4, textPaint);
+			textPaint.setTextSize(newPuzzleTextSize);
+			canvas.drawText(newPuzzleText, middle, storageTop + (storageBottom-storageTop)/2, textPaint);
+		}
+	}
+	
+	/**
+	 * Draws the board: a call per color for the squares, one for the lines between squares
+	 * and one for the lines between tiles
+	 */
+	private void drawBoard(Canvas canvas, GridPuzzle puzzle, int[] palette) {
+		int colors = puzzle.getColorCount();
+		int empty = colors;
+		if (runs.length < colors + 1) {
+			runs = new float[colors + 1][4 * GridPuzzle.STRIDE * GridPuzzle.STRIDE / 2];
+			runCounts = new int[colors + 1];
+		}
+		for (int color = 0; color < colors; color++) {
+			runCounts[color] = addRuns(runs[color], puzzle.getColorBoard(color));
+		}
+		runCounts[empty] = addRuns(runs[empty], puzzle.getBoardMask() & ~puzzle.getOccupied());
+		
+		runPaint.setStrokeWidth(cellSize);
+		for (int color = 0; color <= empty; color++) {
+			if (runCounts[color] > 0) {
+				runPaint.setColor(color == empty ? emptyColor : palette[color]);
+				canvas.drawLines(runs[color], 0, runCounts[color], runPaint);
+			}
+		}
+		
+		int width = puzzle.getWidth();
+		int height = puzzle.getHeight();
+		int right = boardLeft + width*cellSize;
+		int bottom = boardTop + height*cellSize;
+		int outlineCount = 0;
+		int separatorCount = 0;
+		for (int row = 0; row <= height; row++) {
+			int y = boardTop + row*cellSize;
+			outlineCount = putLine(outlines, outlineCount, boardLeft, y, right, y);
+			if (row % puzzle.getTileHeight() == 0) {
+				separatorCount = putLine(separators, separatorCount, boardLeft, y, right, y);
+			}
+		}
+		for (int column = 0; column <= width; column++) {
+			int x = boardLeft + column*cellSize;
+			outlineCount = putLine(outlines, outlineCount, x, boardTop, x, bottom);
+			if (column % puzzle.getTileWidth() == 0) {
+				separatorCount = putLine(separators, separatorCount, x, boardTop, x, bottom);
+			}
+		}
+		canvas.drawLines(outlines, 0, outlineCount, linePaint);
+		canvas.drawLines(separators, 0, separatorCount, separatorPaint);
+	}
+	
+	/**
+	 * Adds a line for each run of squares next to each other along a row of a bitboard
+	 * @param lines - where to put the lines, which has room for a run of every other square
+	 * @param squares - the squares, as a bitboard
+	 * @return the amount of values in lines
+	 */
+	private int addRuns(float[] lines, long squares) {
+		int count = 0;
+		while (squares != 0) {
+			int start = Long.numberOfTrailingZeros(squares);
+			int column = start % GridPuzzle.STRIDE;
+			// The run ends at the first square not in it, or the end of the row
+			int length = Math.min(Long.numberOfTrailingZeros(~(squares >>> start)), GridPuzzle.STRIDE - column);
+			squares &= ~(((1L << length) - 1) << start);
+			
+			float middle = boardTop + (start / GridPuzzle.STRIDE)*cellSize + cellSize / 2f;
+			count = putLine(lines, count, boardLeft + column*cellSize, middle, boardLeft + (column + length)*cellSize, middle);
+		}
+		return count;
+	}
+	
+	/**
+	 * Shades every square the selected block could have the top left of its bounding box on
+	 */
+	private void drawDropTargets(Canvas canvas, GridPuzzle puzzle, GridBlock selected) {
+		for (long targets = puzzle.findDropTargets(selected); targets != 0; targets &= targets - 1) {
+			setSquareRect(Long.numberOfTrailingZeros(targets));
+			canvas.drawRect(squareRect, dropTargetPaint);
+		}
+	}
+	
+	/**
+	 * Outlines each square of a block on the board
+	 */
+	private void drawBlockOutline(Canvas canvas, GridBlock block) {
+		for (long squares = block.getShape() << block.getBoardPosition(); squares != 0; squares &= squares - 1) {
+			setSquareRect(Long.numberOfTrailingZeros(squares));
+			canvas.drawRect(squareRect, selectedPaint);
+		}
+	}
+	
+	/**
+	 * Sets squareRect to a square of the board
+	 * @param position - the square, row*STRIDE + column
+	 */
+	private void setSquareRect(int position) {
+		int left = boardLeft + (position % GridPuzzle.STRIDE)*cellSize;
+		int top = boardTop + (position / GridPuzzle.STRIDE)*cellSize;
+		squareRect.set(left, top, left + cellSize, top + cellSize);
+	}
+	
+	/**
+	 * Draws the blocks in storage, in rows from the top left of the storage area, outlining
+	 * the selected block. Blocks that don't fit are left until there is room for them.
+	 */
+	private void drawStorage(Canvas canvas, GridPuzzle puzzle, int[] palette, GridBlock selected) {
+		tiles.prepare(storageCellSize, palette);
+		int size = storageCellSize;
+		int x = storageLeft;
+		int y = storageTop;
+		int rowHeight = 0;
+		storageDrawn = 0;
+		for (int i = 0; i < puzzle.getStorageSize(); i++) {
+			GridBlock block = puzzle.getBlockFromStorage(i);
+			int blockWidth = block.getWidth()*size;
+			int blockHeight = block.getHeight()*size;
+			// Start a new row if the block doesn't fit on this one
+			if (x + blockWidth > storageRight && x > storageLeft) {
+				x = storageLeft;
+				y += rowHeight + size;
+				rowHeight = 0;
+			}
+			if (y + blockHeight > storageBottom) {
+				break;
+			}
+			
+			for (long squares = block.getShape(); squares != 0; squares &= squares - 1) {
+				int bit = Long.numberOfTrailingZeros(squares);
+				int row = bit / GridPuzzle.STRIDE;
+				int column = bit % GridPuzzle.STRIDE;
+				squareRect.set(x + column*size, y + row*size, x + column*size + size, y + row*size + size);
+				tiles.draw(canvas, block.getSquare(row, column), squareRect);
+			}
+			
+			// Remember where the block is, for touches
+			if (storageDrawn == storageRects.size()) {
+				storageRects.add(new Rect());
+			}
+			Rect rect = storageRects.get(storageDrawn++);
+			rect.set(x, y, x + blockWidth, y + blockHeight);
+			if (block == selected) {
+				canvas.drawRect(rect, selectedPaint);
+			}
+			
+			x += blockWidth + size;
+			rowHeight = Math.max(rowHeight, blockHeight);
+		}
+	}
+	
+	/**
+	 * Adds a line to a list of lines, which must have room for it
+	 * @return the amount of values in the list now
+	 */
+	private static int putLine(float[] lines, int count, float x0, float y0, float x1, float y1) {
+		lines[count] = x0;
+		lines[count + 1] = y0;
+		lines[count + 2] = x1;
+		lines[count + 3] = y1;
+		return count + 4;
+	}
+	
+	/**
+	 * @param puzzle - the puzzle being drawn
+	 * @param x - the x-coordinate of a touch
+	 * @param y - the y-coordinate of a touch
+	 * @return the square of the board that was touched (row*STRIDE + column), or -1 if the
+	 * 		touch wasn't on the board
+	 */
+	public int findBoardPosition(GridPuzzle puzzle, float x, float y) {
+		int column = (int) Math.floor((x - boardLeft) / cellSize);
+		int row = (int) Math.floor((y - boardTop) / cellSize);
+		if (column < 0 || column >= puzzle.getWidth() || row < 0 || row >= puzzle.getHeight()) {
+			return -1;
+		}
+		return row*GridPuzzle.STRIDE + column;
+	}
+	
+	/**
+	 * @param x - the x-coordinate of a touch
+	 * @param y - the y-coordinate of a touch
+	 * @return the position in storage of the block drawn where the touch was in the last
+	 * 		frame, or -1 if the touch wasn't on a block in storage
+	 */
+	public int findStoragePosition(float x, float y) {
+		for (int i = 0; i < storageDrawn; i++) {
+			if (storageRects.get(i).contains((int) x, (int) y)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @param y - the y-coordinate of a touch
+	 * @return true if the touch was in the storage area
+	 */
+	public boolean isInStorage(float y) {
+		return y >= storageTop;
+	}
+}
@@ -0,0 +1,132 @@
+package uk.singlekey.repeata_freak;
+
+/**
+ * Counts latencies into buckets so that percentiles can be reported without keeping
+ * every measurement. Each power of two is split into 8 buckets, so a percentile is
+ * accurate to within about 12%.
+ *
+ * A histogram isn't thread safe - each thread should record into its own histogram,
+ * and these can be merged once the threads have finished.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class LatencyHistogram {
+	
+	// Each power of two is split into this many buckets
+	private static final int SUB_BUCKETS = 8;
+	
+	// Enough buckets for any non-negative long
+	private long[] counts = new long[64 * SUB_BUCKETS];
+	
+	// The amount of latencies recorded, and their total and largest values
+	private long count, total, max;
+	
+	/**
+	 * Records a single latency
+	 * @param value - the latency (any unit, usually nanoseconds)
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[bucketOf(value)]++;
+		count++;
+		total += value;
+		if (value > max) {
+			max = value;
+		}
+	}
+	
+	/**
+	 * Adds every latency recorded by another histogram into this one
+	 * @param other - the histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		total += other.total;
+		max = Math.max(max, other.max);
+	}
+	
+	/**
+	 * @return the amount of latencies recorded
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return the mean of the latencies recorded
+	 */
+	public long getMean() {
+		return count == 0 ? 0 : total / count;
+	}
+	
+	/**
+	 * @return the largest latency recorded
+	 */
+	public long getMax() {
+		return max;
+	}
+	
+	/**
+	 * Finds the latency that a percentage of the latencies recorded are below
+	 * @param percentile - the percentage, between 0 and 100
+	 * @return the upper bound of the bucket holding that percentile
+	 */
+	public long getPercentile(double percentile) {
+		long target = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= target && seen > 0) {
+				return Math.min(upperBoundOf(i), max);
+			}
+		}
+		return max;
+	}
+	
+	/**
+	 * Describes the latencies recorded in a single line
+	 * @param unit - the name of the unit the latencies were recorded in
+	 * @return the count, mean, some percentiles and the maximum
+	 */
+	public String summary(String unit) {
+		return count + " samples, mean " + getMean() + unit
+				+ ", p50 " + getPercentile(50) + unit
+				+ ", p90 " + getPercentile(90) + unit
+				+ ", p99 " + getPercentile(99) + unit
+				+ ", p99.9 " + getPercentile(99.9) + unit
+				+ ", max " + max + unit;
+	}
+	
+	/**
+	 * Finds the bucket a value is counted in
+	 */
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		// The position of the highest bit, then the next three bits below it
+		int power = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (power - 3)) & (SUB_BUCKETS - 1);
+		return (power - 2) * SUB_BUCKETS + sub;
+	}
+	
+	/**
+	 * Finds the largest value that is counted in a bucket
+	 */
+	private static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int power = bucket / SUB_BUCKETS + 2;
+		long sub = bucket % SUB_BUCKETS;
+		if (power >= 63) {
+			return Long.MAX_VALUE;
+		}
+		return ((SUB_BUCKETS + sub + 1) << (power - 3)) - 1;
+	}
+}
@@ -0,0 +1,262 @@
+package uk.singlekey.repeata_freak;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress tests the game model on a normal JVM, by having thousands of simulated players
+ * play puzzles at the same time and reporting how many moves and puzzles they get through.
+ *
+ * Each player is a task that plays a single move and then resubmits itself, so any amount
+ * of players can share a pool the size of the machine, each one taking turns like a real
+ * player would.
+ *
+ * Usage: LoadRunner [-players n] [-threads n] [-seconds n] [-difficulty n] [-strategy greedy|random]
+ *
+ * @author Samuel O'Sullivan
+ */
+public class LoadRunner {
+	
+	// Give up on a puzzle after this many moves per square (random players rarely finish)
+	private static final int MAX_MOVES_PER_SQUARE = 50;
+	
+	// The settings of the run
+	private int players = 2000;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int seconds = 10;
+	private int difficulty = 3;
+	private boolean greedy = true;
+	
+	// When the players should stop (System.nanoTime)
+	private volatile long stopTime;
+	
+	// Every player in the run
+	private ArrayList<Player> allPlayers = new ArrayList<Player>();
+	
+	// The amount of players that are still playing
+	private AtomicInteger playing = new AtomicInteger();
+	
+	// Runs the players
+	private ExecutorService pool;
+	
+	/**
+	 * A simulated player, playing one puzzle after another until the run is over
+	 */
+	private class Player implements Runnable {
+		
+		// Chooses the moves, and the seed of each puzzle
+		private Random random;
+		
+		// The puzzle being played
+		private Puzzle puzzle;
+		
+		// The moves made on the current puzzle, and when it was started
+		private int puzzleMoves;
+		private long puzzleStart;
+		
+		// The colors known for each column of a section (EMPTY if unknown), used by greedy players
+		private int[] known;
+		
+		// What this player has done
+		private long moves, spaceChecks, solved, abandoned;
+		private LatencyHistogram moveLatency = new LatencyHistogram();
+		private LatencyHistogram puzzleLatency = new LatencyHistogram();
+		
+		Player(long seed) {
+			random = new Random(seed);
+			startPuzzle();
+		}
+		
+		/**
+		 * Plays a single move, then lets another player have a turn
+		 */
+		public void run() {
+			long start = System.nanoTime();
+			boolean moved = greedy ? greedyMove() : randomMove();
+			long end = System.nanoTime();
+			if (moved) {
+				moves++;
+				puzzleMoves++;
+				moveLatency.record(end - start);
+			}
+			
+			if (puzzle.isSolved()) {
+				solved++;
+				puzzleLatency.record(end - puzzleStart);
+				startPuzzle();
+			}
+			else if (puzzleMoves > MAX_MOVES_PER_SQUARE * puzzle.getLength()) {
+				abandoned++;
+				startPuzzle();
+			}
+			
+			if (end < stopTime) {
+				pool.execute(this);
+			}
+			else {
+				playing.decrementAndGet();
+			}
+		}
+		
+		private void startPuzzle() {
+			puzzle = new Puzzle(difficulty, random.nextLong());
+			known = new int[puzzle.getSectionLength()];
+			puzzleMoves = 0;
+			puzzleStart = System.nanoTime();
+		}
+		
+		/**
+		 * Moves a random block in storage to a random position, or takes a random block
+		 * off the board
+		 * @return true if a block was moved
+		 */
+		private boolean randomMove() {
+			if (puzzle.getStorageSize() > 0 && random.nextInt(5) != 0) {
+				Block block = puzzle.getBlockFromStorage(random.nextInt(puzzle.getStorageSize()));
+				int position = random.nextInt(puzzle.getLength());
+				spaceChecks++;
+				if (puzzle.isSpace(block, position)) {
+					puzzle.addBlockToBoard(block, position);
+					return true;
+				}
+				return false;
+			}
+			return removeRandomBlock();
+		}
+		
+		/**
+		 * Moves the first block in storage to the first position it fits in, that also
+		 * matches the colors already on the board in the same columns of other sections.
+		 * If it doesn't fit anywhere, a random block is taken off the board instead.
+		 * @return true if a block was moved
+		 */
+		private boolean greedyMove() {
+			if (puzzle.getStorageSize() == 0) {
+				return removeRandomBlock();
+			}
+			int sectionLength = puzzle.getSectionLength();
+			int length = puzzle.getLength();
+			
+			// Work out which colors are already known for each column
+			for (int i = 0; i < sectionLength; i++) {
+				known[i] = Puzzle.EMPTY;
+			}
+			for (int i = 0; i < length; i++) {
+				int color = puzzle.getSquare(i);
+				if (color != Puzzle.EMPTY) {
+					known[i % sectionLength] = color;
+				}
+			}
+			
+			Block block = puzzle.getBlockFromStorage(0);
+			for (int position = 0; position + block.getSize() <= length; position++) {
+				spaceChecks++;
+				if (puzzle.isSpace(block, position) && matchesKnown(block, position, sectionLength)) {
+					puzzle.addBlockToBoard(block, position);
+					return true;
+				}
+			}
+			return removeRandomBlock();
+		}
+		
+		private boolean matchesKnown(Block block, int position, int sectionLength) {
+			for (int i = 0; i < block.getSize(); i++) {
+				int expected = known[(position + i) % sectionLength];
+				if (expected != Puzzle.EMPTY && expected != block.getSquare(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		private boolean removeRandomBlock() {
+			Block block = puzzle.getBlockFromBoard(random.nextInt(puzzle.getLength()));
+			if (block != null) {
+				puzzle.removeBlockFromBoard(block);
+				return true;
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Runs the players and prints what they got through
+	 */
+	public void run() throws InterruptedException {
+		System.out.println(players + " " + (greedy ? "greedy" : "random") + " players on "
+				+ threads + " threads for " + seconds + "s, difficulty " + difficulty);
+		
+		pool = Executors.newFixedThreadPool(threads);
+		Random seeds = new Random(1);
+		for (int i = 0; i < players; i++) {
+			allPlayers.add(new Player(seeds.nextLong()));
+		}
+		
+		long start = System.nanoTime();
+		stopTime = start + TimeUnit.SECONDS.toNanos(seconds);
+		playing.set(players);
+		for (Player player : allPlayers) {
+			pool.execute(player);
+		}
+		while (playing.get() > 0) {
+			Thread.sleep(10);
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+		
+		// Add up what every player did
+		long moves = 0, spaceChecks = 0, solved = 0, abandoned = 0;
+		LatencyHistogram moveLatency = new LatencyHistogram();
+		LatencyHistogram puzzleLatency = new LatencyHistogram();
+		for (Player player : allPlayers) {
+			moves += player.moves;
+			spaceChecks += player.spaceChecks;
+			solved += player.solved;
+			abandoned += player.abandoned;
+			moveLatency.add(player.moveLatency);
+			puzzleLatency.add(player.puzzleLatency);
+		}
+		
+		System.out.println(String.format("moves: %d (%.0f/s), isSpace checks: %d (%.0f/s)",
+				moves, moves / elapsed, spaceChecks, spaceChecks / elapsed));
+		System.out.println(String.format("puzzles solved: %d (%.1f/s), abandoned: %d",
+				solved, solved / elapsed, abandoned));
+		System.out.println("move latency: " + moveLatency.summary("ns"));
+		System.out.println("puzzle time (wall clock, shared with other players): " + puzzleLatency.summary("ns"));
+	}
+	
+	/**
+	 * Reads the settings of the run from the arguments and runs it
+	 * @param args - see the class description
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		LoadRunner runner = new LoadRunner();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i+1];
+			if (args[i].equals("-players")) {
+				runner.players = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-threads")) {
+				runner.threads = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-seconds")) {
+				runner.seconds = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-difficulty")) {
+				runner.difficulty = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-strategy")) {
+				runner.greedy = !value.equals("random");
+			}
+			else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		runner.run();
+	}
+}
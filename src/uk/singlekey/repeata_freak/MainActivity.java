@@ -4,6 +4,7 @@ import uk.ac.surrey.so00076.repeater.R;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -59,6 +60,9 @@ public class MainActivity extends Activity {
 	 * @param view
 	 */
 	public void buttonClickHandler(View view) {
+		// When the button was tapped, so the puzzle can measure how long it takes to appear
+		long tapTime = SystemClock.uptimeMillis();
+		
 		// Make Button objects of the buttons in the main menu
 		Button new_game = (Button) findViewById(R.id.new_game);
 		Button timed_challenge = (Button) findViewById(R.id.timed_challenge);
@@ -69,6 +73,7 @@ public class MainActivity extends Activity {
 			// Set the invisible option timed_mode to false
 			PreferenceManager.getDefaultSharedPreferences(this).edit().putBoolean("timed_mode", false).commit();
 			Intent i = new Intent(this, PuzzleActivity.class);
+			i.putExtra(PuzzleActivity.EXTRA_REQUEST_TIME, tapTime);
 			startActivity(i);
 		}
 		
@@ -76,6 +81,7 @@ public class MainActivity extends Activity {
 			// Set the invisible option timed_mode to true
 			PreferenceManager.getDefaultSharedPreferences(this).edit().putBoolean("timed_mode", true).commit();
 			Intent i = new Intent(this, PuzzleActivity.class);
+			i.putExtra(PuzzleActivity.EXTRA_REQUEST_TIME, tapTime);
 			startActivity(i);
 		}
 		
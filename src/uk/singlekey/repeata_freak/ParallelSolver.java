@@ -0,0 +1,1105 @@
+package uk.singlekey.repeata_freak;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Works out whether a puzzle can still be solved from the position it's in, by searching
+ * every way of putting the blocks in storage onto the board (the blocks already on the board
+ * stay where they are). Meant for checking large puzzle packs on a normal JVM, where it uses
+ * every core.
+ *
+ * The runs of empty squares (gaps) are filled one at a time, shortest first, each from its
+ * left-most empty square, so each step of the search chooses which block goes there.
+ * Identical blocks are only tried once, and a block is only tried if its colors agree with
+ * the colors already known for every column of the section it covers (a column is the
+ * squares at the same position in every section, which must all be the same color in a
+ * solution). Counting the empty squares in each column, how the blocks left join up the
+ * phases of a section, and whether each gap not started yet could still be filled exactly by
+ * the blocks left, rules out most dead ends before they are reached, and positions already
+ * searched without a solution are remembered.
+ *
+ * Each gap is only checked on its own, so when the last few long gaps need the same blocks
+ * between them, the search only finds out once it gets to them, and can take a very long
+ * time. This happens most with sections of 8 or more squares: with 20000 squares, 3 colors
+ * and half the blocks placed, 4 of the first 20 seeds take more than 10 seconds. Sections
+ * made of a smaller repeating pattern give blocks that fit at several phases, which these
+ * rules can't rule out early either.
+ *
+ * The search is shared out on a ForkJoinPool. Whenever a worker notices the pool has run out
+ * of queued work, it gives away the untried choices at the shallowest step it has, as a new
+ * task that other workers can steal. Every task stops as soon as any of them finds a solution.
+ *
+ * Usage: ParallelSolver [-length n] [-colors n] [-seed n] [-threads n] [-placed fraction] [-misplaced n]
+ * 		creates a puzzle, puts some of its blocks where they belong (and some where they
+ * 		don't), then solves it with 1, 2, 4 ... threads
+ * Usage: ParallelSolver -puzzles n [-limit seconds] [the options above]
+ * 		solves n puzzles made from the seeds seed, seed + 1 ... on every thread, and exits
+ * 		with 1 if any takes longer than the limit (10 seconds by default) or is solved
+ * 		wrongly. "-puzzles 20 -length 20000 -placed 0.5" checks mid-game positions on
+ * 		large boards, which all finish well inside the limit.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class ParallelSolver {
+	
+	// How many steps a task takes between checks for whether it should give work away
+	private static final int SPLIT_CHECK_INTERVAL = 64;
+	
+	// The amount of positions that are remembered as having no solution
+	private static final int FAILURE_TABLE_SIZE = 1 << 20;
+	
+	// The size of the board and of a section
+	private int length;
+	private int sectionLength;
+	
+	// The squares already covered by blocks on the board, and the color of each column
+	// (EMPTY if no square in the column is covered yet)
+	private long[] occupied;
+	private int[] columns;
+	
+	// False if the blocks on the board already disagree about a column's color
+	private boolean consistent = true;
+	
+	// The first square of every run of empty squares (gap) and the square after it, in order
+	// along the board
+	private int[] gapStarts;
+	private int[] gapEnds;
+	
+	// The order the gaps are filled in, shortest first, as they are the hardest to fill, and
+	// each gap's place in that order. Each gap is filled from its first square.
+	private int[] fillOrder;
+	private int[] fillRank;
+	
+	// A bitmask of the phases (position in a section) that the gaps filled after each one
+	// (by place in the fill order) start at
+	private long[] laterGapPhases;
+	
+	// For each gap, classes of blocks in storage that would fill it exactly (ignoring how
+	// many of each there are), or null if nothing can fill it
+	private int[][] witnesses;
+	
+	// The amount of empty squares in each column, and the amount of squares of each color
+	// in storage
+	private int[] emptyInColumn;
+	private int[] colorsLeft = new int[Puzzle.MAX_COLORS];
+	
+	// The blocks in storage, grouped so that blocks with the same colors are one class
+	private int classCount;
+	private int[][] classColors;
+	private int[] classCounts;
+	// The storage positions of the blocks in each class
+	private int[][] classBlocks;
+	
+	// Set once a solution is found or the search is cancelled, so that every task stops
+	private AtomicBoolean finished = new AtomicBoolean();
+	
+	// Where each block in storage goes in the solution found, or null if there isn't one
+	private volatile int[] solution;
+	
+	// The amount of steps tried by every task
+	private AtomicLong nodes = new AtomicLong();
+	
+	// Hashes of positions that have been searched completely without finding a solution,
+	// shared by every task. Filling the same blocks in a different order reaches the same
+	// position, so this stops the search from trying every order of them.
+	private AtomicLongArray failures = new AtomicLongArray(FAILURE_TABLE_SIZE);
+	
+	/**
+	 * Takes a copy of a puzzle's position, ready to be solved. Changing the puzzle afterwards
+	 * doesn't change the position being solved.
+	 * @param puzzle - the puzzle to solve
+	 */
+	public ParallelSolver(Puzzle puzzle) {
+		this.length = puzzle.getLength();
+		this.sectionLength = puzzle.getSectionLength();
+		
+		// Record which squares are covered, and the colors that the columns must be
+		occupied = new long[Bits.words(length)];
+		columns = new int[sectionLength];
+		Arrays.fill(columns, Puzzle.EMPTY);
+		emptyInColumn = new int[sectionLength];
+		for (int i = 0; i < length; i++) {
+			int color = puzzle.getSquare(i);
+			if (color == Puzzle.EMPTY) {
+				emptyInColumn[i % sectionLength]++;
+			}
+			else {
+				Bits.set(occupied, i);
+				int column = i % sectionLength;
+				if (columns[column] != Puzzle.EMPTY && columns[column] != color) {
+					consistent = false;
+				}
+				columns[column] = color;
+			}
+		}
+		
+		// Find where each run of empty squares starts and ends
+		ArrayList<Integer> starts = new ArrayList<Integer>();
+		for (int i = Bits.nextClear(occupied, 0, length); i < length; i = Bits.nextClear(occupied, Bits.nextSet(occupied, i, length), length)) {
+			starts.add(i);
+		}
+		int gapCount = starts.size();
+		gapStarts = new int[gapCount];
+		gapEnds = new int[gapCount];
+		for (int g = 0; g < gapCount; g++) {
+			gapStarts[g] = starts.get(g);
+			gapEnds[g] = Bits.nextSet(occupied, gapStarts[g], length);
+		}
+		
+		// Fill the shortest gaps first (the sort is stable, so equal gaps go from the left)
+		Integer[] byLength = new Integer[gapCount];
+		for (int g = 0; g < gapCount; g++) {
+			byLength[g] = g;
+		}
+		Arrays.sort(byLength, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return (gapEnds[a] - gapStarts[a]) - (gapEnds[b] - gapStarts[b]);
+			}
+		});
+		fillOrder = new int[gapCount];
+		fillRank = new int[gapCount];
+		for (int k = 0; k < gapCount; k++) {
+			fillOrder[k] = byLength[k];
+			fillRank[byLength[k]] = k;
+		}
+		laterGapPhases = new long[gapCount];
+		long phases = 0;
+		for (int k = gapCount - 1; k >= 0; k--) {
+			laterGapPhases[k] = phases;
+			if (sectionLength <= 64) {
+				phases |= 1L << (gapStarts[fillOrder[k]] % sectionLength);
+			}
+		}
+		
+		// Group the blocks in storage into classes of identical blocks
+		int storageSize = puzzle.getStorageSize();
+		HashMap<String, Integer> classByColors = new HashMap<String, Integer>();
+		int[] blockClass = new int[storageSize];
+		ArrayList<int[]> colors = new ArrayList<int[]>();
+		for (int i = 0; i < storageSize; i++) {
+			Block block = puzzle.getBlockFromStorage(i);
+			int[] squares = new int[block.getSize()];
+			for (int j = 0; j < squares.length; j++) {
+				squares[j] = block.getSquare(j);
+				colorsLeft[squares[j]]++;
+			}
+			String key = Arrays.toString(squares);
+			Integer c = classByColors.get(key);
+			if (c == null) {
+				c = colors.size();
+				classByColors.put(key, c);
+				colors.add(squares);
+			}
+			blockClass[i] = c;
+		}
+		classCount = colors.size();
+		
+		// Try the longest blocks first, as they are the hardest to fit in later on
+		final ArrayList<int[]> unsorted = colors;
+		Integer[] order = new Integer[classCount];
+		for (int c = 0; c < classCount; c++) {
+			order[c] = c;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return unsorted.get(b).length - unsorted.get(a).length;
+			}
+		});
+		int[] rank = new int[classCount];
+		classColors = new int[classCount][];
+		for (int c = 0; c < classCount; c++) {
+			rank[order[c]] = c;
+			classColors[c] = colors.get(order[c]);
+		}
+		for (int i = 0; i < storageSize; i++) {
+			blockClass[i] = rank[blockClass[i]];
+		}
+		classCounts = new int[classCount];
+		for (int i = 0; i < storageSize; i++) {
+			classCounts[blockClass[i]]++;
+		}
+		classBlocks = new int[classCount][];
+		int[] filled = new int[classCount];
+		for (int c = 0; c < classCount; c++) {
+			classBlocks[c] = new int[classCounts[c]];
+		}
+		for (int i = 0; i < storageSize; i++) {
+			int c = blockClass[i];
+			classBlocks[c][filled[c]++] = i;
+		}
+		
+		// Find a way of filling each gap to start from, which every task then keeps up to date
+		witnesses = new int[gapCount][];
+		if (sectionLength <= 64) {
+			long[] classPhases = new long[classCount];
+			for (int c = 0; c < classCount; c++) {
+				classPhases[c] = findPhases(classColors[c], columns, sectionLength);
+			}
+			GapFiller filler = new GapFiller();
+			for (int g = 0; g < gapCount; g++) {
+				witnesses[g] = filler.fill(gapStarts[g], gapEnds[g], classPhases, classCounts);
+			}
+		}
+	}
+	
+	/**
+	 * Finds a way of filling a gap exactly with classes of blocks that are left, each at a
+	 * phase it fits at, going along the gap and marking where each block that fits would end.
+	 * How many blocks of each class are left isn't taken into account, so a gap that can't be
+	 * filled certainly can't be, but one that can may still need more blocks than are left.
+	 */
+	private class GapFiller {
+		
+		// The class of the block that first reached each square of the gap (from its start),
+		// or -1 if no block has
+		private int[] reachedBy = new int[0];
+		
+		/**
+		 * @param start - the first square of the gap
+		 * @param end - the square after the gap
+		 * @param classPhases - the phases each class fits at
+		 * @param remaining - how many blocks of each class are left
+		 * @return the classes of a filling of the gap in order, or null if there isn't one
+		 */
+		int[] fill(int start, int end, long[] classPhases, int[] remaining) {
+			int size = end - start;
+			if (reachedBy.length < size + 1) {
+				reachedBy = new int[size + 1];
+			}
+			Arrays.fill(reachedBy, 0, size + 1, -1);
+			reachedBy[0] = classCount;
+			for (int i = 0; i < size && reachedBy[size] == -1; i++) {
+				if (reachedBy[i] == -1) {
+					continue;
+				}
+				long phase = 1L << ((start + i) % sectionLength);
+				for (int c = 0; c < classCount; c++) {
+					int blockEnd = i + classColors[c].length;
+					if (blockEnd <= size && reachedBy[blockEnd] == -1 && remaining[c] > 0 && (classPhases[c] & phase) != 0) {
+						reachedBy[blockEnd] = c;
+					}
+				}
+			}
+			if (reachedBy[size] == -1) {
+				return null;
+			}
+			
+			// Follow the blocks back from the end of the gap
+			int count = 0;
+			for (int i = size; i > 0; i -= classColors[reachedBy[i]].length) {
+				count++;
+			}
+			int[] witness = new int[count];
+			for (int i = size; i > 0; i -= classColors[reachedBy[i]].length) {
+				witness[--count] = reachedBy[i];
+			}
+			return witness;
+		}
+	}
+	
+	/**
+	 * Searches for a solution
+	 * @param pool - the pool to search on
+	 * @return true if the puzzle can be solved from its position
+	 */
+	public boolean isSolvable(ForkJoinPool pool) {
+		if (!consistent) {
+			return false;
+		}
+		if (sectionLength <= 64) {
+			for (int[] witness : witnesses) {
+				if (witness == null) {
+					return false;
+				}
+			}
+		}
+		return pool.invoke(new SearchTask(new int[0], new int[0], 0));
+	}
+	
+	/**
+	 * Stops the search as soon as every task notices, making isSolvable return false
+	 */
+	public void cancel() {
+		finished.set(true);
+	}
+	
+	/**
+	 * @return the board position of each block in storage (by storage position) in the
+	 * 		solution found, or null if no solution was found
+	 */
+	public int[] getSolution() {
+		return solution;
+	}
+	
+	/**
+	 * @return the amount of steps tried in the search
+	 */
+	public long getNodes() {
+		return nodes.get();
+	}
+	
+	/**
+	 * Searches every way of filling the board after some blocks have already been placed
+	 */
+	private class SearchTask extends RecursiveTask<Boolean> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		// The placements made before this task's first step (class and position of each)
+		private int[] prefixClasses;
+		private int[] prefixPositions;
+		
+		// The first class to try at this task's first step
+		private int firstClass;
+		
+		// This task's copy of the position
+		private long[] occupied;
+		private int[] columns;
+		private int[] remaining;
+		// The step at which each column's color was decided (-1 if before this task)
+		private int[] columnSetAt;
+		
+		private int[] emptyInColumn;
+		private int[] colorsLeft;
+		
+		// The phases each class could fit at with the columns known so far (recalculated
+		// whenever a column changes), and the phases joined by the blocks left
+		private long[] classPhases;
+		private boolean phasesKnown;
+		private long[] joined;
+		private int[] needed = new int[Puzzle.MAX_COLORS];
+		private int[] supplied;
+		
+		// This task's filling for each gap, the gaps that each class is used to fill (some
+		// may have been filled differently since), and the class that last ran out
+		private int[][] witnesses;
+		private int[][] gapsUsing;
+		private int[] gapsUsingCount;
+		private int lostClass = -1;
+		private GapFiller filler = new GapFiller();
+		// Marks the gaps already looked at while tidying a class's gaps
+		private int[] lastChecked;
+		private int checkCount;
+		
+		// The search stack: the square filled at each step, the place in the fill order of the
+		// gap it's in, the class placed there and the next class to try
+		private int[] stackPositions;
+		private int[] stackRanks;
+		private int[] stackClasses;
+		private int[] nextClass;
+		private int depth;
+		
+		// Whether every choice at each step is being searched by this task (false once some
+		// are given away)
+		private boolean[] complete;
+		
+		// A hash of the blocks left and the known columns, which (as the board is always
+		// filled in the same order) decides the position completely
+		private long stateHash;
+		
+		SearchTask(int[] prefixClasses, int[] prefixPositions, int firstClass) {
+			this.prefixClasses = prefixClasses;
+			this.prefixPositions = prefixPositions;
+			this.firstClass = firstClass;
+		}
+		
+		@Override
+		protected Boolean compute() {
+			occupied = ParallelSolver.this.occupied.clone();
+			columns = ParallelSolver.this.columns.clone();
+			remaining = classCounts.clone();
+			emptyInColumn = ParallelSolver.this.emptyInColumn.clone();
+			colorsLeft = ParallelSolver.this.colorsLeft.clone();
+			columnSetAt = new int[sectionLength];
+			Arrays.fill(columnSetAt, -1);
+			for (int c = 0; c < classCount; c++) {
+				stateHash += remaining[c] * classKey(c);
+			}
+			for (int column = 0; column < sectionLength; column++) {
+				if (columns[column] != Puzzle.EMPTY) {
+					stateHash ^= columnKey(column, columns[column]);
+				}
+			}
+			classPhases = new long[classCount];
+			joined = new long[Math.min(sectionLength, 64)];
+			supplied = new int[sectionLength];
+			witnesses = ParallelSolver.this.witnesses.clone();
+			gapsUsing = new int[classCount][];
+			gapsUsingCount = new int[classCount];
+			for (int c = 0; c < classCount; c++) {
+				gapsUsing[c] = new int[4];
+			}
+			lastChecked = new int[witnesses.length];
+			if (sectionLength <= 64) {
+				for (int g = 0; g < witnesses.length; g++) {
+					setWitness(g, witnesses[g]);
+				}
+			}
+			
+			// Replay the placements made before this task
+			for (int i = 0; i < prefixClasses.length; i++) {
+				place(prefixClasses[i], prefixPositions[i], -1);
+			}
+			
+			int maxDepth = remainingBlocks() + 1;
+			stackPositions = new int[maxDepth];
+			stackRanks = new int[maxDepth];
+			stackClasses = new int[maxDepth];
+			nextClass = new int[maxDepth];
+			complete = new boolean[maxDepth];
+			depth = 0;
+			int rank = 0;
+			while (rank < fillOrder.length && Bits.nextClear(occupied, gapStarts[fillOrder[rank]], gapEnds[fillOrder[rank]]) == gapEnds[fillOrder[rank]]) {
+				rank++;
+			}
+			stackRanks[0] = rank;
+			stackPositions[0] = rank < fillOrder.length ? Bits.nextClear(occupied, gapStarts[fillOrder[rank]], length) : length;
+			nextClass[0] = firstClass;
+			complete[0] = firstClass == 0;
+			
+			ArrayList<SearchTask> forked = new ArrayList<SearchTask>();
+			boolean found = search(forked);
+			
+			// Help with the work given away (returns straight away if the search is finished)
+			for (SearchTask task : forked) {
+				found |= task.join();
+			}
+			return found;
+		}
+		
+		/**
+		 * Runs the search from the task's first step until it's exhausted or finished
+		 * @param forked - the tasks that work is given away to
+		 * @return true if this task found a solution
+		 */
+		private boolean search(ArrayList<SearchTask> forked) {
+			long steps = 0;
+			while (!finished.get()) {
+				int position = stackPositions[depth];
+				if (position == length) {
+					// Every square is covered, so the puzzle is solved
+					if (finished.compareAndSet(false, true)) {
+						recordSolution();
+						nodes.addAndGet(steps);
+						return true;
+					}
+					break;
+				}
+				
+				// Try the next class that fits at this step
+				int rank = stackRanks[depth];
+				int end = gapEnds[fillOrder[rank]];
+				int gap = end - position;
+				int c = nextClass[depth];
+				int next = length;
+				int nextRank = rank;
+				for (; c < classCount; c++) {
+					int size = classColors[c].length;
+					if (remaining[c] > 0 && size <= gap && place(c, position, depth)) {
+						// Move on to the next gap once this one is full
+						next = position + size;
+						nextRank = rank;
+						if (next == end) {
+							nextRank++;
+							next = nextRank < fillOrder.length ? gapStarts[fillOrder[nextRank]] : length;
+						}
+						if (canFinish(next, nextRank) && !hasFailed(stateHash)) {
+							break;
+						}
+						unplace(c, position, depth);
+					}
+				}
+				if (c == classCount) {
+					// Nothing fits, so remember this position has no solution, then go back a
+					// step and try the next class there
+					if (complete[depth]) {
+						failures.set(failureSlot(stateHash), stateHash);
+					}
+					if (depth == 0) {
+						break;
+					}
+					depth--;
+					unplace(stackClasses[depth], stackPositions[depth], depth);
+					continue;
+				}
+				steps++;
+				nextClass[depth] = c + 1;
+				stackClasses[depth] = c;
+				stackPositions[depth+1] = next;
+				stackRanks[depth+1] = nextRank;
+				nextClass[depth+1] = 0;
+				complete[depth+1] = true;
+				depth++;
+				
+				if (steps % SPLIT_CHECK_INTERVAL == 0 && getSurplusQueuedTaskCount() == 0) {
+					split(forked);
+				}
+			}
+			nodes.addAndGet(steps);
+			return false;
+		}
+		
+		/**
+		 * Gives away the untried classes at the shallowest step that has any, as a new task
+		 */
+		private void split(ArrayList<SearchTask> forked) {
+			for (int d = 0; d < depth; d++) {
+				if (nextClass[d] < classCount) {
+					SearchTask task = new SearchTask(
+							concat(prefixClasses, stackClasses, d), concat(prefixPositions, stackPositions, d), nextClass[d]);
+					nextClass[d] = classCount;
+					// This step and the ones before it are no longer searched completely
+					for (int k = 0; k <= d; k++) {
+						complete[k] = false;
+					}
+					task.fork();
+					forked.add(task);
+					return;
+				}
+			}
+		}
+		
+		/**
+		 * Puts a block of a class onto this task's board if it agrees with every column
+		 * @param c - the class of the block
+		 * @param position - where the block's first square goes
+		 * @param step - the step making the placement (columns it decides are undone with it)
+		 * @return true if the block was placed, false if its colors don't fit
+		 */
+		private boolean place(int c, int position, int step) {
+			int[] colors = classColors[c];
+			int size = colors.length;
+			for (int i = 0; i < size; i++) {
+				int column = (position + i) % sectionLength;
+				if (columns[column] == Puzzle.EMPTY) {
+					columns[column] = colors[i];
+					columnSetAt[column] = step;
+					stateHash ^= columnKey(column, colors[i]);
+					phasesKnown = false;
+				}
+				else if (columns[column] != colors[i]) {
+					clearColumns(position, i, step);
+					return false;
+				}
+			}
+			Bits.fill(occupied, position, position + size, true);
+			remaining[c]--;
+			if (remaining[c] == 0) {
+				lostClass = c;
+			}
+			stateHash -= classKey(c);
+			for (int i = 0; i < size; i++) {
+				emptyInColumn[(position + i) % sectionLength]--;
+				colorsLeft[colors[i]]--;
+			}
+			return true;
+		}
+		
+		/**
+		 * Takes a block placed by place back off this task's board
+		 */
+		private void unplace(int c, int position, int step) {
+			int[] colors = classColors[c];
+			int size = colors.length;
+			clearColumns(position, size, step);
+			Bits.fill(occupied, position, position + size, false);
+			remaining[c]++;
+			stateHash += classKey(c);
+			for (int i = 0; i < size; i++) {
+				emptyInColumn[(position + i) % sectionLength]++;
+				colorsLeft[colors[i]]++;
+			}
+		}
+		
+		/**
+		 * Forgets the colors of the columns decided by a step, for the first count squares
+		 * from position
+		 */
+		private void clearColumns(int position, int count, int step) {
+			for (int i = 0; i < count && i < sectionLength; i++) {
+				int column = (position + i) % sectionLength;
+				if (columnSetAt[column] == step && step != -1) {
+					stateHash ^= columnKey(column, columns[column]);
+					columns[column] = Puzzle.EMPTY;
+					columnSetAt[column] = -1;
+					phasesKnown = false;
+				}
+			}
+		}
+		
+		/**
+		 * Checks that the blocks left could still fill the board, using two rules that come
+		 * from every section being the same:
+		 * 
+		 * Every empty square in a known column needs a square of that column's color, so
+		 * there must be at least that many squares of each color left.
+		 * 
+		 * A block joins the phase it starts at to the phase after it ends, so the runs of
+		 * empty squares left must be paths through these joins. Every block left must be able
+		 * to start at a phase connected to the phase that one of those runs starts at, or
+		 * it could never be placed. Where a column isn't known yet, any color is allowed.
+		 * 
+		 * Every gap not started yet must be able to be filled exactly by the classes left on
+		 * its own. Each gap keeps a filling that was found for it, which stays good until a
+		 * class it uses runs out or a column changes, so only those gaps are looked at again.
+		 * @param position - the next square to fill
+		 * @param rank - the place in the fill order of the gap that position is in
+		 * @return false if the search can't be finished from here
+		 */
+		private boolean canFinish(int position, int rank) {
+			int lost = lostClass;
+			lostClass = -1;
+			if (position == length) {
+				return true;
+			}
+			
+			// Count the squares each color is needed for
+			int[] needed = this.needed;
+			Arrays.fill(needed, 0);
+			for (int column = 0; column < sectionLength; column++) {
+				if (columns[column] != Puzzle.EMPTY) {
+					needed[columns[column]] += emptyInColumn[column];
+				}
+			}
+			for (int color = 0; color < needed.length; color++) {
+				if (colorsLeft[color] < needed[color]) {
+					return false;
+				}
+			}
+			
+			if (sectionLength > 64) {
+				return true;
+			}
+			boolean columnsChanged = !phasesKnown;
+			if (!phasesKnown) {
+				for (int c = 0; c < classCount; c++) {
+					classPhases[c] = findPhases(classColors[c], columns, sectionLength);
+				}
+				phasesKnown = true;
+			}
+			
+			// Blocks that can only start at one phase fill known columns, which mustn't be
+			// more than the empty squares in those columns
+			int[] supplied = this.supplied;
+			Arrays.fill(supplied, 0);
+			for (int c = 0; c < classCount; c++) {
+				long phases = classPhases[c];
+				if (remaining[c] > 0 && Long.bitCount(phases) == 1) {
+					int phase = Long.numberOfTrailingZeros(phases);
+					int size = classColors[c].length;
+					// Each block covers every column size / sectionLength times, and the
+					// columns from its phase onwards once more
+					int laps = size / sectionLength;
+					for (int column = 0; column < sectionLength; column++) {
+						supplied[column] += remaining[c] * laps;
+					}
+					for (int i = 0; i < size % sectionLength; i++) {
+						supplied[(phase + i) % sectionLength] += remaining[c];
+					}
+				}
+			}
+			for (int column = 0; column < sectionLength; column++) {
+				if (supplied[column] > emptyInColumn[column]) {
+					return false;
+				}
+			}
+			
+			// Join up the phases
+			Arrays.fill(joined, 0);
+			for (int c = 0; c < classCount; c++) {
+				if (remaining[c] == 0) {
+					continue;
+				}
+				int size = classColors[c].length;
+				for (long phases = classPhases[c]; phases != 0; phases &= phases - 1) {
+					int from = Long.numberOfTrailingZeros(phases);
+					int to = (from + size) % sectionLength;
+					joined[from] |= 1L << to;
+					joined[to] |= 1L << from;
+				}
+			}
+			
+			// Find every phase connected to the start of this run or a later one
+			long reached = (1L << (position % sectionLength)) | laterGapPhases[rank];
+			long previous = 0;
+			while (reached != previous) {
+				previous = reached;
+				for (long phases = previous; phases != 0; phases &= phases - 1) {
+					reached |= joined[Long.numberOfTrailingZeros(phases)];
+				}
+			}
+			
+			// Every block left needs to be able to start at a phase that was reached (this
+			// also stops the search if a block doesn't fit at any phase)
+			for (int c = 0; c < classCount; c++) {
+				if (remaining[c] > 0 && (classPhases[c] & reached) == 0) {
+					return false;
+				}
+			}
+			
+			// Look again at the fillings of the gaps not started yet that could have stopped
+			// working
+			boolean started = position != gapStarts[fillOrder[rank]];
+			if (columnsChanged) {
+				for (int k = started ? rank + 1 : rank; k < fillOrder.length; k++) {
+					if (!checkGap(fillOrder[k])) {
+						return false;
+					}
+				}
+			}
+			else if (lost != -1) {
+				// Keep the gaps that still use the class, once each
+				int[] gaps = gapsUsing[lost];
+				int kept = 0;
+				checkCount++;
+				for (int i = 0; i < gapsUsingCount[lost]; i++) {
+					int g = gaps[i];
+					if (lastChecked[g] == checkCount || !uses(witnesses[g], lost)) {
+						continue;
+					}
+					lastChecked[g] = checkCount;
+					gaps[kept++] = g;
+				}
+				gapsUsingCount[lost] = kept;
+				for (int i = 0; i < kept; i++) {
+					int g = gaps[i];
+					if ((fillRank[g] > rank || (fillRank[g] == rank && !started)) && !checkGap(g)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Makes sure a gap's filling only uses classes that are left, at phases they fit at,
+		 * finding a new one if not
+		 * @return false if the gap can't be filled any more
+		 */
+		private boolean checkGap(int g) {
+			int at = gapStarts[g];
+			for (int c : witnesses[g]) {
+				if (remaining[c] == 0 || (classPhases[c] & (1L << (at % sectionLength))) == 0) {
+					int[] witness = filler.fill(gapStarts[g], gapEnds[g], classPhases, remaining);
+					if (witness == null) {
+						return false;
+					}
+					setWitness(g, witness);
+					return true;
+				}
+				at += classColors[c].length;
+			}
+			return true;
+		}
+		
+		/**
+		 * Gives a gap a new filling, noting the gap against each class it uses
+		 */
+		private void setWitness(int g, int[] witness) {
+			witnesses[g] = witness;
+			for (int c : witness) {
+				if (gapsUsingCount[c] == gapsUsing[c].length) {
+					gapsUsing[c] = Arrays.copyOf(gapsUsing[c], gapsUsing[c].length * 2 + 4);
+				}
+				gapsUsing[c][gapsUsingCount[c]++] = g;
+			}
+		}
+		
+		/**
+		 * @return true if a position has already been searched without finding a solution
+		 */
+		private boolean hasFailed(long hash) {
+			return failures.get(failureSlot(hash)) == hash;
+		}
+		
+		private int remainingBlocks() {
+			int total = 0;
+			for (int count : remaining) {
+				total += count;
+			}
+			return total;
+		}
+		
+		/**
+		 * Works out which block in storage goes where, from the placements of this task
+		 */
+		private void recordSolution() {
+			int[] classes = concat(prefixClasses, stackClasses, depth);
+			int[] positions = concat(prefixPositions, stackPositions, depth);
+			int[] placed = new int[classCount];
+			int[] answer = new int[classes.length];
+			for (int i = 0; i < classes.length; i++) {
+				int c = classes[i];
+				answer[classBlocks[c][placed[c]++]] = positions[i];
+			}
+			solution = answer;
+		}
+	}
+	
+	/**
+	 * @return a bitmask of the phases that a block with these colors could fit at, with the
+	 * 		columns known so far
+	 */
+	private static long findPhases(int[] colors, int[] columns, int sectionLength) {
+		long phases = 0;
+		int squares = Math.min(colors.length, sectionLength);
+		for (int phase = 0; phase < sectionLength; phase++) {
+			int i = 0;
+			while (i < squares && (columns[(phase + i) % sectionLength] == Puzzle.EMPTY
+					|| colors[i] == columns[(phase + i) % sectionLength])) {
+				i++;
+			}
+			if (i == squares) {
+				phases |= 1L << phase;
+			}
+		}
+		return phases;
+	}
+	
+	/**
+	 * The hash keys of a block class and of a column's color. A position's hash adds up the
+	 * keys of the blocks left, and XORs the keys of the known columns.
+	 */
+	private static long classKey(int c) {
+		return Bits.mix(c);
+	}
+	
+	private static long columnKey(int column, int color) {
+		return Bits.mix(-1 - ((long) column * Puzzle.MAX_COLORS + color));
+	}
+	
+	/**
+	 * @return where a position's hash is kept in the failure table
+	 */
+	private static int failureSlot(long hash) {
+		return (int) (hash >>> 44) & (FAILURE_TABLE_SIZE - 1);
+	}
+	
+	/**
+	 * @return true if a filling uses a class
+	 */
+	private static boolean uses(int[] witness, int c) {
+		for (int used : witness) {
+			if (used == c) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @return a copy of a followed by the first count values of b
+	 */
+	private static int[] concat(int[] a, int[] b, int count) {
+		int[] result = Arrays.copyOf(a, a.length + count);
+		System.arraycopy(b, 0, result, a.length, count);
+		return result;
+	}
+	
+	/**
+	 * Creates a puzzle, partly fills it and times solving it on more and more threads
+	 * @param args - see the class description
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int length = 20000;
+		int colors = 2;
+		long seed = 1;
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		double placed = 0;
+		int misplaced = 0;
+		int puzzles = 0;
+		int limit = 10;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i+1];
+			if (args[i].equals("-length")) {
+				length = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-colors")) {
+				colors = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-seed")) {
+				seed = Long.parseLong(value);
+			}
+			else if (args[i].equals("-threads")) {
+				maxThreads = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-placed")) {
+				placed = Double.parseDouble(value);
+			}
+			else if (args[i].equals("-misplaced")) {
+				misplaced = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-puzzles")) {
+				puzzles = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-limit")) {
+				limit = Integer.parseInt(value);
+			}
+			else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		
+		if (puzzles > 0) {
+			System.exit(solveMany(puzzles, length, colors, seed, maxThreads, placed, misplaced, limit) ? 0 : 1);
+		}
+		
+		Puzzle puzzle = createPuzzle(length, colors, new Random(seed), placed, misplaced);
+		System.out.println(String.format("length %d, section %d, %d colors, %d blocks in storage",
+				length, puzzle.getSectionLength(), colors, puzzle.getStorageSize()));
+		
+		ArrayList<Integer> threadCounts = new ArrayList<Integer>();
+		for (int threads = 1; threads < maxThreads; threads *= 2) {
+			threadCounts.add(threads);
+		}
+		threadCounts.add(maxThreads);
+		for (int threads : threadCounts) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			ParallelSolver solver = new ParallelSolver(puzzle);
+			long start = System.nanoTime();
+			boolean solvable = solver.isSolvable(pool);
+			double ms = (System.nanoTime() - start) / 1e6;
+			pool.shutdown();
+			
+			String check = "";
+			if (solvable) {
+				check = isSolution(puzzle, solver.getSolution()) ? ", solution checked" : ", SOLUTION IS WRONG";
+			}
+			System.out.println(String.format("%2d threads: %s in %.1fms, %d nodes%s",
+					threads, solvable ? "solvable" : "not solvable", ms, solver.getNodes(), check));
+		}
+	}
+	
+	/**
+	 * Solves puzzles from one seed after another on every thread, giving up on any that takes
+	 * longer than the time limit. With no blocks misplaced every puzzle can be solved.
+	 * @param limit - the time limit for each puzzle in seconds
+	 * @return true if every puzzle was solved in time, correctly
+	 */
+	private static boolean solveMany(int puzzles, int length, int colors, long seed, int threads,
+			double placed, int misplaced, int limit) {
+		int gaveUp = 0;
+		int wrong = 0;
+		double slowest = 0;
+		Timer timer = new Timer(true);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		for (int p = 0; p < puzzles; p++) {
+			Puzzle puzzle = createPuzzle(length, colors, new Random(seed + p), placed, misplaced);
+			final ParallelSolver solver = new ParallelSolver(puzzle);
+			final AtomicBoolean timedOut = new AtomicBoolean();
+			TimerTask stop = new TimerTask() {
+				@Override
+				public void run() {
+					timedOut.set(true);
+					solver.cancel();
+				}
+			};
+			timer.schedule(stop, limit * 1000L);
+			long start = System.nanoTime();
+			boolean solvable = solver.isSolvable(pool);
+			double ms = (System.nanoTime() - start) / 1e6;
+			stop.cancel();
+			
+			String result;
+			if (timedOut.get()) {
+				gaveUp++;
+				result = "GAVE UP after " + limit + "s";
+			}
+			else if (solvable ? !isSolution(puzzle, solver.getSolution()) : misplaced == 0) {
+				wrong++;
+				result = solvable ? "SOLUTION IS WRONG" : "NOT SOLVABLE";
+			}
+			else {
+				slowest = Math.max(slowest, ms);
+				result = String.format("%s in %.1fms", solvable ? "solvable" : "not solvable", ms);
+			}
+			System.out.println(String.format("seed %d: section %d, %d blocks in storage, %s, %d nodes",
+					seed + p, puzzle.getSectionLength(), puzzle.getStorageSize(), result, solver.getNodes()));
+		}
+		pool.shutdown();
+		timer.cancel();
+		System.out.println(String.format("%d puzzles: %d gave up, %d wrong, slowest of the rest %.1fms",
+				puzzles, gaveUp, wrong, slowest));
+		return gaveUp == 0 && wrong == 0;
+	}
+	
+	/**
+	 * Creates a puzzle, then puts some of its blocks where they belong and some anywhere they
+	 * fit
+	 * @param placed - the chance of each block being put where it belongs
+	 * @param misplaced - the amount of blocks to try putting anywhere
+	 */
+	private static Puzzle createPuzzle(int length, int colors, Random random, double placed, int misplaced) {
+		Puzzle puzzle = new Puzzle(length, colors, PuzzleLayout.DEFAULT_MAX_SQUARES, random.nextLong());
+		int position = 0;
+		for (int b = 0; b < puzzle.getBlockCount(); b++) {
+			Block block = puzzle.getBlock(b);
+			if (random.nextDouble() < placed) {
+				puzzle.addBlockToBoard(block, position);
+			}
+			position += block.getSize();
+		}
+		for (int m = 0; m < misplaced && puzzle.getStorageSize() > 0; m++) {
+			Block block = puzzle.getBlockFromStorage(random.nextInt(puzzle.getStorageSize()));
+			int at = random.nextInt(length);
+			if (puzzle.isSpace(block, at)) {
+				puzzle.addBlockToBoard(block, at);
+			}
+		}
+		return puzzle;
+	}
+	
+	/**
+	 * @return true if putting the blocks in storage where a solution says solves the puzzle
+	 */
+	private static boolean isSolution(Puzzle puzzle, int[] solution) {
+		Puzzle copy = copyOf(puzzle);
+		for (int i = solution.length - 1; i >= 0; i--) {
+			copy.addBlockToBoard(copy.getBlockFromStorage(i), solution[i]);
+		}
+		return copy.isSolved();
+	}
+	
+	/**
+	 * Recreates a puzzle with its blocks in the same places
+	 */
+	private static Puzzle copyOf(Puzzle puzzle) {
+		int count = puzzle.getBlockCount();
+		int[] sizes = new int[count];
+		int[] order = new int[count];
+		HashMap<Block, Integer> index = new HashMap<Block, Integer>();
+		for (int b = 0; b < count; b++) {
+			sizes[b] = puzzle.getBlock(b).getSize();
+			index.put(puzzle.getBlock(b), b);
+		}
+		// Blocks on the board go after the blocks in storage, and are then put on the board
+		int next = 0;
+		for (int i = 0; i < puzzle.getStorageSize(); i++) {
+			order[next++] = index.get(puzzle.getBlockFromStorage(i));
+		}
+		ArrayList<Integer> onBoard = new ArrayList<Integer>();
+		for (int b = 0; b < count; b++) {
+			if (puzzle.getBlock(b).getBoardPosition() != -1) {
+				order[next++] = b;
+				onBoard.add(b);
+			}
+		}
+		Puzzle copy = new Puzzle(puzzle.getLength(), puzzle.getColorCount(), puzzle.getSection(), sizes, order, puzzle.getSeed());
+		for (int b : onBoard) {
+			copy.addBlockToBoard(copy.getBlock(b), puzzle.getBlock(b).getBoardPosition());
+		}
+		return copy;
+	}
+}
@@ -1,8 +1,10 @@
 package uk.singlekey.repeata_freak;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.Random;
 
 import uk.ac.surrey.so00076.repeater.R;
 
@@ -15,9 +17,36 @@ import uk.ac.surrey.so00076.repeater.R;
 public class Puzzle {
 	
 	/**
-	 * A list of the colors that are available to use by the puzzle
+	 * Every color that a puzzle can use, as resources. A puzzle with n colors uses the
+	 * first n of these. Squares store an index into this array rather than the color itself,
+	 * so that they can be packed 4 bits to a square.
 	 */
-	private ArrayList<Integer> colors;
+	static final int[] PALETTE = {
+		R.color.red, R.color.green, R.color.blue, R.color.yellow,
+		R.color.magenta, R.color.cyan, R.color.orange, R.color.purple,
+		R.color.pink, R.color.brown, R.color.grey, R.color.navy,
+		R.color.teal, R.color.olive, R.color.maroon, R.color.lime
+	};
+	
+	/**
+	 * The most colors a puzzle can use
+	 */
+	public static final int MAX_COLORS = PALETTE.length;
+	
+	/**
+	 * The amount of colors used by the puzzles created from a difficulty
+	 */
+	public static final int DEFAULT_COLORS = 3;
+	
+	/**
+	 * Returned by getSquare for a square that doesn't have a block in it
+	 */
+	public static final int EMPTY = -1;
+	
+	/**
+	 * The amount of colors that are available to use by the puzzle
+	 */
+	private int colorCount;
 	
 	/**
 	 * The length of the entire game board
@@ -30,9 +59,15 @@ public class Puzzle {
 	private int sectionLength;
 	
 	/**
-	 * Represents every square on the game board
+	 * Represents the color of every square on the game board, packed 16 to a long (see Bits).
+	 * A square's color only means something if the square is occupied.
+	 */
+	private long[] allSquares;
+	
+	/**
+	 * One bit for every square on the game board, set if there is a block in the square
 	 */
-	private ArrayList<Integer> allSquares;
+	private long[] occupied;
 	
 	/**
 	 * A list of all of the blocks in the puzzle. Once the puzzle is created, this list 
@@ -45,42 +80,235 @@ public class Puzzle {
 	 */
 	private ArrayList<Block> storageArea;
 	
+	/**
+	 * The longest that a block can be
+	 */
+	private int maxBlockSize;
+	
+	/**
+	 * A Zobrist hash of where the blocks are on the board: the XOR of a key for each block
+	 * on the board and its position. Identical blocks have the same keys, so swapping them
+	 * doesn't change the hash.
+	 */
+	private long stateHash;
+	
+	/**
+	 * Changed every time the board or the storage area changes, so that a copy of them can
+	 * tell whether it is still up to date
+	 */
+	private int version;
+	
+	/**
+	 * The seed that every random choice made while creating the puzzle comes from
+	 */
+	private long seed;
+	
+	/**
+	 * Source of randomness for creating the puzzle, seeded so that the same seed
+	 * always creates the same puzzle
+	 */
+	private Random random;
+	
+	/**
+	 * Every block this puzzle has created, so that they can be reused when the puzzle is
+	 * regenerated, and how many of them the current puzzle is using
+	 */
+	private ArrayList<Block> blockPool = new ArrayList<Block>();
+	private int blockPoolUsed;
+	
+	/**
+	 * The divisors of the length, kept so they are only found again when the length changes
+	 */
+	private int[] divisors;
+	private int divisorsOf;
+	
 	/**
 	 * Constructor for Puzzle class.
 	 * Takes a difficulty and creates a random puzzle.
 	 * @param difficulty - determines the length of the puzzle
 	 */
 	public Puzzle(int difficulty) {
-		
+		this(difficulty, new Random().nextLong());
+	}
+	
+	/**
+	 * Constructor for Puzzle class.
+	 * Takes a difficulty and a seed, and creates the puzzle for that seed. Two puzzles 
+	 * created with the same difficulty and seed are identical.
+	 * @param difficulty - determines the length of the puzzle
+	 * @param seed - the seed used for every random choice when creating the puzzle
+	 */
+	public Puzzle(int difficulty, long seed) {
 		// Make the length 6 times the difficulty
-		length = difficulty * 6;
-		
-		// Set up an ArrayList of colors, using resources, so that we can easily pick them randomly
-		colors = new ArrayList<Integer>();
-		colors.add(R.color.red);
-		colors.add(R.color.green);
-		colors.add(R.color.blue);
+		this(difficulty * 6, DEFAULT_COLORS, PuzzleLayout.DEFAULT_MAX_SQUARES, seed);
+	}
+	
+	/**
+	 * Constructor for Puzzle class.
+	 * Creates a puzzle with a board of any length that has a divisor other than 1 and
+	 * itself (otherwise it couldn't be split into identical sections).
+	 * @param length - the amount of squares on the board
+	 * @param maxSquaresPerLine - the most squares that will be displayed on a single line,
+	 * 		which decides how long blocks can be
+	 * @param seed - the seed used for every random choice when creating the puzzle
+	 */
+	public Puzzle(int length, int maxSquaresPerLine, long seed) {
+		this(length, DEFAULT_COLORS, maxSquaresPerLine, seed);
+	}
+	
+	/**
+	 * Constructor for Puzzle class.
+	 * Creates a puzzle with a board of any length that has a divisor other than 1 and
+	 * itself, using between 2 and MAX_COLORS colors.
+	 * @param length - the amount of squares on the board
+	 * @param colorCount - the amount of colors the puzzle uses
+	 * @param maxSquaresPerLine - the most squares that will be displayed on a single line,
+	 * 		which decides how long blocks can be
+	 * @param seed - the seed used for every random choice when creating the puzzle
+	 */
+	public Puzzle(int length, int colorCount, int maxSquaresPerLine, long seed) {
 		
 		// Initialise ArrayLists for allBlocks and storageArea
 		allBlocks = new ArrayList<Block>();
 		storageArea = new ArrayList<Block>();
+		this.random = new Random(seed);
+		
+		regenerate(length, colorCount, maxSquaresPerLine, seed);
+	}
+	
+	/**
+	 * Replaces the puzzle with a new one, identical to the puzzle the constructor would create
+	 * with the same arguments. The board, the blocks and the lists of this puzzle are reused,
+	 * so once a few puzzles of the same length have been created, creating another allocates
+	 * almost nothing (e.g. for every round of a "30 Second Challenge").
+	 * The blocks of the old puzzle become blocks of the new one, so they mustn't be used for
+	 * anything else afterwards.
+	 * @param length - the amount of squares on the board
+	 * @param colorCount - the amount of colors the puzzle uses
+	 * @param maxSquaresPerLine - the most squares that will be displayed on a single line,
+	 * 		which decides how long blocks can be
+	 * @param seed - the seed used for every random choice when creating the puzzle
+	 */
+	public void regenerate(int length, int colorCount, int maxSquaresPerLine, long seed) {
+		
+		if (length < 4 || DivisorTable.isPrime(length)) {
+			throw new IllegalArgumentException("A board of length " + length + " can't be split into sections");
+		}
+		if (colorCount < 2 || colorCount > MAX_COLORS) {
+			throw new IllegalArgumentException("A puzzle can't use " + colorCount + " colors");
+		}
+		this.length = length;
+		this.colorCount = colorCount;
+		
+		// Seeding the same Random again gives the same numbers as a new Random with the seed
+		this.seed = seed;
+		this.random.setSeed(seed);
+		
+		// Forget the old puzzle's blocks, keeping them in the pool
+		allBlocks.clear();
+		storageArea.clear();
+		blockPoolUsed = 0;
+		stateHash = 0;
+		version++;
 		
 		// Randomly allocate a size that all sections will be
+		Tracer.begin("calculateSectionLength");
 		calculateSectionLength();
+		Tracer.end();
+		
+		// Blocks must fit on a single line of the board, so that they also fit in the storage area
+		this.maxBlockSize = sectionLength * PuzzleLayout.sectionsPerLine(length, sectionLength, maxSquaresPerLine);
 		
 		// Create the new puzzle fully solved (fill AllSquares)
+		Tracer.begin("createPuzzle");
 		createPuzzle();
+		Tracer.end();
 		
 		// Split allSquares up into blocks
+		Tracer.begin("createBlocks");
 		createBlocks();
+		Tracer.end();
 		
 		// Shuffle all of the blocks in the storageArea (so they're not already in the right order)
-		Collections.shuffle(storageArea);
+		Tracer.begin("shuffle");
+		Collections.shuffle(storageArea, random);
+		Tracer.end();
 		
 		// Make each square of the game board null, ready for the user to play
 		nullPuzzle();
 	}
 	
+	/**
+	 * Constructor for Puzzle class.
+	 * Recreates a puzzle that has already been created, from its solution and the order of
+	 * its blocks in the storage area, e.g. a puzzle from a PuzzlePack.
+	 * @param length - the amount of squares on the board
+	 * @param colorCount - the amount of colors the puzzle uses
+	 * @param section - the color of each square of a section
+	 * @param blockSizes - the size of each block, in the order they appear in the solution
+	 * @param storageOrder - storageOrder[i] is the index (in blockSizes) of the block that 
+	 * 		starts in storage position i
+	 * @param seed - the seed the puzzle was created from, or any number that identifies it
+	 */
+	public Puzzle(int length, int colorCount, int[] section, int[] blockSizes, int[] storageOrder, long seed) {
+		
+		int sectionLength = section.length;
+		if (sectionLength < 1 || sectionLength >= length || length % sectionLength != 0) {
+			throw new IllegalArgumentException("A board of length " + length + " can't be split into sections of " + sectionLength);
+		}
+		if (colorCount < 2 || colorCount > MAX_COLORS) {
+			throw new IllegalArgumentException("A puzzle can't use " + colorCount + " colors");
+		}
+		if (storageOrder.length != blockSizes.length) {
+			throw new IllegalArgumentException("The storage order must contain every block once");
+		}
+		this.length = length;
+		this.colorCount = colorCount;
+		this.sectionLength = sectionLength;
+		
+		this.seed = seed;
+		this.random = new Random(seed);
+		
+		allBlocks = new ArrayList<Block>(blockSizes.length);
+		storageArea = new ArrayList<Block>(blockSizes.length);
+		
+		// Fill the first section with the colors given, and repeat it across the board
+		createBoard();
+		for (int i = 0; i < sectionLength; i++) {
+			if (section[i] < 0 || section[i] >= colorCount) {
+				throw new IllegalArgumentException("Color " + section[i] + " isn't one of the puzzle's " + colorCount + " colors");
+			}
+			Bits.setSquare(allSquares, i, section[i]);
+		}
+		repeatSection();
+		
+		// Split the board up into the blocks given
+		int start = 0;
+		for (int size : blockSizes) {
+			if (size < 1 || start + size > length) {
+				throw new IllegalArgumentException("The blocks don't fill the board");
+			}
+			allBlocks.add(newBlock(start, size));
+			maxBlockSize = Math.max(maxBlockSize, size);
+			start += size;
+		}
+		if (start != length) {
+			throw new IllegalArgumentException("The blocks don't fill the board");
+		}
+		
+		// Put the blocks into storage in the order given
+		boolean[] used = new boolean[blockSizes.length];
+		for (int index : storageOrder) {
+			if (index < 0 || index >= used.length || used[index]) {
+				throw new IllegalArgumentException("The storage order must contain every block once");
+			}
+			used[index] = true;
+			storageArea.add(allBlocks.get(index));
+		}
+		
+		nullPuzzle();
+	}
+	
 	/**
 	 * Calculates the possible lengths of a section (given they must all be the same length) 
 	 * in the puzzle, then chooses one at random.
@@ -89,17 +317,28 @@ public class Puzzle {
 	private void calculateSectionLength() {
 		// We should randomly allocate a size that all sections will be.
 		// First find all factors of the 'length', not including 1 or itself.
-		// We also want i to be at most 12, as sections longer than this would be too long.
-		ArrayList<Integer> factors = new ArrayList<Integer>();
-		for(int i = 2; i <= length/2 && i <=12; i++) {
-			// If i is a factor, add it to the list of factors
-			if (length % i == 0) {
-				factors.add(i);
-			}
+		// We also want the factor to be at most 12, as sections longer than this would be too long.
+		if (divisors == null || divisorsOf != length) {
+			divisors = DivisorTable.divisors(length);
+			divisorsOf = length;
+		}
+		
+		// divisors[0] is 1, so the factors we want start at 1 and finish at the last one
+		// that is at most 12 (and at most half the length, which excludes the length itself)
+		int count = 0;
+		while (count+1 < divisors.length && divisors[count+1] <= length/2 && divisors[count+1] <= 12) {
+			count++;
 		}
+		
+		// If every factor is longer than 12 (e.g. 13*13), use the shortest one
+		if (count == 0) {
+			this.sectionLength = divisors[1];
+			return;
+		}
+		
 		// Then choose a random factor from the list to be the size of the section
-		int randomIndex = (int) (Math.random()*(factors.size()));
-		this.sectionLength = factors.get(randomIndex);
+		int randomIndex = (int) (random.nextDouble()*count);
+		this.sectionLength = divisors[1 + randomIndex];
 	}
 	
 	/**
@@ -107,29 +346,77 @@ public class Puzzle {
 	 * form the whole puzzle, ready to be split up into blocks.
 	 */
 	private void createPuzzle() {
-		// Create an ArrayList representing a single section of the puzzle
-		ArrayList<Integer> section = new ArrayList<Integer>();
+		// Initialise allSquares, which holds all of the squares on the game board
+		createBoard();
 		
-		// Fill the section (up to sectionLength) with random colors from the colors ArrayList
+		// Fill the first section with random colors. A color must never be the same as the
+		// previous one, so after the first square we choose from one less color and skip over
+		// the previous color - this picks evenly from the colors allowed, without retrying.
+		int previous = -1;
 		for (int i = 0; i < sectionLength; i++) {
-			// Create a random index
-			int randomIndex = (int) (Math.random()*(colors.size()));
-			// Keep creating new random i until the random index is not the same as the one of the
-			// previous block (so that a color never repeats).
-			while (i >= 1 && colors.get(randomIndex) == section.get(i-1)) {
-				randomIndex = (int) (Math.random()*(colors.size()));
+			int color;
+			if (previous == -1) {
+				color = random.nextInt(colorCount);
 			}
-			// Add the random color to the section
-			section.add(colors.get(randomIndex));
+			else {
+				color = random.nextInt(colorCount - 1);
+				if (color >= previous) {
+					color++;
+				}
+			}
+			Bits.setSquare(allSquares, i, color);
+			previous = color;
 		}
 		
-		// Initialise allSquares, which holds all of the squares on the game board
-		allSquares = new ArrayList<Integer>();
-		
-		// Repeatedly add the same section to allSquares, up to the amount of sections we have
-		// calculated to be included in the puzzle
-		for(int i=0; i < length/sectionLength; i++) {
-			allSquares.addAll(section);
+		repeatSection();
+	}
+	
+	/**
+	 * Makes allSquares and occupied the right size for the length of the board, reusing the
+	 * arrays of the last puzzle if they are already the right size
+	 */
+	private void createBoard() {
+		int words = Bits.words(length * Bits.BITS_PER_SQUARE);
+		if (allSquares == null || allSquares.length != words || occupied.length != Bits.words(length)) {
+			allSquares = new long[words];
+			occupied = new long[Bits.words(length)];
+		}
+		else {
+			Arrays.fill(allSquares, 0);
+			Arrays.fill(occupied, 0);
+		}
+	}
+	
+	/**
+	 * Creates a block from the squares of allSquares, reusing a block from the pool if there
+	 * is one spare
+	 * @param start - the position of the first square of the block
+	 * @param size - the amount of squares in the block
+	 * @return the block
+	 */
+	private Block newBlock(int start, int size) {
+		if (blockPoolUsed < blockPool.size()) {
+			Block block = blockPool.get(blockPoolUsed++);
+			block.reset(allSquares, start, size);
+			return block;
+		}
+		Block block = new Block(allSquares, start, size);
+		blockPool.add(block);
+		blockPoolUsed++;
+		return block;
+	}
+	
+	/**
+	 * Copies the first section of allSquares across the rest of the board
+	 */
+	private void repeatSection() {
+		// Repeat the section across the rest of the board by copying everything filled so far
+		// onto the end, doubling the amount filled each time.
+		int filled = sectionLength;
+		while (filled < length) {
+			int count = Math.min(filled, length - filled);
+			Bits.copy(allSquares, 0, allSquares, (long) filled * Bits.BITS_PER_SQUARE, (long) count * Bits.BITS_PER_SQUARE);
+			filled += count;
 		}
 	}
 	
@@ -143,36 +430,25 @@ public class Puzzle {
 		int j = 0;
 		
 		// Go through allSquares until we are three from the end
-		while (i<allSquares.size()-3) {
+		while (i<length-3) {
 			/*
 			 * j represents the end position of the block we are currently creating, therefore
 			 * this needs to be a random number that is:
 			 * 		At least 1 ahead of i
 			 * 		Less than half of allSquares entire length, ahead of i
-			 * 		Less than 9 ahead of i; to stop blocks overflowing the screen - not the best way but will do
+			 * 		Less than maxBlockSize ahead of i; to stop blocks overflowing the screen
 			 * 		Less than the size of allSquares
 			 */
 			j = getRandomJ(i);
-			// Create a block and fill it up with j-i number of squares
-			Block block = new Block();
-			while (i<=j) {
-				block.addSquare(allSquares.get(i));
-				i++;
-			}
-			// Add this block to the puzzle
-			allBlocks.add(block);
+			// Create a block containing the j-i+1 squares from i to j
+			allBlocks.add(newBlock(i, j-i+1));
 			
-			// Note that i is now equal to j, so the next loop will continue through the array AFTER
-			// the last block that was created
+			// Continue through the array AFTER the last block that was created
+			i = j+1;
 		}
 		// Once we are within 3 of the end (while loop finished), fill the last block with the remaining elements
-		if (i != allSquares.size()) {
-			Block block = new Block();
-			while (i < allSquares.size()) {
-				block.addSquare(allSquares.get(i));
-				i++;
-			}
-			allBlocks.add(block);
+		if (i != length) {
+			allBlocks.add(newBlock(i, length-i));
 		}
 		// The storageArea should be filled with all of these blocks
 		storageArea.addAll(allBlocks);
@@ -181,9 +457,9 @@ public class Puzzle {
 	/**
 	 * Method to generate a random number j based on the following parameters:
 	 * 		Must be at least 1 ahead of i
-	 * 		Must be less than half of allSquares entire length, ahead of i
-	 * 		Must be less than 9 ahead of i
-	 * 		Must be less than the size of allSquares
+	 * 		Must be less than half of the board's entire length, ahead of i
+	 * 		Must be less than maxBlockSize ahead of i
+	 * 		Must be less than the length of the board
 	 * @param i
 	 * @return random int j
 	 */
@@ -191,28 +467,27 @@ public class Puzzle {
 		// j must be at least 1 ahead of i
 		int lowerBound = i + 1;
 		
-		// j must be smaller than  i + allSquares.size()/2  AND  allSquares.size()  AND  i+9
-		int upperBound = Math.min(i+allSquares.size()/2, Math.min(allSquares.size(),  i+9));
+		// j must be smaller than  i + length/2  AND  length  AND  i+maxBlockSize
+		int upperBound = Math.min(i+length/2, Math.min(length,  i+maxBlockSize));
 		
 		// Subtract the lowerBound from the upperBound
 		int difference = upperBound - lowerBound;
 		
 		// Find a random number and add this to the lowerBound
-		int randomNumber = (int) (Math.random()*(difference));
+		int randomNumber = (int) (random.nextDouble()*(difference));
 		int j = lowerBound + randomNumber;
 		
 		return j;
 	}
 	
 	/**
-	 * Set all of allSquares to null.
-	 * We don't want to simply empty the array as empty squares will also need to be
-	 * represented (as null)
+	 * Empty every square of the game board.
+	 * The colors are cleared as well as the occupied squares, so that the solution isn't
+	 * left on the board.
 	 */
 	private void nullPuzzle() {
-		for(int i = 0; i < this.length; i++) {
-			allSquares.set(i, null);
-		}
+		Arrays.fill(allSquares, 0);
+		Arrays.fill(occupied, 0);
 	}
 	
 	/**
@@ -229,31 +504,12 @@ public class Puzzle {
 			return false;
 		}
 		else {
-			/* 
-			 * Go through each index of each section, checking they are identical
-			 * Here i represents which square of each section we are currently comparing,
-			 * and j represents the section we are on
-			 * 
-			 * For example, we check that the first square of every section is the same, then the
-			 * second square of every section and so on.
+			/*
+			 * Every section is the same as the next one exactly when every square is the same as
+			 * the square one section further on. So compare the whole board, apart from the last
+			 * section, with the board shifted along by one section - 16 squares at a time.
 			 */
-			for (int i = 0; i < sectionLength; i++) {
-				for (int j = 0; j < (allSquares.size()/sectionLength)-1; j++) {
-					
-					// Get the value of the square in section j and i positions through that section
-					int a = allSquares.get((j)*sectionLength+i);
-					// Get the value for the same i in the next section, so that we can compare
-					int b = allSquares.get((j+1)*sectionLength+i);
-					
-					// If any i in any two sections is not equal, return false as the puzzle isn't solved
-					if (a != b) {
-						return false;
-					}
-				}
-			}
-			// If we have checked through all (i)s of all sections and found nothing wrong, return true as
-			// the puzzle has been solved.
-			return true;
+			return Bits.squaresEqual(allSquares, 0, sectionLength, length - sectionLength);
 		}
 	}
 	
@@ -267,10 +523,9 @@ public class Puzzle {
 	public void addBlockToBoard(Block block, int position) {
 		// If the block is already on the board, remove it
 		if (block.getBoardPosition() != -1) {
-			// Set allSquares to null in all of the squares that the block previously occupied
-			for (int i = block.getBoardPosition(); i < block.getBoardPosition()+block.getSize(); i++) {
-				allSquares.set(i, null);
-			}
+			// Empty all of the squares that the block previously occupied
+			Bits.fill(occupied, block.getBoardPosition(), block.getBoardPosition()+block.getSize(), false);
+			stateHash ^= placementKey(block, block.getBoardPosition());
 			// Make sure the block also knows that it is no longer on the board
 			block.setBoardPosition(-1);
 		}
@@ -279,12 +534,11 @@ public class Puzzle {
 			this.storageArea.remove(block);
 		}
 		
-		// Create an iterator to find the squares contained in the block
-		Iterator<Integer> blockContents = block.create_iterator();
-		// Add these squares to allSquares (the game board) in the appropriate places
-		for(int i = position; i < position + block.getSize(); i++) {
-			allSquares.set(i, blockContents.next());
-		}
+		// Copy the block's squares onto the game board, a word at a time, and mark them as occupied
+		Bits.copy(block.getPackedSquares(), 0, allSquares, (long) position * Bits.BITS_PER_SQUARE, (long) block.getSize() * Bits.BITS_PER_SQUARE);
+		Bits.fill(occupied, position, position + block.getSize(), true);
+		stateHash ^= placementKey(block, position);
+		version++;
 		// Make sure the block knows its new position
 		block.setBoardPosition(position);
 	}
@@ -295,10 +549,10 @@ public class Puzzle {
 	 */
 	public void removeBlockFromBoard(Block block) {
 		if (block.getBoardPosition() != -1) {
-			// Set the appropriate allSquares values to null
-			for (int i = block.getBoardPosition(); i < block.getBoardPosition()+block.getSize(); i++) {
-				allSquares.set(i, null);
-			}
+			// Empty the squares the block occupied
+			Bits.fill(occupied, block.getBoardPosition(), block.getBoardPosition()+block.getSize(), false);
+			stateHash ^= placementKey(block, block.getBoardPosition());
+			version++;
 			// Add the block to the storage area
 			this.storageArea.add(block);
 			// Tell the block it is no longer on the board
@@ -306,6 +560,46 @@ public class Puzzle {
 		}
 	}
 	
+	/**
+	 * The Zobrist key of a block being in a position
+	 */
+	private static long placementKey(Block block, int position) {
+		return Bits.mix(block.getColorHash() ^ Bits.mix(position));
+	}
+	
+	/**
+	 * Get a hash of where the blocks are on the board, kept up to date as blocks are moved.
+	 * Two positions of the same puzzle have the same hash if the same blocks (or identical
+	 * ones) are in the same places. The order of the storage area isn't included.
+	 * @return the 64-bit hash
+	 */
+	public long stateHash() {
+		return this.stateHash;
+	}
+	
+	/**
+	 * @return a number that changes every time a block is moved or the puzzle is regenerated
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+	
+	/**
+	 * Copies the colors of every square of the board, packed in the same way as Bits.setSquare.
+	 * A square's color only means something if it is set in copyOccupied().
+	 * @return the copy
+	 */
+	public long[] copySquares() {
+		return this.allSquares.clone();
+	}
+	
+	/**
+	 * @return a copy of the occupied squares of the board, one bit each
+	 */
+	public long[] copyOccupied() {
+		return this.occupied.clone();
+	}
+	
 	/** 
 	 * Check that there is space to move a block to the board in the position it wants 
 	 * to be moved to.
@@ -317,30 +611,62 @@ public class Puzzle {
 	 * @return true if there is space, false otherwise
 	 */
 	public boolean isSpace(Block block, int position) {
-		// Go through each position (i) that the block would cover once moved
-		for (int i = position; i < position + block.getSize(); i++) {
-			// If we have gone over the edge of the puzzle, then there is definitely not enough
-			// space, so return false
-			if (i >= allSquares.size()) {
-				return false;
-			}
-			// If the square has something in it, check if this something is part of the block
-			// being moved
-			int prevPosition = block.getBoardPosition();
-			if (allSquares.get(i) != null) {
-				// If it IS part of the block that's being moved, do nothing
-				if (prevPosition != -1 && i >= prevPosition && i < prevPosition + block.getSize()) {
-					// do nothing
-				}
-				// Otherwise, return false, as we are trying to overlap over another block
-				else {
-					return false;
-				}
+		// If we would go over the edge of the puzzle, then there is definitely not enough
+		// space, so return false (checked without adding to position, which could overflow)
+		if (position < 0 || position > length - block.getSize()) {
+			return false;
+		}
+		int end = position + block.getSize();
+		// Count the occupied squares that the block would cover once moved
+		int occupiedSquares = Bits.count(occupied, position, end);
+		
+		// The only occupied squares allowed are ones that are part of the block being moved
+		int prevPosition = block.getBoardPosition();
+		int ownSquares = 0;
+		if (prevPosition != -1) {
+			ownSquares = Math.max(0, Math.min(end, prevPosition + block.getSize()) - Math.max(position, prevPosition));
+		}
+		return occupiedSquares == ownSquares;
+	}
+	
+	/**
+	 * Finds every position a block could be moved to, so that checking a position while the
+	 * block is being dragged is a single bit test rather than a call to isSpace.
+	 * Bit n is set if isSpace(block, n) would return true. The squares the block is on count
+	 * as empty, for the same reason as in isSpace.
+	 *
+	 * @param block - the block being moved
+	 * @param targets - an array to reuse for the result, or null to create a new one
+	 * @return the legal starting positions of the block, one bit for each square of the board
+	 */
+	public long[] findDropTargets(Block block, long[] targets) {
+		if (targets == null || targets.length < Bits.words(length)) {
+			targets = new long[Bits.words(length)];
+		}
+		else {
+			Arrays.fill(targets, 0);
+		}
+		int size = block.getSize();
+		int prevPosition = block.getBoardPosition();
+		if (prevPosition != -1) {
+			Bits.fill(occupied, prevPosition, prevPosition + size, false);
+		}
+		
+		// Every empty run at least as long as the block can hold it starting anywhere up to
+		// size-1 squares before the run's end
+		int runStart = Bits.nextClear(occupied, 0, length);
+		while (runStart < length) {
+			int runEnd = Bits.nextSet(occupied, runStart, length);
+			if (runEnd - runStart >= size) {
+				Bits.fill(targets, runStart, runEnd - size + 1, true);
 			}
+			runStart = Bits.nextClear(occupied, runEnd, length);
+		}
+		
+		if (prevPosition != -1) {
+			Bits.fill(occupied, prevPosition, prevPosition + size, true);
 		}
-		// If we have got this far (no squares over the edge and all squares either null or part
-		// of its previous state), return true.
-		return true;
+		return targets;
 	}
 	
 	/**
@@ -379,6 +705,129 @@ public class Puzzle {
 		return this.storageArea.indexOf(block);
 	}
 	
+	/**
+	 * Get the amount of blocks in the puzzle, wherever they are
+	 * @return the amount of blocks
+	 */
+	public int getBlockCount() {
+		return this.allBlocks.size();
+	}
+	
+	/**
+	 * Get a block by where it belongs in the solution
+	 * @param index - the index of the block, where block 0 is the first block of the solution
+	 * @return the block
+	 */
+	public Block getBlock(int index) {
+		return this.allBlocks.get(index);
+	}
+	
+	/**
+	 * Get where a block belongs in the solution
+	 * @param block - the block
+	 * @return the index of the block (see getBlock), or -1 if it isn't part of this puzzle
+	 */
+	public int getBlockIndex(Block block) {
+		return this.allBlocks.indexOf(block);
+	}
+	
+	/**
+	 * Get the colors of a section of the solution, which every section must match for the
+	 * puzzle to be solved
+	 * @return the color index of each square of a section
+	 */
+	public int[] getSection() {
+		int[] section = new int[sectionLength];
+		int square = 0;
+		for (int b = 0; square < sectionLength; b++) {
+			Block block = allBlocks.get(b);
+			for (int i = 0; i < block.getSize() && square < sectionLength; i++) {
+				section[square++] = block.getSquare(i);
+			}
+		}
+		return section;
+	}
+	
+	/**
+	 * Get a fingerprint of the puzzle, which is the same for any two puzzles that only differ
+	 * in which colors they use or the order of the blocks in storage. Colors are renumbered
+	 * in the order they first appear in the solution, then the length, the section and the
+	 * size of each block (in solution order) are hashed.
+	 * @return the 64-bit fingerprint
+	 */
+	public long getFingerprint() {
+		// The new label of each color, 4 bits each, and which colors have been given one
+		long relabel = 0;
+		int labelled = 0;
+		int nextLabel = 0;
+		
+		long hash = Bits.mix(length);
+		hash = Bits.mix(hash ^ sectionLength);
+		
+		// The section is the start of the solution, so read it from the first blocks
+		int position = 0;
+		for (int b = 0; position < sectionLength; b++) {
+			Block block = allBlocks.get(b);
+			for (int i = 0; i < block.getSize() && position < sectionLength; i++, position++) {
+				int color = block.getSquare(i);
+				if ((labelled & (1 << color)) == 0) {
+					labelled |= 1 << color;
+					relabel |= (long) nextLabel++ << (4 * color);
+				}
+				hash = Bits.mix(hash ^ ((relabel >>> (4 * color)) & 0xF));
+			}
+		}
+		for (int b = 0; b < allBlocks.size(); b++) {
+			hash = Bits.mix(hash ^ allBlocks.get(b).getSize());
+		}
+		return hash;
+	}
+	
+	/**
+	 * Get the length of the entire game board
+	 * @return the amount of squares on the board
+	 */
+	public int getLength() {
+		return this.length;
+	}
+	
+	/**
+	 * Get the color of a single square on the game board
+	 * @param position - the position of the square
+	 * @return the index of the square's color (see getColor), or EMPTY if there isn't a block there
+	 */
+	public int getSquare(int position) {
+		if (!Bits.get(occupied, position)) {
+			return EMPTY;
+		}
+		return Bits.getSquare(allSquares, position);
+	}
+	
+	/**
+	 * Get the amount of colors that the puzzle uses
+	 * @return the amount of colors
+	 */
+	public int getColorCount() {
+		return this.colorCount;
+	}
+	
+	/**
+	 * Get the color that an index returned by getSquare represents
+	 * @param index - the index of the color
+	 * @return the color, as a resource
+	 */
+	public int getColor(int index) {
+		return PALETTE[index];
+	}
+	
+	/**
+	 * Get the seed that the puzzle was created from
+	 * @return the seed
+	 */
+	public long getSeed() {
+		return this.seed;
+	}
+	
 	/**
 	 * Get the section length that we have calculated for the puzzle
 	 * @return the section length
@@ -395,14 +844,6 @@ public class Puzzle {
 		return this.storageArea.size();
 	}
 	
-	/**
-	 * Create an iterator to go through the squares on the game board
-	 * @return - iterator of allSquares
-	 */
-	public Iterator<Integer> create_allSquares_iterator() {
-		return this.allSquares.iterator();
-	}
-	
 	/**
 	 * Create an iterator to go through the blocks in the storage area
 	 * @return - iterator of storageArea
@@ -1,7 +1,18 @@
 package uk.singlekey.repeata_freak;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import uk.ac.surrey.so00076.repeater.R;
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.app.Activity;
 
 /**
@@ -11,6 +22,43 @@ import android.app.Activity;
  */
 public class PuzzleActivity extends Activity {
 	
+	// Records the session if the user has chosen to, otherwise null
+	private TouchRecorder recorder;
+	
+	// Writes statistics about how the user plays if they have chosen to, otherwise null
+	private Telemetry.Writer telemetryWriter;
+	
+	// The race being played if the user has chosen to race, otherwise null
+	private RaceClient race;
+	
+	/**
+	 * The time (SystemClock.uptimeMillis) the user asked for the puzzle, e.g. by tapping a
+	 * button in the main menu, which the time to the first frame is measured from
+	 */
+	public static final String EXTRA_REQUEST_TIME = "uk.singlekey.repeata_freak.REQUEST_TIME";
+	
+	// How long it should take from the user asking for the puzzle to the first frame (the
+	// background), and to the first frame with the puzzle on it (milliseconds)
+	private static final long FIRST_FRAME_BUDGET_MILLIS = 250;
+	private static final long FIRST_PUZZLE_BUDGET_MILLIS = 500;
+	
+	// The session being played (null until its first puzzle has been created), the watchdog
+	// logging when it stalls (while resumed), and whether the activity is resumed
+	private PuzzleController controller;
+	private StallWatchdog watchdog;
+	private boolean resumed;
+	
+	// When the user asked for the puzzle (SystemClock.uptimeMillis)
+	private long requestTime;
+	
+	// The user's choices from the preferences menu, kept until the session has been created
+	private boolean sfx;
+	private boolean timedMode;
+	private boolean recordTouches;
+	private boolean telemetry;
+	private String raceServer;
+	private boolean useSurfaceView;
+	
 	/**
 	 * Called when the class is instantiated, this creates and displays a new puzzle
 	 */
@@ -18,9 +66,20 @@ public class PuzzleActivity extends Activity {
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		
+		// When the user asked for the puzzle, from the button they tapped if we know it
+		requestTime = getIntent().getLongExtra(EXTRA_REQUEST_TIME, SystemClock.uptimeMillis());
+		
+		// In debug builds, show the game's sections in system traces
+		if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+			Tracer.setBackend(Tracer.platform());
+		}
+		
 		// Get the difficulty from the preferences menu
 		String difficulty = PreferenceManager.getDefaultSharedPreferences(this).getString("difficulty", "2");
 		
+		// Get the amount of colors from the preferences menu
+		String colors = PreferenceManager.getDefaultSharedPreferences(this).getString("colors", "3");
+		
 		// Get the state of the manual_select boolean
 		boolean manual_select = PreferenceManager.getDefaultSharedPreferences(this).getBoolean("manual_select", false);
 		
@@ -30,11 +89,212 @@ public class PuzzleActivity extends Activity {
 		// Get the state of the timed_mode boolean
 		boolean timed_mode = PreferenceManager.getDefaultSharedPreferences(this).getBoolean("timed_mode", false);
 		
-		// Create a new PuzzleView to display, giving preference states as parameters
-		PuzzleView puzzle = new PuzzleView(this, Integer.parseInt(difficulty), manual_select, sfx, timed_mode);
+		// Get the state of the record_touches boolean
+		boolean record_touches = PreferenceManager.getDefaultSharedPreferences(this).getBoolean("record_touches", false);
+		
+		// Get the state of the telemetry boolean
+		boolean telemetry = PreferenceManager.getDefaultSharedPreferences(this).getBoolean("telemetry", false);
+		
+		// Get the race server, if the user wants to race
+		String race_server = PreferenceManager.getDefaultSharedPreferences(this).getString("race_server", "").trim();
+		
+		// Get the state of the grid_mode boolean
+		boolean grid_mode = PreferenceManager.getDefaultSharedPreferences(this).getBoolean("grid_mode", false);
+		
+		// Get the state of the surface_view boolean
+		boolean surface_view = PreferenceManager.getDefaultSharedPreferences(this).getBoolean("surface_view", false);
+		
+		// The two-dimensional puzzles are shown on their own, without any of a session's extras
+		if (grid_mode) {
+			setContentView(new PuzzleView(this, new GridPuzzle(Integer.parseInt(difficulty), Integer.parseInt(colors), System.nanoTime())));
+			return;
+		}
+		
+		// Show the background straight away, and create the session on a worker, so that
+		// generating the first puzzle doesn't hold up the first frame
+		View placeholder = new View(this);
+		placeholder.setBackgroundColor(getResources().getColor(R.color.background));
+		measureFirstFrame(placeholder, "first frame", FIRST_FRAME_BUDGET_MILLIS);
+		setContentView(placeholder);
+		
+		this.sfx = sfx;
+		this.timedMode = timed_mode;
+		this.recordTouches = record_touches;
+		this.telemetry = telemetry;
+		this.raceServer = race_server;
+		this.useSurfaceView = surface_view;
+		
+		final int difficultyValue = Integer.parseInt(difficulty);
+		final int colorCount = Integer.parseInt(colors);
+		final boolean manualSelect = manual_select;
+		final Handler handler = new Handler();
+		Thread generator = new Thread("PuzzleGenerator") {
+			public void run() {
+				// Create the game session, giving preference states as parameters
+				final PuzzleController created = new PuzzleController(difficultyValue, colorCount, manualSelect, timedMode, System.nanoTime());
+				handler.post(new Runnable() {
+					public void run() {
+						showSession(created);
+					}
+				});
+			}
+		};
+		generator.setDaemon(true);
+		generator.start();
+	}
+	
+	/**
+	 * Shows a session once its first puzzle has been created, with the recording, telemetry
+	 * and race the user has chosen. Called on the UI thread.
+	 * @param controller - the session to show
+	 */
+	private void showSession(PuzzleController controller) {
+		// If the user has already left, there is nothing to show
+		if (isFinishing()) {
+			return;
+		}
+		this.controller = controller;
+		
+		// Create a view to display the session, drawing on its own thread if the user has chosen to
+		View view;
+		PuzzleScreen screen;
+		if (useSurfaceView) {
+			PuzzleSurfaceView surfaceView = new PuzzleSurfaceView(this, controller, sfx);
+			view = surfaceView;
+			screen = surfaceView.getScreen();
+		}
+		else {
+			PuzzleView puzzleView = new PuzzleView(this, controller, sfx);
+			view = puzzleView;
+			screen = puzzleView.getScreen();
+		}
+		
+		// If the user wants their touches recorded, record them to a new file
+		if (recordTouches) {
+			File dir = new File(getFilesDir(), "recordings");
+			dir.mkdirs();
+			try {
+				recorder = new TouchRecorder(new FileOutputStream(new File(dir, "session-" + System.currentTimeMillis() + ".rftr")), controller);
+				screen.setRecorder(recorder);
+			} catch (IOException e) {
+				Log.w("PuzzleActivity", "Couldn't start recording touches", e);
+			}
+		}
+		
+		// If the user wants statistics about how they play, write them to a new file
+		if (telemetry) {
+			File dir = new File(getFilesDir(), "telemetry");
+			dir.mkdirs();
+			try {
+				Telemetry stats = new Telemetry();
+				telemetryWriter = new Telemetry.Writer(stats, new FileOutputStream(new File(dir, "session-" + System.currentTimeMillis() + ".rftm")), false);
+				telemetryWriter.start();
+				screen.setTelemetry(stats);
+			} catch (IOException e) {
+				Log.w("PuzzleActivity", "Couldn't start recording telemetry", e);
+			}
+		}
+		
+		// If the user wants to race, join a race through the server they have chosen
+		if (raceServer.length() > 0) {
+			String host = raceServer;
+			int port = RaceProtocol.DEFAULT_PORT;
+			int colon = raceServer.lastIndexOf(':');
+			try {
+				if (colon != -1) {
+					host = raceServer.substring(0, colon);
+					port = Integer.parseInt(raceServer.substring(colon + 1));
+				}
+				race = new RaceClient(host, port, screen, new Handler());
+				screen.setRace(race);
+			} catch (NumberFormatException e) {
+				Log.w("PuzzleActivity", "Couldn't start a race, " + raceServer + " isn't a host:port", e);
+			} catch (IOException e) {
+				Log.w("PuzzleActivity", "Couldn't start a race", e);
+			}
+		}
+		
+		// In timed mode, keep the score of every round
+		if (timedMode) {
+			screen.setScoreStore(ScoreStore.open(getFilesDir()));
+		}
 		
 		// Show the puzzle
-		setContentView(puzzle);
+		measureFirstFrame(view, "first puzzle frame", FIRST_PUZZLE_BUDGET_MILLIS);
+		setContentView(view);
 		
+		// If the user came back before the session was ready, start watching it now
+		if (resumed) {
+			startWatchdog();
+		}
+	}
+	
+	/**
+	 * Logs how long it has been since the user asked for the puzzle when a view is first
+	 * drawn, warning if it took longer than it should have
+	 * @param view - the view about to be shown
+	 * @param stage - what the first frame of the view is, for the log
+	 * @param budget - how long it should have taken at most (milliseconds)
+	 */
+	private void measureFirstFrame(final View view, final String stage, final long budget) {
+		view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+			public boolean onPreDraw() {
+				view.getViewTreeObserver().removeOnPreDrawListener(this);
+				long elapsed = SystemClock.uptimeMillis() - requestTime;
+				if (elapsed > budget) {
+					Log.w("PuzzleActivity", "Took " + elapsed + "ms to the " + stage + ", over the budget of " + budget + "ms");
+				}
+				else {
+					Log.i("PuzzleActivity", "Took " + elapsed + "ms to the " + stage);
+				}
+				return true;
+			}
+		});
+	}
+	
+	/**
+	 * Starts watching for the UI thread stalling while a session is shown
+	 */
+	@Override
+	protected void onResume() {
+		super.onResume();
+		resumed = true;
+		if (controller != null) {
+			startWatchdog();
+		}
+	}
+	
+	/**
+	 * Starts the watchdog on the session being shown
+	 */
+	private void startWatchdog() {
+		watchdog = new StallWatchdog(controller, new File(getFilesDir(), "stalls.log"), StallWatchdog.DEFAULT_THRESHOLD_MILLIS);
+		watchdog.start();
+	}
+	
+	/**
+	 * Stops the watchdog, and finishes the recording, telemetry and race (if there are any)
+	 * when the user leaves the puzzle
+	 */
+	@Override
+	protected void onPause() {
+		super.onPause();
+		resumed = false;
+		if (watchdog != null) {
+			watchdog.finish();
+			watchdog = null;
+		}
+		if (recorder != null && isFinishing()) {
+			recorder.close();
+			recorder = null;
+		}
+		if (telemetryWriter != null && isFinishing()) {
+			telemetryWriter.finish();
+			telemetryWriter = null;
+		}
+		if (race != null && isFinishing()) {
+			race.finish();
+			race = null;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,757 @@
+package uk.singlekey.repeata_freak;
+
+import java.util.Random;
+
+import uk.ac.surrey.so00076.repeater.R;
+import android.view.MotionEvent;
+
+/**
+ * Holds the state of a game session and decides what happens when the user touches the
+ * screen. PuzzleScreen passes its touch events here and its views draw whatever this class says.
+ *
+ * Nothing in this class needs a device (MotionEvent is only used for its action constants),
+ * so a recorded session can be replayed through it on a normal JVM.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class PuzzleController {
+	
+	/**
+	 * Used to tell the class displaying the puzzle about things it can't work out itself
+	 */
+	public interface Listener {
+		
+		/**
+		 * Called when a sound effect should be played
+		 * @param id - the id of the sound to be played
+		 */
+		void playSound(int id);
+		
+		/**
+		 * Called when a new puzzle has been created and the layout recalculated
+		 */
+		void onNewPuzzle();
+		
+		/**
+		 * Called once when the time runs out in timed mode
+		 * @param score - the amount of puzzles solved in the round
+		 */
+		void onRoundOver(int score);
+		
+		/**
+		 * Called when a block has been moved, so that it can be animated into place
+		 * @param block - the block that has moved
+		 * @param fromX - the x-coordinate the block was drawn at before it moved
+		 * @param fromY - the y-coordinate the block was drawn at before it moved
+		 */
+		void onBlockMoved(Block block, float fromX, float fromY);
+		
+		/**
+		 * Called once a block has been put down in a new place (at the end of a drag, or
+		 * on the second tap in manual select), before checking if the puzzle is solved
+		 */
+		void onBlockPlaced();
+		
+		/**
+		 * Called when the user solves a puzzle, before a new puzzle is created in timed mode
+		 */
+		void onPuzzleSolved();
+	}
+	
+	/**
+	 * Used when there isn't a listener, so that we don't have to check for null
+	 */
+	private static final Listener NO_LISTENER = new Listener() {
+		public void playSound(int id) {
+		}
+		public void onNewPuzzle() {
+		}
+		public void onRoundOver(int score) {
+		}
+		public void onBlockMoved(Block block, float fromX, float fromY) {
+		}
+		public void onBlockPlaced() {
+		}
+		public void onPuzzleSolved() {
+		}
+	};
+	
+	// The amount of puzzles remembered, so that the same puzzle isn't created twice
+	static final int REMEMBERED_PUZZLES = 4096;
+	
+	// How many times to try creating a puzzle that hasn't been seen before, before giving up
+	// (short boards only have a few different puzzles)
+	private static final int MAX_NEW_PUZZLE_ATTEMPTS = 8;
+	
+	// The length of a round in timed mode (seconds)
+	public static final int TIMED_MODE_LENGTH = 30;
+	
+	// The amount of time the user has left (in timed mode)
+	private int timeCounter = TIMED_MODE_LENGTH;
+	
+	// The amount of puzzles the user has solved (in timed mode)
+	private int solvedCounter = 0;
+	
+	// The difficulty of every puzzle in this session
+	private int difficulty;
+	
+	// The amount of colors every puzzle in this session uses
+	private int colorCount;
+	
+	// The seed the whole session was created from, or the seed it was last restarted from
+	// (so in timed mode, the seed of the current round)
+	private long sessionSeed;
+	
+	// The most squares per line the blocks are cut to once the session has been restarted,
+	// so that the puzzles don't depend on the screen, or 0 to fit the screen
+	private int fixedMaxSquaresPerLine;
+	
+	// Gives the seed of each new puzzle, so that a session can be recreated from its seed
+	private Random sessionRandom;
+	
+	// The coordinates where the user is 'dragging'
+	private float[] dragCoords = new float[2];
+	
+	// If the user does not want to use drag and drop, manualSelect is true
+	private boolean manualSelect;
+	
+	// Whether the puzzle is solved or not
+	private boolean isSolved = false;
+	
+	/*
+	 *  Whether we want to show the block being dragged in its exact dragging position
+	 *  (we do not want to show it if it has been moved to the board during dragging as
+	 *  this would mean the user will see the same block duplicated).
+	 */
+	private boolean showSelectedBlock = false;
+	
+	// Whether or not we are in the "30 Second Challenge" mode or not
+	private boolean isTimedMode;
+	
+	// Where everything is shown on the screen
+	private PuzzleLayout layout = new PuzzleLayout();
+	
+	// The size of the view (pixels) and the physical width of the screen (inches)
+	private int viewWidth, viewHeight, screenWidth;
+	
+	// The puzzle object that creates and controls the puzzle itself
+	private Puzzle puzzle;
+	
+	// The block that the user currently has selected
+	private Block selectedBlock;
+	
+	// The position that the user has scrolled to (pixels)
+	private float scrollPosition;
+	
+	// We need to know whether at any point during the touch, whether the block has been
+	// successfully moved
+	private boolean hasMoved = false;
+	
+	// Told about sounds and new puzzles
+	private Listener listener = NO_LISTENER;
+	
+	// The fingerprints of the puzzles created so far in this session
+	private BloomFilter seenPuzzles = new BloomFilter(REMEMBERED_PUZZLES);
+	
+	// The puzzle before the current one, which is regenerated as the next puzzle instead of
+	// creating a new one. The current puzzle can't be reused straight away, as the last
+	// snapshot of it may still be being drawn on another thread.
+	private Puzzle sparePuzzle;
+	
+	// Every position the selected block could be moved to (one bit per square), and the block
+	// they were found for. Found again whenever a different block is picked up or a block is moved.
+	private long[] dropTargets;
+	private Block dropTargetsFor;
+	
+	// Works out whether the blocks left in storage can still finish the board, kept up to
+	// date a block at a time as blocks are moved
+	private FeasibilityChecker feasibility = new FeasibilityChecker();
+	
+	/**
+	 * Constructor for the PuzzleController class
+	 * @param difficulty - the difficulty the puzzles should be (determines the length of the board)
+	 * @param colorCount - the amount of colors the puzzles should use
+	 * @param manualSelect - true if the user doesn't want to use drag-and-drop
+	 * @param timedMode - true if we are in a "30 Second Challenge"
+	 * @param sessionSeed - the seed that every puzzle in the session is created from
+	 */
+	public PuzzleController(int difficulty, int colorCount, boolean manualSelect, boolean timedMode, long sessionSeed) {
+		this.difficulty = difficulty;
+		this.colorCount = colorCount;
+		this.manualSelect = manualSelect;
+		this.isTimedMode = timedMode;
+		this.sessionSeed = sessionSeed;
+		this.sessionRandom = new Random(sessionSeed);
+		
+		// Every timed round is a restart, from a seed and line width that RunVerifier can
+		// create the round's puzzles again from (see getSessionSeed and getMaxSquaresPerLine).
+		// The line width is the smallest any screen uses, so it fits every screen.
+		if (timedMode) {
+			restart(sessionSeed, PuzzleLayout.DEFAULT_MAX_SQUARES);
+		}
+		else {
+			newPuzzle();
+		}
+	}
+	
+	/**
+	 * Sets the listener that is told about sounds, new puzzles and the end of rounds
+	 * @param listener - the listener, or null to stop listening
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener != null ? listener : NO_LISTENER;
+	}
+	
+	/**
+	 * Starts the session again from a new seed, with a fixed max squares per line, so the
+	 * puzzles are the same whatever the screen: e.g. so that both players in a race get the
+	 * same puzzles in the same order, or so that RunVerifier can create them again.
+	 * @param seed - the seed the session starts again from
+	 * @param maxSquaresPerLine - the max squares per line every puzzle uses
+	 */
+	public void restart(long seed, int maxSquaresPerLine) {
+		this.sessionSeed = seed;
+		this.sessionRandom = new Random(seed);
+		this.fixedMaxSquaresPerLine = maxSquaresPerLine;
+		this.seenPuzzles.clear();
+		this.timeCounter = TIMED_MODE_LENGTH;
+		this.solvedCounter = 0;
+		newPuzzle();
+	}
+	
+	/**
+	 * Creates a new puzzle and resets certain fields.
+	 */
+	public void newPuzzle() {
+		Tracer.begin("newPuzzle");
+		this.isSolved = false;
+		this.selectedBlock = null;
+		this.dropTargetsFor = null;
+		
+		// The spare puzzle is reused, so that a round allocates almost nothing
+		Puzzle next = nextPuzzle(sparePuzzle, difficulty, colorCount, getMaxSquaresPerLine(), sessionRandom, seenPuzzles);
+		sparePuzzle = puzzle;
+		puzzle = next;
+		feasibility.reset(puzzle);
+		
+		// Calculate how the puzzle should be displayed, unless the view hasn't been given a size
+		// yet (setSize does it then)
+		if (viewWidth > 0) {
+			layout.update(viewWidth, viewHeight, screenWidth, puzzle.getLength(), puzzle.getSectionLength());
+		}
+		
+		listener.onNewPuzzle();
+		Tracer.end();
+	}
+	
+	/**
+	 * Creates the next puzzle of a session: 6 times the difficulty long, with the next seed of
+	 * the session. If it's the same as one already created (other than its colors and the
+	 * order of the blocks), it tries again with the seed after that.
+	 * Anything that needs to create the same puzzles as the game must use this.
+	 * @param reuse - a puzzle to regenerate as the new one, or null to create a new puzzle
+	 * @param difficulty - the difficulty of the session
+	 * @param colorCount - the amount of colors the session uses
+	 * @param maxSquaresPerLine - the most squares on a line, which decides how long blocks can be
+	 * @param sessionRandom - gives the seed of each puzzle of the session
+	 * @param seenPuzzles - the fingerprints of the puzzles the session has already created,
+	 * 		which the new puzzle is added to
+	 * @return the new puzzle (reuse, if it wasn't null)
+	 */
+	static Puzzle nextPuzzle(Puzzle reuse, int difficulty, int colorCount, int maxSquaresPerLine, Random sessionRandom, BloomFilter seenPuzzles) {
+		Puzzle next = reuse;
+		long fingerprint = 0;
+		for (int attempt = 0; attempt < MAX_NEW_PUZZLE_ATTEMPTS; attempt++) {
+			if (next == null) {
+				next = new Puzzle(difficulty * 6, colorCount, maxSquaresPerLine, sessionRandom.nextLong());
+			}
+			else {
+				next.regenerate(difficulty * 6, colorCount, maxSquaresPerLine, sessionRandom.nextLong());
+			}
+			fingerprint = next.getFingerprint();
+			if (!seenPuzzles.mightContain(fingerprint)) {
+				break;
+			}
+		}
+		seenPuzzles.add(fingerprint);
+		return next;
+	}
+	
+	/**
+	 * Called whenever the size of the view changes
+	 * @param w - the new width (pixels)
+	 * @param h - the new height (pixels)
+	 * @param screenWidth - the physical width of the screen (inches)
+	 */
+	public void setSize(int w, int h, int screenWidth) {
+		this.viewWidth = w;
+		this.viewHeight = h;
+		this.screenWidth = screenWidth;
+		layout.update(w, h, screenWidth, puzzle.getLength(), puzzle.getSectionLength());
+	}
+	
+	/**
+	 * Called while the user zooms and pans the board with two fingers
+	 * @param scale - how much to zoom in by (below 1 to zoom out)
+	 * @param focusX - the x-coordinate to zoom around
+	 * @param focusY - the y-coordinate to zoom around
+	 * @param dx - how far to move the board right (pixels)
+	 * @param dy - how far to move the board down (pixels)
+	 */
+	public void zoomBoard(float scale, float focusX, float focusY, float dx, float dy) {
+		layout.zoomBoard(scale, focusX, focusY, dx, dy);
+	}
+	
+	/**
+	 * Zooms and pans the board to a place it has been before, e.g. when replaying a session
+	 * @param zoom - how far the board is zoomed in (1 to show the whole width of the board)
+	 * @param panX - how far right the board is panned (pixels)
+	 * @param panY - how far down the board is panned (pixels)
+	 */
+	public void setViewport(float zoom, float panX, float panY) {
+		layout.setViewport(zoom, panX, panY);
+	}
+	
+	/**
+	 * Called once every second in timed mode
+	 */
+	public void tick() {
+		timeCounter--;
+		if (isTimedMode && timeCounter == 0) {
+			listener.onRoundOver(solvedCounter);
+		}
+	}
+	
+	/**
+	 * Called whenever their is a change in how the user is touching the screen
+	 * @param action - the action of the touch event
+	 * @param x - the x coordinate of the touch event
+	 * @param y - the y coordinate of the touch event
+	 */
+	public void onTouch(int action, float x, float y) {
+		
+		// If we are in the storage area without a  but aren't touching the block, we are trying to scroll
+		if (y > layout.storageTop &&
+				/*
+				 * We must either be in manual mode (where the user can scroll even if a block is selected)
+				 * OR have no block selected (as in drag and drop mode, we do not want to scroll when
+				 * dragging a block).
+				 */
+				(this.manualSelect || selectedBlock == null)
+				&& this.findBlock(x, y) == null) {
+			scroll(action, y);
+		}
+		
+		// If we are in timed mode and out of time, check if the user has touched the retry button
+		// (if statements separated for simplicity)
+		if (isTimedMode && timeCounter <= 0) {
+			// The next round starts from a seed that follows from this round's, so that a
+			// replay of the session plays the same rounds
+			if (layout.isOnRetryButton(x, y)) {
+				restart(Bits.mix(sessionSeed), getMaxSquaresPerLine());
+			}
+		}
+		// If the puzzle is solved and we tap in the storage area, start a new puzzle
+		else if (isSolved && x > layout.left && x < layout.right && y > layout.storageTop && y < layout.bottom) {
+			newPuzzle();
+		}
+		// If the puzzle hasn't been solved and we are using manual select, pass the event to the appropriate method
+		else if (manualSelect) {
+			onTouchManualSelectMode(action, x, y);
+		}
+		// If the puzzle hasn't been solved and we are using drag-and-drop, pass the event to the appropriate method
+		else {
+			onTouchDragAndDropMode(action, x, y);
+		}
+	}
+	
+	/**
+	 * Called whenever the user is trying to scroll
+	 * @param action - the action of the touch event
+	 * @param y - the y coordinate of the touch event
+	 */
+	private void scroll(int action, float y) {
+		
+		// If the user has just touched the screen, record this location as the starting location
+		// for the scroll, so that we have something to compare to when the touch moves.
+		if (action == MotionEvent.ACTION_DOWN) {
+			scrollPosition = y;
+		}
+		
+		// If the touch is moving
+		else if (action == MotionEvent.ACTION_MOVE) {
+			// Find the amount that the touch has moved by
+			float amountMoved = y - scrollPosition;
+			// If we're trying to scroll down
+			if (amountMoved < 0) {
+				// Check that we are not moving beyond bottom of blocks
+				if (layout.storageTopBlock + amountMoved + (layout.height+10)*puzzle.getStorageSize() >= layout.bottom-10) {
+					layout.storageTopBlock += amountMoved;
+				}
+			}
+			// If we are trying to scroll up,
+			else {
+				// Check that we are not moving beyond the top of the blocks
+				if (layout.storageTopBlock + amountMoved <= layout.storageTop) {
+					layout.storageTopBlock += amountMoved;
+				}
+			}
+			// Change the scroll position to the place being touched
+			scrollPosition = y;
+		}
+	}
+	
+	/**
+	 * Selects, deselects, and moves blocks depending on the coordinates of the user's touch.
+	 * Uses a tap to select, tap again to move approach.
+	 * @param action - the action of the touch event
+	 * @param x - the x coordinate of the touch event
+	 * @param y - the y coordinate of the touch event
+	 */
+	private void onTouchManualSelectMode(int action, float x, float y) {
+		// Make sure the event is the user touching the screen
+		if (action == MotionEvent.ACTION_DOWN) {
+			
+			// If we haven't yet selected a block, and the user has tapped a block, select this block
+			if (selectedBlock == null) {
+				if (findBlock(x, y) != null) {
+					selectedBlock = findBlock(x,y);
+				}
+			}
+			// If a block is already selected
+			else {
+				// If where the user has touched doesn't already have a block in it, then try
+				// moving the selected block here
+				if (findBlock(x, y) == null) {
+					// If the block is moved, then deselect the block
+					if (moveBlock(selectedBlock, x, y)) {
+						selectedBlock = null;
+						onBlockMoved();
+					}
+				}
+				// If the user has touched a different block, make this the selected block instead
+				else {
+					selectedBlock = findBlock(x,y);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Allows the user to move blocks into positions by dragging them.
+	 * @param action - the action of the touch event
+	 * @param x - the x coordinate of the touch event
+	 * @param y - the y coordinate of the touch event
+	 */
+	private void onTouchDragAndDropMode(int action, float x, float y) {
+		
+		// Check what touch event was performed
+		switch (action) {
+		case MotionEvent.ACTION_DOWN:
+			// Select the block that has been tapped
+			// Which block are we trying to find?
+			if (findBlock(x, y) != null) {
+				selectedBlock = findBlock(x,y);
+			}
+		case MotionEvent.ACTION_MOVE:
+			// If a block has been selected
+			if (selectedBlock != null) {
+				// Get the coordinates we want to use to drag the block (the centre of the left-most square)
+				dragCoords[0] = x - layout.width/2;
+				dragCoords[1] = y - layout.height/2;
+					/*
+					 * Try moving the block to the position we're moving over - this creates the dynamic
+					 * placing effect where the block automatically fits into where the user is pressing.
+					 */
+					if (this.moveBlock(selectedBlock, x, y)) {
+						// make the 'artificial' block that we're dragging disappear
+						showSelectedBlock = false;
+						hasMoved = true;
+					}
+					else {
+						// Make the block that we're dragging appear again, so the user can move it to any
+						// part of the screen
+						showSelectedBlock = true;
+					}
+			}
+			break;
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_POINTER_UP:
+			// If the block has been moved
+			if (hasMoved) {
+				hasMoved = false;
+				onBlockMoved();
+			}
+			// Deselect the block that was being moved
+			selectedBlock = null;
+			break;
+		}
+	}
+	
+	/**
+	 * Called once a block has been put down in a new place, to check whether the puzzle
+	 * has been solved and play the right sound.
+	 */
+	private void onBlockMoved() {
+		listener.onBlockPlaced();
+		
+		// If the puzzle is solved, set isSolved to true and play a sound
+		if (puzzle.isSolved()) {
+			isSolved = true;
+			listener.playSound(R.raw.puzzle_solved);
+			listener.onPuzzleSolved();
+			// If we are in timed mode, immediately create a new puzzle
+			if (isTimedMode) {
+				solvedCounter++;
+				newPuzzle();
+			}
+		}
+		// If the board is full but incorrect, play the puzzle_wrong sound
+		else if (this.puzzle.getStorageSize() == 0) {
+			listener.playSound(R.raw.puzzle_wrong);
+		}
+		// Otherwise, just play the block_placed sound
+		else {
+			listener.playSound(R.raw.block_placed);
+		}
+	}
+	
+	/**
+	 * Finds a block given coordinates
+	 * @param xfloat - the x coordinate
+	 * @param yfloat - the y coordinate
+	 * @return the block at the coordinates
+	 */
+	private Block findBlock(float xfloat, float yfloat) {
+		
+		// Turn the floats into ints
+		int x = (int) xfloat;
+		int y = (int) yfloat;
+		
+		// The position of the block on the board OR in the storage area
+		int position;
+		
+		// If we are within the area of the board
+		if (y < layout.storageTop) {
+			// Get the position of the block on the board
+			position = layout.findBoardPosition(x, y);
+			// If the block doesn't have a position on the board, return null
+			if (position == -1) {
+				return null;
+			}
+			// If the block is on the board, return the block
+			else {
+				return puzzle.getBlockFromBoard(position);
+			}
+		}
+		// If we are within the area of the storage area
+		else {
+			// Get the position of the block in storage
+			position = layout.findStoragePosition(y, puzzle.getStorageSize());
+			/*
+			 * Check that:
+			 * 		we are looking in an appropriate position
+			 * 		there is a block at this position
+			 * 		the coordinates are within the x-range of the block
+			 */
+			if (position == -1 ||
+					puzzle.getBlockFromStorage(position) == null ||
+					x > layout.left + 10 + puzzle.getBlockFromStorage(position).getSize()*layout.width) {
+				return null;
+			}
+			// If the block is in storage, return the block
+			else {
+				return puzzle.getBlockFromStorage(position);
+			}
+		}
+	}
+	
+	/**
+	 * Moves a block from its original position to the position found from coordinates
+	 * @param block - the block being moved
+	 * @param x - the x-coordinate of the position the block should be moved to
+	 * @param y - the y-coordinate of the position the block should be moved to
+	 * @return true if the block has been successfully moved, false otherwise
+	 */
+	private boolean moveBlock(Block block, float x, float y) {
+		
+		int boardPosition = layout.findBoardPosition(x, y);
+		boolean onBoard = boardPosition >= 0 && boardPosition < puzzle.getLength();
+		
+		// Where the block is drawn before it moves, so that it can be animated from there
+		float fromX, fromY;
+		if (showSelectedBlock && block == selectedBlock) {
+			fromX = dragCoords[0];
+			fromY = dragCoords[1];
+		}
+		else if (block.getBoardPosition() != -1) {
+			fromX = layout.boardX(block.getBoardPosition());
+			fromY = layout.boardY(block.getBoardPosition());
+		}
+		else {
+			fromX = layout.storageX();
+			fromY = layout.storageY(puzzle.getBlockStoragePosition(block));
+		}
+		
+		// If the block is already there, there's nothing to move
+		if (onBoard && boardPosition == block.getBoardPosition()) {
+			return true;
+		}
+		// If the block is being moved to the board and there is space, move it there
+		else if (onBoard && Bits.get(findDropTargets(block), boardPosition)) {
+			int from = block.getBoardPosition();
+			puzzle.addBlockToBoard(block, boardPosition);
+			feasibility.blockMoved(block, from);
+			dropTargetsFor = null;
+			listener.onBlockMoved(block, fromX, fromY);
+			return true;
+		}
+		// If the block is being moved to the storage area, move it there,
+		// checking that it's not already in the storage area
+		else if (y > layout.storageTop && block.getBoardPosition() != -1) {
+			int from = block.getBoardPosition();
+			puzzle.removeBlockFromBoard(block);
+			feasibility.blockMoved(block, from);
+			dropTargetsFor = null;
+			listener.onBlockMoved(block, fromX, fromY);
+			return true;
+		}
+		// If the user has tapped a random other part of the screen, or if there was no space,
+		// return false
+		else {
+			return false;
+		}
+	}
+	
+	/**
+	 * @return the puzzle currently being played
+	 */
+	public Puzzle getPuzzle() {
+		return this.puzzle;
+	}
+	
+	/**
+	 * @return where everything is shown on the screen
+	 */
+	public PuzzleLayout getLayout() {
+		return this.layout;
+	}
+	
+	/**
+	 * @return the block that the user currently has selected, or null
+	 */
+	public Block getSelectedBlock() {
+		return this.selectedBlock;
+	}
+	
+	/**
+	 * Finds every position a block could be moved to, reusing the last result if it was for
+	 * the same block and nothing has moved since.
+	 * @param block - the block being moved
+	 * @return one bit for each square of the board, set if the block could start there
+	 */
+	private long[] findDropTargets(Block block) {
+		if (dropTargetsFor != block) {
+			dropTargets = puzzle.findDropTargets(block, dropTargets);
+			dropTargetsFor = block;
+		}
+		return dropTargets;
+	}
+	
+	/**
+	 * @return every position the selected block could be moved to (one bit for each square
+	 * 		of the board), or null if no block is selected
+	 */
+	public long[] getDropTargets() {
+		if (selectedBlock == null) {
+			return null;
+		}
+		return findDropTargets(selectedBlock);
+	}
+	
+	/**
+	 * @return true if the selected block should be drawn where the user is dragging it
+	 */
+	public boolean isShowingSelectedBlock() {
+		return this.selectedBlock != null && this.showSelectedBlock;
+	}
+	
+	/**
+	 * @return the coordinates where the user is dragging the selected block
+	 */
+	public float[] getDragCoords() {
+		return this.dragCoords;
+	}
+	
+	/**
+	 * @return true if the current puzzle has been solved
+	 */
+	public boolean isSolved() {
+		return this.isSolved;
+	}
+	
+	/**
+	 * @return true if the blocks left in storage certainly can't finish the board as it is,
+	 * 		so at least one block on the board will have to be moved (see FeasibilityChecker)
+	 */
+	public boolean isDeadEnd() {
+		return !this.isSolved && feasibility.isDeadEnd();
+	}
+	
+	/**
+	 * @return true if we are in a "30 Second Challenge"
+	 */
+	public boolean isTimedMode() {
+		return this.isTimedMode;
+	}
+	
+	/**
+	 * @return true if the user is using manual select rather than drag-and-drop
+	 */
+	public boolean isManualSelect() {
+		return this.manualSelect;
+	}
+	
+	/**
+	 * @return the amount of time the user has left in timed mode (seconds)
+	 */
+	public int getTimeCounter() {
+		return this.timeCounter;
+	}
+	
+	/**
+	 * @return the amount of puzzles the user has solved in timed mode
+	 */
+	public int getSolvedCounter() {
+		return this.solvedCounter;
+	}
+	
+	/**
+	 * @return the difficulty of the puzzles in this session
+	 */
+	public int getDifficulty() {
+		return this.difficulty;
+	}
+	
+	/**
+	 * @return the amount of colors the puzzles in this session use
+	 */
+	public int getColorCount() {
+		return this.colorCount;
+	}
+	
+	/**
+	 * @return the seed that every puzzle in the session is created from, or since the session
+	 * 		was last restarted (in timed mode, the seed of the current round)
+	 */
+	public long getSessionSeed() {
+		return this.sessionSeed;
+	}
+	
+	/**
+	 * @return the most squares per line that the session's blocks are cut to
+	 */
+	public int getMaxSquaresPerLine() {
+		return fixedMaxSquaresPerLine > 0 ? fixedMaxSquaresPerLine : PuzzleLayout.maxSquaresPerLine(screenWidth);
+	}
+}
@@ -0,0 +1,361 @@
+package uk.singlekey.repeata_freak;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks the puzzle generator on a normal JVM, by creating huge amounts of puzzles on every
+ * core from random lengths, color counts, line widths and seeds, and checking that each one
+ * keeps the rules the rest of the game relies on:
+ * 		the section length divides the length of the board
+ * 		no two squares next to each other in a section are the same color
+ * 		every block is between 2 and the limits in getRandomJ long (the last block, which
+ * 		takes whatever is left of the board, is between 1 and 3), and fits on a line
+ * 		the blocks, in solution order, cover the board exactly with the section repeated
+ * 		every block is in storage exactly once
+ * 		putting every block back where it came from solves the puzzle
+ * 		a puzzle regenerated in place is the same as a new one from the same seed
+ *
+ * When a puzzle breaks a rule, it is shrunk to the smallest length, fewest colors and
+ * smallest seed that still break the same rule, which is much easier to debug.
+ *
+ * Usage: PuzzleFuzzer [-cases n] [-threads n] [-seed n] [-maxlength n]
+ *
+ * @author Samuel O'Sullivan
+ */
+public class PuzzleFuzzer {
+	
+	// The line widths tried, as the most squares allowed on a line
+	private static final int[] MAX_SQUARES = { 12, 16, 20, 24, 32 };
+	
+	// How often a regenerated puzzle is compared with a new one (every this many cases)
+	private static final int FRESH_CHECK_INTERVAL = 64;
+	
+	// Small seeds tried when shrinking
+	private static final int SHRINK_SEEDS = 64;
+	
+	// The settings of the run
+	private long cases = 1000000;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long seed = 1;
+	private int maxLength = 2000;
+	
+	// The amount of cases checked so far, across every thread
+	private AtomicLong checked = new AtomicLong();
+	
+	// The first case found breaking a rule, or null if none has been
+	private AtomicReference<Case> failure = new AtomicReference<Case>();
+	
+	/**
+	 * The settings a puzzle is created from, and the rule it broke (if it did)
+	 */
+	private static class Case {
+		final int length;
+		final int colors;
+		final int maxSquares;
+		final long seed;
+		
+		// The rule the puzzle broke, or null
+		String broken;
+		
+		Case(int length, int colors, int maxSquares, long seed) {
+			this.length = length;
+			this.colors = colors;
+			this.maxSquares = maxSquares;
+			this.seed = seed;
+		}
+		
+		@Override
+		public String toString() {
+			return "length " + length + ", " + colors + " colors, max squares " + maxSquares + ", seed " + seed;
+		}
+	}
+	
+	/**
+	 * Checks cases one after another, reusing a single puzzle like the game does
+	 */
+	private class Worker implements Runnable {
+		
+		// Chooses the settings of each case
+		private Random random;
+		
+		// The amount of cases to check
+		private long count;
+		
+		// The puzzle that is regenerated for every case
+		private Puzzle puzzle;
+		
+		Worker(long seed, long count) {
+			this.random = new Random(seed);
+			this.count = count;
+		}
+		
+		public void run() {
+			for (long n = 0; n < count && failure.get() == null; n++) {
+				Case c = randomCase(random);
+				if (puzzle == null) {
+					puzzle = new Puzzle(c.length, c.colors, c.maxSquares, c.seed);
+				}
+				else {
+					puzzle.regenerate(c.length, c.colors, c.maxSquares, c.seed);
+				}
+				// Compared first, as checking the rules changes the order of the blocks in storage
+				if (n % FRESH_CHECK_INTERVAL == 0) {
+					c.broken = checkFresh(puzzle, c);
+				}
+				if (c.broken == null) {
+					c.broken = check(puzzle, c);
+				}
+				if (c.broken != null) {
+					failure.compareAndSet(null, c);
+				}
+				checked.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Chooses random settings for a puzzle. Lengths are spread evenly over each power of two,
+	 * so that short boards are tried as often as long ones.
+	 * @param random - where the choices come from
+	 * @return the settings
+	 */
+	private Case randomCase(Random random) {
+		int length;
+		do {
+			int bits = 2 + random.nextInt(32 - Integer.numberOfLeadingZeros(maxLength) - 1);
+			length = (1 << bits) + random.nextInt(1 << bits);
+		} while (length > maxLength || DivisorTable.isPrime(length));
+		int colors = 2 + random.nextInt(Puzzle.MAX_COLORS - 1);
+		int maxSquares = MAX_SQUARES[random.nextInt(MAX_SQUARES.length)];
+		return new Case(length, colors, maxSquares, random.nextLong());
+	}
+	
+	/**
+	 * Checks that a newly created puzzle keeps every rule. The blocks are put back in storage
+	 * afterwards, but not in the same order.
+	 * @param puzzle - the puzzle, with every block still in storage
+	 * @param c - the settings it was created from
+	 * @return the rule it broke, or null if it didn't break any
+	 */
+	static String check(Puzzle puzzle, Case c) {
+		int length = puzzle.getLength();
+		int sectionLength = puzzle.getSectionLength();
+		if (length != c.length || puzzle.getColorCount() != c.colors) {
+			return "puzzle has the wrong length or colors";
+		}
+		if (sectionLength < 2 || length % sectionLength != 0) {
+			return "section length doesn't divide length";
+		}
+		
+		int[] section = puzzle.getSection();
+		for (int i = 0; i < sectionLength; i++) {
+			if (section[i] < 0 || section[i] >= c.colors) {
+				return "section color out of range";
+			}
+			if (i > 0 && section[i] == section[i-1]) {
+				return "adjacent section colors are equal";
+			}
+		}
+		
+		// The limits that getRandomJ puts on every block but the last
+		int maxBlockSize = sectionLength * PuzzleLayout.sectionsPerLine(length, sectionLength, c.maxSquares);
+		int maxSize = Math.min(length/2, maxBlockSize);
+		int blockCount = puzzle.getBlockCount();
+		int position = 0;
+		for (int b = 0; b < blockCount; b++) {
+			Block block = puzzle.getBlock(b);
+			int size = block.getSize();
+			boolean last = b == blockCount - 1 && position >= length - 3;
+			if (last ? size < 1 || size > 3 : size < 2 || size > maxSize) {
+				return "block size outside getRandomJ's bounds";
+			}
+			if (size > maxBlockSize) {
+				return "block longer than a line";
+			}
+			for (int i = 0; i < size; i++) {
+				if (position + i >= length || block.getSquare(i) != section[(position + i) % sectionLength]) {
+					return "blocks don't tile the board";
+				}
+			}
+			position += size;
+		}
+		if (position != length) {
+			return "blocks don't tile the board";
+		}
+		
+		// Every block in storage, once each
+		if (puzzle.getStorageSize() != blockCount) {
+			return "storage doesn't hold every block";
+		}
+		for (int b = 0; b < blockCount; b++) {
+			if (puzzle.getBlockStoragePosition(puzzle.getBlock(b)) == -1) {
+				return "storage doesn't hold every block";
+			}
+		}
+		
+		// Put every block back where it came from, then take them off again
+		if (puzzle.isSolved()) {
+			return "puzzle solved before any block is placed";
+		}
+		position = 0;
+		for (int b = 0; b < blockCount; b++) {
+			Block block = puzzle.getBlock(b);
+			if (!puzzle.isSpace(block, position)) {
+				return "no space for a block where it came from";
+			}
+			puzzle.addBlockToBoard(block, position);
+			position += block.getSize();
+		}
+		boolean solved = puzzle.isSolved();
+		for (int b = 0; b < blockCount; b++) {
+			puzzle.removeBlockFromBoard(puzzle.getBlock(b));
+		}
+		if (!solved) {
+			return "reassembled board isn't solved";
+		}
+		return null;
+	}
+	
+	/**
+	 * Checks that a regenerated puzzle is the same as a new puzzle from the same settings
+	 * @param puzzle - the regenerated puzzle, before any block has been moved
+	 * @param c - the settings it was created from
+	 * @return the rule it broke, or null if it didn't break any
+	 */
+	static String checkFresh(Puzzle puzzle, Case c) {
+		Puzzle fresh = new Puzzle(c.length, c.colors, c.maxSquares, c.seed);
+		if (fresh.getFingerprint() != puzzle.getFingerprint()) {
+			return "regenerated puzzle differs from a new one";
+		}
+		for (int i = 0; i < fresh.getStorageSize(); i++) {
+			if (fresh.getBlockFromStorage(i).getColorHash() != puzzle.getBlockFromStorage(i).getColorHash()) {
+				return "regenerated puzzle differs from a new one";
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Checks a single case on a new puzzle
+	 * @param c - the settings to create the puzzle from
+	 * @return the rule it broke, or null if it didn't break any
+	 */
+	private static String checkCase(Case c) {
+		Puzzle reused = new Puzzle(4, 2, c.maxSquares, 0);
+		reused.regenerate(c.length, c.colors, c.maxSquares, c.seed);
+		String broken = checkFresh(reused, c);
+		if (broken == null) {
+			broken = check(reused, c);
+		}
+		return broken;
+	}
+	
+	/**
+	 * Makes a case that broke a rule smaller, one step at a time, for as long as the smaller
+	 * case still breaks the same rule: first shorter boards, then fewer colors, narrower
+	 * lines and smaller seeds.
+	 * @param c - the case that broke a rule
+	 * @return the smallest case found that breaks the same rule
+	 */
+	static Case shrink(Case c) {
+		boolean shrunk = true;
+		while (shrunk) {
+			shrunk = false;
+			ArrayList<Case> smaller = new ArrayList<Case>();
+			for (int length = 4; length < c.length; length++) {
+				if (!DivisorTable.isPrime(length)) {
+					smaller.add(new Case(length, c.colors, c.maxSquares, c.seed));
+				}
+			}
+			for (int colors = 2; colors < c.colors; colors++) {
+				smaller.add(new Case(c.length, colors, c.maxSquares, c.seed));
+			}
+			for (int maxSquares : MAX_SQUARES) {
+				if (maxSquares < c.maxSquares) {
+					smaller.add(new Case(c.length, c.colors, maxSquares, c.seed));
+				}
+			}
+			for (long s = 0; s < SHRINK_SEEDS && Math.abs(s) < Math.abs(c.seed); s++) {
+				smaller.add(new Case(c.length, c.colors, c.maxSquares, s));
+			}
+			if (Math.abs(c.seed) >= SHRINK_SEEDS) {
+				smaller.add(new Case(c.length, c.colors, c.maxSquares, c.seed / 2));
+			}
+			
+			for (Case candidate : smaller) {
+				if (c.broken.equals(checkCase(candidate))) {
+					candidate.broken = c.broken;
+					c = candidate;
+					shrunk = true;
+					break;
+				}
+			}
+		}
+		return c;
+	}
+	
+	/**
+	 * Checks every case, shrinking the first that breaks a rule
+	 * @return true if every case kept every rule
+	 */
+	public boolean run() throws InterruptedException {
+		System.out.println(cases + " cases on " + threads + " threads, lengths up to " + maxLength + ", seed " + seed);
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		Random seeds = new Random(seed);
+		long start = System.nanoTime();
+		for (int i = 0; i < threads; i++) {
+			pool.execute(new Worker(seeds.nextLong(), cases / threads + (i < cases % threads ? 1 : 0)));
+		}
+		pool.shutdown();
+		while (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+			System.out.println("  " + checked.get() + " cases checked");
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%d cases checked in %.1fs (%.0f/s)", checked.get(), elapsed, checked.get() / elapsed));
+		
+		Case c = failure.get();
+		if (c == null) {
+			System.out.println("Every puzzle kept every rule");
+			return true;
+		}
+		System.out.println("FAILED: " + c.broken + " (" + c + ")");
+		Case minimal = shrink(c);
+		System.out.println("  shrunk to: " + minimal);
+		return false;
+	}
+	
+	/**
+	 * Reads the settings of the run from the arguments and runs it
+	 * @param args - see the class description
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		PuzzleFuzzer fuzzer = new PuzzleFuzzer();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i+1];
+			if (args[i].equals("-cases")) {
+				fuzzer.cases = Long.parseLong(value);
+			}
+			else if (args[i].equals("-threads")) {
+				fuzzer.threads = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-seed")) {
+				fuzzer.seed = Long.parseLong(value);
+			}
+			else if (args[i].equals("-maxlength")) {
+				fuzzer.maxLength = Math.max(4, Integer.parseInt(value));
+			}
+			else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		System.exit(fuzzer.run() ? 0 : 1);
+	}
+}
@@ -0,0 +1,383 @@
+package uk.singlekey.repeata_freak;
+
+/**
+ * Works out where everything in a puzzle is displayed on the screen, and which part of the
+ * puzzle a pair of coordinates is pointing at.
+ * This class doesn't use anything from android, so that touch input can be worked out
+ * (and replayed) without a device.
+ *
+ * The fields are read directly by the classes that draw the puzzle, in the same way as the
+ * fields of android's Rect.
+ *
+ * The board is shown through a viewport, which the user can zoom into and pan around, so
+ * that boards too big to fit the screen are still playable. At a zoom of 1 the lines of the
+ * board fill the width of the view. If the whole board would push the storage area off the
+ * screen, the viewport is cut short and the rest of the board is reached by panning. The
+ * storage area is never zoomed, so blocks in storage always fit on the screen.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class PuzzleLayout {
+	
+	// The most squares allowed on a single line on a small screen
+	public static final int DEFAULT_MAX_SQUARES = 12;
+	
+	// The most of the view that the board can take up, leaving the rest for the storage area
+	private static final float MAX_BOARD_SHARE = 2/3f;
+	
+	// The fewest squares that can fill the width of the view when zoomed in all the way
+	private static final int MIN_SQUARES_ACROSS = 6;
+	
+	// The amount of tiles width the puzzle should be
+	int length;
+	
+	// Measurements describing how the puzzle will be displayed and how many sections it has.
+	// Almost all other measurements (non-pixel related) can be derived from these three fields.
+	int sectionLength, sectionsPerLine, noOfLines;
+	
+	// width and height of a single cell (in pixels), when not zoomed. Blocks in storage
+	// and blocks being dragged are always this size.
+	int width, height;
+	
+	// How far the board is zoomed in (1 when not zoomed), and the size this makes each
+	// square of the board (pixels)
+	float zoom = 1;
+	int squareSize;
+	
+	// How far the board has been panned from its top left corner (pixels)
+	float panX, panY;
+	
+	// Where the bottom of the viewport the board is shown through is (pixels)
+	int boardBottom;
+	
+	// the dimensions of the entire puzzle (pixels)
+	int top, bottom, left, right;
+	
+	// Where the top of the storage area is positioned (pixels).
+	// This stays constant throughout the puzzle, as long as the screen size doesn't change.
+	int storageTop;
+	
+	// Where the first block in the storage area is positioned.
+	// This changes as the user 'scrolls' the storage area.
+	int storageTopBlock;
+	
+	/**
+	 * Creates a layout that hasn't been calculated yet
+	 */
+	public PuzzleLayout() {
+	}
+	
+	/**
+	 * Creates a copy of a layout, e.g. so that it can be drawn on another thread while the
+	 * original changes. A field added to the layout must be added here and to matches().
+	 * @param other - the layout to copy
+	 */
+	public PuzzleLayout(PuzzleLayout other) {
+		this.length = other.length;
+		this.sectionLength = other.sectionLength;
+		this.sectionsPerLine = other.sectionsPerLine;
+		this.noOfLines = other.noOfLines;
+		this.width = other.width;
+		this.height = other.height;
+		this.top = other.top;
+		this.bottom = other.bottom;
+		this.left = other.left;
+		this.right = other.right;
+		this.storageTop = other.storageTop;
+		this.storageTopBlock = other.storageTopBlock;
+		this.zoom = other.zoom;
+		this.squareSize = other.squareSize;
+		this.panX = other.panX;
+		this.panY = other.panY;
+		this.boardBottom = other.boardBottom;
+	}
+	
+	/**
+	 * @param other - another layout
+	 * @return true if every field of the layouts is the same, so one can be drawn in place
+	 * 		of the other
+	 */
+	public boolean matches(PuzzleLayout other) {
+		return length == other.length && sectionLength == other.sectionLength && sectionsPerLine == other.sectionsPerLine
+				&& noOfLines == other.noOfLines && width == other.width && height == other.height
+				&& top == other.top && bottom == other.bottom && left == other.left && right == other.right
+				&& storageTop == other.storageTop && storageTopBlock == other.storageTopBlock
+				&& zoom == other.zoom && squareSize == other.squareSize && panX == other.panX && panY == other.panY
+				&& boardBottom == other.boardBottom;
+	}
+	
+	/**
+	 * Calculates how the puzzle should be displayed for a screen size.
+	 * The way that the puzzle is shown depends on both the pixel density and the physical
+	 * screen size.
+	 * @param w - the width of the view (pixels)
+	 * @param h - the height of the view (pixels)
+	 * @param screenWidth - the physical width of the screen (inches)
+	 * @param length - the length of the puzzle being displayed
+	 * @param sectionLength - the section length of the puzzle being displayed
+	 */
+	public void update(int w, int h, int screenWidth, int length, int sectionLength) {
+		this.length = length;
+		this.sectionLength = sectionLength;
+		
+		// Simple dimensions of the entire puzzle
+		top = 30;
+		left = 10;
+		right = w-10;
+		bottom = h-10;
+		
+		// Decide how many sections to draw on each line, depending on the size of the screen,
+		// ensuring each line has an equal amount of sections
+		sectionsPerLine = sectionsPerLine(length, sectionLength, maxSquaresPerLine(screenWidth));
+		
+		// Width and height of a single cell
+		width = (w-20) / (sectionLength*sectionsPerLine);
+		height = width;
+		
+		// Setting up the remaining fields that are based on screen size.
+		this.noOfLines = (length/sectionLength)/sectionsPerLine;
+		
+		// Show the whole board if it leaves room for the storage area, otherwise as many
+		// lines as will fit (always at least one)
+		int maxBoardHeight = Math.max(height+10, (int) ((bottom-top) * MAX_BOARD_SHARE));
+		this.boardBottom = top + Math.min(noOfLines*(height+10), maxBoardHeight);
+		this.storageTop = boardBottom + 10;
+		this.storageTopBlock = storageTop;
+		
+		// Start with the whole width of the board in view
+		setViewport(1, 0, 0);
+	}
+	
+	/**
+	 * Zooms and pans the board to a new place, keeping the board filling the viewport
+	 * @param zoom - how far to zoom in (1 to show the whole width of the board)
+	 * @param panX - how far right to pan from the left of the board (pixels)
+	 * @param panY - how far down to pan from the top of the board (pixels)
+	 */
+	public void setViewport(float zoom, float panX, float panY) {
+		this.zoom = Math.max(1, Math.min(zoom, getMaxZoom()));
+		this.squareSize = Math.max(1, (int) (width * this.zoom));
+		
+		int lineLength = sectionLength*sectionsPerLine;
+		int maxPanX = Math.max(0, lineLength*squareSize - (right-left));
+		int maxPanY = Math.max(0, noOfLines*(squareSize+10) - (boardBottom-top));
+		this.panX = Math.max(0, Math.min(panX, maxPanX));
+		this.panY = Math.max(0, Math.min(panY, maxPanY));
+	}
+	
+	/**
+	 * Zooms the board around a point, so that the part of the board under the point stays
+	 * under it, then pans it
+	 * @param scale - how much to zoom in by (below 1 to zoom out)
+	 * @param focusX - the x-coordinate to zoom around
+	 * @param focusY - the y-coordinate to zoom around
+	 * @param dx - how far to move the board right (pixels)
+	 * @param dy - how far to move the board down (pixels)
+	 */
+	public void zoomBoard(float scale, float focusX, float focusY, float dx, float dy) {
+		int oldSize = squareSize;
+		float newZoom = Math.max(1, Math.min(zoom * scale, getMaxZoom()));
+		int newSize = Math.max(1, (int) (width * newZoom));
+		
+		// Where the focus is on the whole board, before and after zooming
+		float boardX = (focusX - left + panX) * newSize / oldSize;
+		float boardY = (focusY - top + panY) * (newSize+10) / (oldSize+10);
+		setViewport(newZoom, boardX - (focusX - left) - dx, boardY - (focusY - top) - dy);
+	}
+	
+	/**
+	 * @return the furthest the board can be zoomed in, so that MIN_SQUARES_ACROSS squares
+	 * 		fill the width of the view
+	 */
+	public float getMaxZoom() {
+		if (width == 0) {
+			return 1;
+		}
+		return Math.max(1, (float) (right-left) / MIN_SQUARES_ACROSS / width);
+	}
+	
+	/**
+	 * @return the first line of the board that can be seen in the viewport
+	 */
+	public int firstVisibleLine() {
+		return Math.min(noOfLines, (int) panY / (squareSize+10));
+	}
+	
+	/**
+	 * @return the line after the last line of the board that can be seen in the viewport
+	 */
+	public int endVisibleLine() {
+		return Math.min(noOfLines, ((int) panY + boardBottom - top) / (squareSize+10) + 1);
+	}
+	
+	/**
+	 * @return the first position along a line of the board that can be seen in the viewport
+	 */
+	public int firstVisibleColumn() {
+		return Math.min(sectionLength*sectionsPerLine, (int) panX / squareSize);
+	}
+	
+	/**
+	 * @return the position along a line after the last one that can be seen in the viewport
+	 */
+	public int endVisibleColumn() {
+		return Math.min(sectionLength*sectionsPerLine, ((int) panX + right - left) / squareSize + 1);
+	}
+	
+	/**
+	 * Finds the maximum amount of squares that should be allowed on 1 line, depending
+	 * on the screen size. It must be at least 12.
+	 * @param screenWidth - the physical width of the screen (inches)
+	 * @return the most squares allowed on a line
+	 */
+	public static int maxSquaresPerLine(int screenWidth) {
+		return Math.max(screenWidth*4, DEFAULT_MAX_SQUARES);
+	}
+	
+	/**
+	 * Finds how many sections to show on each line, so that:
+	 * 		The length of a line is at most maxSquares (and as close to maxSquares as possible)
+	 * 		Each line has an equal amount of sections
+	 * If a single section is longer than maxSquares, each line has one section.
+	 * @param length - the length of the puzzle
+	 * @param sectionLength - the section length of the puzzle
+	 * @param maxSquares - the most squares allowed on a line
+	 * @return the amount of sections on each line
+	 */
+	public static int sectionsPerLine(int length, int sectionLength, int maxSquares) {
+		// Calculate the number of sections the puzzle has in total
+		int amountOfSections = length/sectionLength;
+		
+		// Start with as many sections as will fit, and work down until each line would be equal
+		for (int i = maxSquares / sectionLength; i > 1; i--) {
+			if (amountOfSections % i == 0) {
+				return i;
+			}
+		}
+		return 1;
+	}
+	
+	/**
+	 * @param position - a position on the board
+	 * @return the x-coordinate of the left of the square at the position (pixels)
+	 */
+	public int boardX(int position) {
+		return left + (position % (sectionLength*sectionsPerLine))*squareSize - (int) panX;
+	}
+	
+	/**
+	 * @param position - a position on the board
+	 * @return the y-coordinate of the top of the square at the position (pixels)
+	 */
+	public int boardY(int position) {
+		return top + (position / (sectionLength*sectionsPerLine))*(squareSize+10) - (int) panY;
+	}
+	
+	/**
+	 * @return the x-coordinate of the left of every block in storage (pixels)
+	 */
+	public int storageX() {
+		return left + 10;
+	}
+	
+	/**
+	 * @param position - a position in the storage area
+	 * @return the y-coordinate of the top of the block at the position (pixels)
+	 */
+	public int storageY(int position) {
+		return storageTopBlock + 10 + position*(height+10);
+	}
+	
+	/**
+	 * Checks whether the storage area is pushed off the bottom of the screen
+	 * @return true if the user won't be able to see the blocks in storage
+	 */
+	public boolean isStorageHidden() {
+		return storageTop > bottom - height;
+	}
+	
+	/**
+	 * Checks whether coordinates are on the retry button shown at the end of timed mode
+	 * @param x - the x-coordinate
+	 * @param y - the y-coordinate
+	 * @return true if the coordinates are on the retry button
+	 */
+	public boolean isOnRetryButton(float x, float y) {
+		return x >= left+(right-left)/2 - 50 &&
+				y >= storageTop + 3*(bottom-storageTop)/4 - 50 &&
+				x <= left+(right-left)/2 + 50 &&
+				y <= storageTop + 3*(bottom-storageTop)/4 + 50;
+	}
+	
+	/**
+	 * Finds the position of a block on the board block given coordinates
+	 * @param xfloat - the x-coordinate
+	 * @param yfloat - the y-coordinate
+	 * @return the position of the block as an int
+	 */
+	public int findBoardPosition(float xfloat, float yfloat) {
+		// The position of the coordinates to return
+		int position;
+		
+		int x = (int) xfloat;
+		int y = (int) yfloat;
+		
+		// How many squares across the coordinates are
+		int xposition;
+		// How many lines down the coordinates are
+		int yposition;
+		
+		// If the x-coordinate is within the viewport and on a line of the board, calculate
+		// the xposition
+		if (x > left && x < right && (x-left + (int) panX)/squareSize < sectionLength*sectionsPerLine) {
+			xposition = (x-left + (int) panX)/squareSize;
+		}
+		// Otherwise, return -1
+		else {
+			xposition = -1;
+		}
+		
+		// If the y-coordinate is within the viewport, get the line that y is on, including
+		// the 10 pixel gap below each line, to make it easier for the user to hit. Lines
+		// panned out of the viewport can't be hit.
+		if (y >= top && y < boardBottom) {
+			yposition = (y-top + (int) panY)/(10+squareSize);
+		}
+		// Otherwise, return -1
+		else {
+			yposition = -1;
+		}
+		
+		// Use xposition and yposition to find the position on the overall board
+		if (xposition == -1 || yposition == -1) {
+			return -1;
+		}
+		else {
+			position = yposition*sectionsPerLine*sectionLength + xposition;
+			return position;
+		}
+	}
+	
+	/**
+	 * Finds the position of a block in storage given a y-coordinate - we're not worried
+	 * about the x-coordinate, only if the user has tapped along the line of the block.
+	 * We include the 10-pixel gap below lines as part of the line above, to make touch
+	 * input easier for the user.
+	 * @param yfloat - the y-coordinate
+	 * @param storageSize - the amount of blocks in the storage area
+	 * @return the position of the block as an int
+	 */
+	public int findStoragePosition(float yfloat, int storageSize) {
+		int y = (int) yfloat;
+		
+		// If the coordinate is higher than the top of the storage, or lower than the lowest
+		// block in storage, return -1
+		if (y < storageTop || y > storageTopBlock + (10+height)*storageSize) {
+			return -1;
+		}
+		// If the coordinate is in the storage area, find the position of the block
+		else {
+			return (y-storageTopBlock-1) / (height + 10);
+		}
+	}
+}
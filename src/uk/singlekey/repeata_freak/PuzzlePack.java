@@ -0,0 +1,320 @@
+package uk.singlekey.repeata_freak;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.IdentityHashMap;
+import java.util.Random;
+
+/**
+ * A file of ready-made puzzles (e.g. daily puzzles or a sequence of levels), that can be
+ * opened instantly however many puzzles it holds.
+ *
+ * The file is memory mapped rather than read, so opening it costs almost nothing and
+ * only the pages holding the puzzles that are actually played are ever loaded. An index
+ * of fixed-size entries at the end of the file gives the offset of every puzzle, so
+ * puzzle n is found with a single lookup and nothing else is parsed.
+ *
+ * File layout (big-endian):
+ * 		header:  magic (int), version (int), puzzle count (int), unused (int), index offset (long)
+ * 		puzzles: seed (long), length (int), color count (byte), unused (byte),
+ * 		         section length (short), block count (int),
+ * 		         section colors (4 bits each, first square in the high bits of the first byte),
+ * 		         block sizes in solution order (int each), storage order (int each)
+ * 		index:   offset of each puzzle (long)
+ *
+ * Usage: PuzzlePack [-n count] [-length n] [-colors n] [-seed n] file
+ * 		writes a pack of generated puzzles to the file, then opens it and reads them back
+ *
+ * @author Samuel O'Sullivan
+ */
+public class PuzzlePack {
+	
+	// "RFPK" - marks the start of a puzzle pack
+	private static final int MAGIC = 0x5246504B;
+	private static final int VERSION = 1;
+	
+	// The size of the header, and of each entry of the index
+	private static final int HEADER_SIZE = 24;
+	private static final int INDEX_ENTRY_SIZE = 8;
+	
+	// The fixed part of a puzzle, before the section colors
+	private static final int PUZZLE_HEADER_SIZE = 20;
+	
+	// The whole file, mapped into memory
+	private MappedByteBuffer buffer;
+	
+	// The amount of puzzles in the pack
+	private int count;
+	
+	// Where the index starts
+	private int indexOffset;
+	
+	/**
+	 * Opens a pack by mapping it into memory. Nothing but the header is read.
+	 * @param file - the pack to open
+	 * @return the pack
+	 * @throws IOException if the file can't be mapped or isn't a puzzle pack
+	 */
+	public static PuzzlePack open(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too big to be a puzzle pack");
+			}
+			// The mapping stays valid once the channel is closed
+			return new PuzzlePack(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			in.close();
+		}
+	}
+	
+	private PuzzlePack(MappedByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a puzzle pack");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unknown puzzle pack version " + buffer.getInt(4));
+		}
+		this.count = buffer.getInt(8);
+		long index = buffer.getLong(16);
+		if (count < 0 || index < HEADER_SIZE || index + (long) count * INDEX_ENTRY_SIZE > buffer.capacity()) {
+			throw new IOException("Puzzle pack is cut short");
+		}
+		this.indexOffset = (int) index;
+	}
+	
+	/**
+	 * @return the amount of puzzles in the pack
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * Creates a puzzle from the pack, ready to be played. Only the bytes of that puzzle are
+	 * read, using absolute reads so that any amount of threads can share the pack.
+	 * @param n - the number of the puzzle, starting from 0
+	 * @return the puzzle
+	 */
+	public Puzzle get(int n) {
+		if (n < 0 || n >= count) {
+			throw new IndexOutOfBoundsException("Puzzle " + n + " of " + count);
+		}
+		int offset = (int) buffer.getLong(indexOffset + n * INDEX_ENTRY_SIZE);
+		
+		long seed = buffer.getLong(offset);
+		int length = buffer.getInt(offset + 8);
+		int colorCount = buffer.get(offset + 12) & 0xFF;
+		int sectionLength = buffer.getShort(offset + 14) & 0xFFFF;
+		int blockCount = buffer.getInt(offset + 16);
+		offset += PUZZLE_HEADER_SIZE;
+		
+		int[] section = new int[sectionLength];
+		for (int i = 0; i < sectionLength; i++) {
+			int pair = buffer.get(offset + i / 2);
+			section[i] = (i % 2 == 0 ? pair >>> 4 : pair) & 0xF;
+		}
+		offset += (sectionLength + 1) / 2;
+		
+		int[] blockSizes = new int[blockCount];
+		for (int i = 0; i < blockCount; i++) {
+			blockSizes[i] = buffer.getInt(offset);
+			offset += 4;
+		}
+		int[] storageOrder = new int[blockCount];
+		for (int i = 0; i < blockCount; i++) {
+			storageOrder[i] = buffer.getInt(offset);
+			offset += 4;
+		}
+		return new Puzzle(length, colorCount, section, blockSizes, storageOrder, seed);
+	}
+	
+	/**
+	 * Writes puzzles to a new pack, one at a time, so that a pack can be bigger than the
+	 * memory available while it's being written. Puzzles must be added before any block has
+	 * been moved, so that every block is still in storage.
+	 */
+	public static class Writer {
+		
+		// The file being written
+		private File file;
+		private DataOutputStream out;
+		
+		// Where the next puzzle will be written
+		private long offset = HEADER_SIZE;
+		
+		// The offset of every puzzle written so far
+		private long[] offsets = new long[1024];
+		private int count;
+		
+		/**
+		 * Creates a new pack, replacing the file if it already exists
+		 * @param file - the file to write to
+		 * @throws IOException if the file can't be written to
+		 */
+		public Writer(File file) throws IOException {
+			this.file = file;
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			// Written properly once we know where the index is
+			out.write(new byte[HEADER_SIZE]);
+		}
+		
+		/**
+		 * Adds a puzzle to the end of the pack
+		 * @param puzzle - a puzzle that hasn't been played
+		 * @throws IOException if the puzzle couldn't be written
+		 */
+		public void add(Puzzle puzzle) throws IOException {
+			int blockCount = puzzle.getBlockCount();
+			if (puzzle.getStorageSize() != blockCount) {
+				throw new IllegalArgumentException("Only puzzles with every block in storage can be added to a pack");
+			}
+			if (count == offsets.length) {
+				long[] bigger = new long[offsets.length * 2];
+				System.arraycopy(offsets, 0, bigger, 0, count);
+				offsets = bigger;
+			}
+			offsets[count++] = offset;
+			
+			int sectionLength = puzzle.getSectionLength();
+			out.writeLong(puzzle.getSeed());
+			out.writeInt(puzzle.getLength());
+			out.writeByte(puzzle.getColorCount());
+			out.writeByte(0);
+			out.writeShort(sectionLength);
+			out.writeInt(blockCount);
+			
+			int[] section = puzzle.getSection();
+			for (int i = 0; i < sectionLength; i += 2) {
+				int low = i + 1 < sectionLength ? section[i+1] : 0;
+				out.writeByte(section[i] << 4 | low);
+			}
+			
+			IdentityHashMap<Block, Integer> indices = new IdentityHashMap<Block, Integer>();
+			for (int i = 0; i < blockCount; i++) {
+				out.writeInt(puzzle.getBlock(i).getSize());
+				indices.put(puzzle.getBlock(i), i);
+			}
+			for (int i = 0; i < blockCount; i++) {
+				out.writeInt(indices.get(puzzle.getBlockFromStorage(i)));
+			}
+			offset += PUZZLE_HEADER_SIZE + (sectionLength + 1) / 2 + 8L * blockCount;
+		}
+		
+		/**
+		 * Writes the index and header, and closes the file
+		 * @throws IOException if the pack couldn't be finished
+		 */
+		public void close() throws IOException {
+			for (int i = 0; i < count; i++) {
+				out.writeLong(offsets[i]);
+			}
+			out.close();
+			
+			RandomAccessFile header = new RandomAccessFile(file, "rw");
+			try {
+				header.writeInt(MAGIC);
+				header.writeInt(VERSION);
+				header.writeInt(count);
+				header.writeInt(0);
+				header.writeLong(offset);
+			} finally {
+				header.close();
+			}
+		}
+	}
+	
+	/**
+	 * Writes a pack of generated puzzles, then opens it and checks every puzzle matches
+	 * @param args - see the class description
+	 */
+	public static void main(String[] args) throws IOException {
+		int n = 100000;
+		int length = 18;
+		int colors = Puzzle.DEFAULT_COLORS;
+		long seed = 1;
+		int i = 0;
+		for (; i + 1 < args.length; i += 2) {
+			String value = args[i+1];
+			if (args[i].equals("-n")) {
+				n = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-length")) {
+				length = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-colors")) {
+				colors = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-seed")) {
+				seed = Long.parseLong(value);
+			}
+			else {
+				break;
+			}
+		}
+		if (i != args.length - 1) {
+			System.err.println("Usage: PuzzlePack [-n count] [-length n] [-colors n] [-seed n] file");
+			System.exit(1);
+		}
+		File file = new File(args[i]);
+		
+		// The same seeds are used to write the pack and to check it
+		long start = System.nanoTime();
+		Random seeds = new Random(seed);
+		Writer writer = new Writer(file);
+		for (int p = 0; p < n; p++) {
+			writer.add(new Puzzle(length, colors, PuzzleLayout.DEFAULT_MAX_SQUARES, seeds.nextLong()));
+		}
+		writer.close();
+		System.out.println(String.format("wrote %d puzzles (%d bytes) in %.1fms",
+				n, file.length(), (System.nanoTime() - start) / 1e6));
+		
+		start = System.nanoTime();
+		PuzzlePack pack = open(file);
+		System.out.println(String.format("opened %d puzzles in %.3fms", pack.size(), (System.nanoTime() - start) / 1e6));
+		
+		start = System.nanoTime();
+		seeds = new Random(seed);
+		for (int p = 0; p < n; p++) {
+			Puzzle expected = new Puzzle(length, colors, PuzzleLayout.DEFAULT_MAX_SQUARES, seeds.nextLong());
+			Puzzle actual = pack.get(p);
+			if (!samePuzzle(expected, actual)) {
+				System.out.println("puzzle " + p + " doesn't match");
+				System.exit(1);
+			}
+		}
+		System.out.println(String.format("read and checked every puzzle in %.1fms", (System.nanoTime() - start) / 1e6));
+	}
+	
+	/**
+	 * Checks that two puzzles have the same blocks, in the same order in storage
+	 */
+	private static boolean samePuzzle(Puzzle a, Puzzle b) {
+		if (a.getLength() != b.getLength() || a.getSectionLength() != b.getSectionLength()
+				|| a.getStorageSize() != b.getStorageSize() || a.getSeed() != b.getSeed()) {
+			return false;
+		}
+		for (int i = 0; i < a.getStorageSize(); i++) {
+			Block blockA = a.getBlockFromStorage(i);
+			Block blockB = b.getBlockFromStorage(i);
+			if (blockA.getSize() != blockB.getSize()) {
+				return false;
+			}
+			for (int j = 0; j < blockA.getSize(); j++) {
+				if (blockA.getSquare(j) != blockB.getSquare(j)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
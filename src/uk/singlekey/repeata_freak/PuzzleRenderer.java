@@ -0,0 +1,783 @@
+package uk.singlekey.repeata_freak;
+
+import java.util.Arrays;
+
+import uk.ac.surrey.so00076.repeater.R;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.Align;
+import android.graphics.Rect;
+
+/**
+ * Draws a snapshot of a puzzle onto a canvas. Used by both PuzzleView and PuzzleSurfaceView,
+ * so the two only differ in which thread the drawing happens on.
+ *
+ * Everything needed from resources is looked up once when the renderer is created, so that
+ * drawing never touches resources. A renderer must only be used by one thread, as it reuses
+ * its paints and rectangles for every frame.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class PuzzleRenderer {
+	
+	// The rectangle that represents the storage area
+	private Rect storageRect = new Rect();
+	
+	// The viewport the board is shown through, which anything drawn on the board is clipped to
+	private Rect boardRect = new Rect();
+	
+	// Create a rectangle that will be used to draw squares anywhere needed,
+	// we define it here to save using "new" for every square that needs to be drawn
+	private Rect squareRect = new Rect();
+	
+	// Two rectangles the same color as the background, used to hide blocks that have been
+	// scrolled out of the storage area
+	private Rect aboveStorageRect = new Rect();
+	private Rect underStorageRect = new Rect();
+	
+	// Bitmap used as a 'retry' button at end of time in timed mode, which isn't decoded until
+	// it is first shown, so that it doesn't hold up the first frame
+	private Bitmap retry;
+	private Resources resources;
+	
+	// A rectangle representing the position and size of the retry button.
+	private Rect retryRect = new Rect();
+	
+	/*
+	 * The paints that will be used to draw the puzzle
+	 */
+	private Paint linePaint;
+	private Paint selectedPaint;
+	private Paint dropTargetPaint;
+	private Paint deadEndPaint;
+	private Paint squarePaint;
+	private Paint separatorPaint;
+	private Paint textPaint;
+	private Paint solvedPaint;
+	private Paint runPaint;
+	
+	// A tile of each color of the palette, which the squares of blocks are copied from
+	private TileAtlas tiles;
+	
+	// The board in view, gathered up so that it is drawn in a few calls however many squares
+	// can be seen: for each color of the palette, and then for empty squares, the runs of
+	// squares of that color next to each other on a line; the outline of every square; and
+	// the separators. Each is a list of lines for drawLines, reused for every frame.
+	private float[][] runs = new float[0][];
+	private int[] runCounts = new int[0];
+	private float[] outlines = new float[64];
+	private float[] separators = new float[64];
+	
+	// Colors from resources
+	private int backgroundColor;
+	private int storageColor;
+	private int emptyColor;
+	
+	// Text from resources
+	private String puzzleSolvedText;
+	private String newPuzzleText;
+	private String timeUpText;
+	private String youScoredText;
+	private String bestText;
+	private String timeText;
+	private String scoreText;
+	
+	// The squares of the board that blocks are still sliding into, one bit each, which are
+	// drawn empty until the blocks arrive. Reused for every frame.
+	private long[] arriving = new long[1];
+	
+	// Text sizes from resources
+	private float solvedTextSize;
+	private float newPuzzleTextSize;
+	private float counterTextSize;
+	
+	/**
+	 * Constructor for the PuzzleRenderer class
+	 * @param resources - where the colors, text and images are looked up
+	 */
+	public PuzzleRenderer(Resources resources) {
+		this.resources = resources;
+		
+		backgroundColor = resources.getColor(R.color.background);
+		storageColor = resources.getColor(R.color.storage);
+		emptyColor = resources.getColor(R.color.white);
+		
+		puzzleSolvedText = resources.getString(R.string.puzzle_solved);
+		newPuzzleText = resources.getString(R.string.new_puzzle);
+		timeUpText = resources.getString(R.string.time_up);
+		youScoredText = resources.getString(R.string.you_scored);
+		bestText = resources.getString(R.string.best);
+		timeText = resources.getString(R.string.time);
+		scoreText = resources.getString(R.string.score);
+		
+		solvedTextSize = resources.getDimension(R.dimen.solvedText);
+		newPuzzleTextSize = resources.getDimension(R.dimen.new_puzzleText);
+		counterTextSize = resources.getDimension(R.dimen.counterText);
+		
+		// Set up basic paint that other paints can be based on (saves repeating)
+		Paint basePaint = new Paint();
+		basePaint.setColor(resources.getColor(R.color.lineColor));
+		basePaint.setStyle(Paint.Style.STROKE);
+		basePaint.setAntiAlias(true);
+		
+		// Used to draw thin lines
+		linePaint = new Paint(basePaint);
+		
+		// Used to show when a block has been selected
+		selectedPaint = new Paint(basePaint);
+		selectedPaint.setColor(resources.getColor(R.color.selected));
+		selectedPaint.setStrokeWidth(5);
+		
+		// Used to show where the selected block could be moved to
+		dropTargetPaint = new Paint(basePaint);
+		dropTargetPaint.setColor(resources.getColor(R.color.dropTarget));
+		dropTargetPaint.setStyle(Paint.Style.FILL);
+		
+		// Used to frame the board when the blocks left can't finish it
+		deadEndPaint = new Paint(basePaint);
+		deadEndPaint.setColor(resources.getColor(R.color.deadEnd));
+		deadEndPaint.setStrokeWidth(8);
+		
+		// Used to fill squares (and the storage area) with a color
+		squarePaint = new Paint(basePaint);
+		squarePaint.setStyle(Paint.Style.FILL);
+		
+		// Thick paint used to show separation between sections on the board
+		separatorPaint = new Paint(basePaint);
+		separatorPaint.setStrokeWidth(10);
+		
+		// Used to draw text
+		textPaint = new Paint(basePaint);
+		textPaint.setTextAlign(Align.CENTER);
+		
+		// Used to light up the sections when the puzzle is solved
+		solvedPaint = new Paint(basePaint);
+		solvedPaint.setColor(emptyColor);
+		solvedPaint.setStyle(Paint.Style.FILL);
+		
+		// Used to fill runs of squares on the board, as lines as thick as a square. Not
+		// anti-aliased, so that runs next to each other meet without a seam.
+		runPaint = new Paint(basePaint);
+		runPaint.setAntiAlias(false);
+		runPaint.setStrokeCap(Paint.Cap.BUTT);
+		
+		tiles = new TileAtlas(linePaint);
+	}
+	
+	/**
+	 * Draws a whole frame
+	 * @param canvas - the canvas to draw on
+	 * @param frame - what to draw
+	 * @param frameTime - the time the frame is for, which decides how far through its
+	 * 		animations it is (System.nanoTime)
+	 * @return true if an animation is still running, so another frame is needed
+	 */
+	public boolean draw(Canvas canvas, PuzzleSnapshot frame, long frameTime) {
+		PuzzleLayout layout = frame.layout;
+		updateRects(layout);
+		boolean animating = findArriving(frame, frameTime);
+		
+		// Clear the last frame
+		canvas.drawColor(backgroundColor);
+		
+		// Draw the storage area
+		squarePaint.setColor(storageColor);
+		canvas.drawRect(storageRect, squarePaint);
+		canvas.drawRect(storageRect, linePaint);
+		
+		// Draw the blocks in the storage area
+		Tracer.begin("drawBlocks");
+		drawBlocks(canvas, frame, frameTime);
+		Tracer.end();
+		
+		// Draw rectangles above and below the storage area, to mask blocks that have been scrolled out of view
+		squarePaint.setColor(backgroundColor);
+		canvas.drawRect(aboveStorageRect, squarePaint);
+		canvas.drawRect(underStorageRect, squarePaint);
+		
+		// Everything on the board is clipped to the viewport it is shown through
+		canvas.save();
+		canvas.clipRect(boardRect);
+		
+		// Draw the main puzzle (the squares at the top of the screen), including bold separators
+		Tracer.begin("drawSquares");
+		drawSquares(canvas, frame);
+		Tracer.end();
+		
+		// Light up the sections if the puzzle has just been solved
+		animating |= drawSolvedWave(canvas, frame, frameTime);
+		
+		// Show where the selected block could be moved to
+		drawDropTargets(canvas, frame);
+		
+		// Highlight the selected block
+		highlightSelection(canvas, frame);
+		canvas.restore();
+		
+		// Warn the user straight away if the blocks left can't finish the board
+		if (frame.deadEnd) {
+			canvas.drawRect(boardRect, deadEndPaint);
+		}
+		
+		// Show how far the opponent has got, if this is a race
+		drawOpponent(canvas, frame);
+		
+		// Draw the blocks that are still sliding into place
+		drawMoves(canvas, frame, frameTime);
+		
+		// Draw the block being dragged
+		if (frame.draggedBlock != null) {
+			drawBlockAt(canvas, frame, frame.draggedBlock, frame.dragX, frame.dragY);
+		}
+		
+		int left = layout.left;
+		int right = layout.right;
+		int bottom = layout.bottom;
+		int storageTop = layout.storageTop;
+		
+		// If the puzzle is solved, and we're not in timed mode, ask the user to start a new puzzle
+		if (frame.solved && !frame.timedMode) {
+			// If not in timed mode, ask the user to start a new puzzle
+			textPaint.setTextSize(solvedTextSize);
+			canvas.drawText(
+					puzzleSolvedText,
+					left+(right-left)/2,
+					storageTop+(bottom-storageTop)/4,
+					textPaint
+					);
+			textPaint.setTextSize(newPuzzleTextSize);
+			canvas.drawText(
+					newPuzzleText,
+					left+(right-left)/2,
+					storageTop+(bottom-storageTop)/2,
+					textPaint
+					);
+		}
+		// If we are in timed mode
+		if (frame.timedMode) {
+			// If we are out of time
+			if (frame.timeCounter <= 0) {
+				// Tell the user their score
+				textPaint.setTextSize(solvedTextSize);
+				canvas.drawText(timeUpText, left+(right-left)/2, storageTop+(bottom-storageTop)/4,textPaint);
+				canvas.drawText(youScoredText + " " + frame.solvedCounter, left+(right-left)/2, storageTop+(bottom-storageTop)/2,textPaint);
+				
+				// Tell the user their best score, if we know it
+				if (frame.bestScore >= 0) {
+					textPaint.setTextSize(counterTextSize);
+					canvas.drawText(bestText + " " + frame.bestScore, left+(right-left)/2, storageTop+(bottom-storageTop)/2 + solvedTextSize, textPaint);
+				}
+				
+				// Draw the retry button, decoding it the first time it is needed
+				if (retry == null) {
+					retry = BitmapFactory.decodeResource(resources, R.drawable.retry);
+				}
+				canvas.drawBitmap(retry, null, retryRect, squarePaint);
+			}
+			// If we are in timed mode but not out of time yet
+			else {
+				textPaint.setTextSize(counterTextSize);
+				// Draw the timer
+				textPaint.setTextAlign(Align.LEFT);
+				canvas.drawText(timeText + " " + frame.timeCounter, left+10, bottom-10, textPaint);
+				// Draw the solved counter
+				textPaint.setTextAlign(Align.RIGHT);
+				canvas.drawText(scoreText + " " + frame.solvedCounter, right-10, bottom-10, textPaint);
+				
+				// Reset the textPaint to its default alignment
+				textPaint.setTextAlign(Align.CENTER);
+			}
+		}
+		return animating;
+	}
+	
+	/**
+	 * Marks the squares of the board that blocks are still sliding into
+	 * @param frame - what to draw
+	 * @param frameTime - the time the frame is for
+	 * @return true if any block is still sliding
+	 */
+	private boolean findArriving(PuzzleSnapshot frame, long frameTime) {
+		int length = frame.board.length;
+		if (arriving.length < Bits.words(length)) {
+			arriving = new long[Bits.words(length)];
+		}
+		else {
+			Bits.fill(arriving, 0, length, false);
+		}
+		boolean moving = false;
+		for (PuzzleSnapshot.Move move : frame.moves) {
+			if (frameTime - move.startTime < BlockAnimator.MOVE_NANOS) {
+				moving = true;
+				if (move.boardPosition != -1) {
+					Bits.fill(arriving, move.boardPosition, move.boardPosition + move.block.getSize(), true);
+				}
+			}
+		}
+		return moving;
+	}
+	
+	/**
+	 * Checks whether a block in storage is still sliding into its place
+	 * @param frame - what to draw
+	 * @param storagePosition - the position of the block in storage
+	 * @param frameTime - the time the frame is for
+	 * @return true if the block is still sliding
+	 */
+	private boolean isArrivingInStorage(PuzzleSnapshot frame, int storagePosition, long frameTime) {
+		for (PuzzleSnapshot.Move move : frame.moves) {
+			if (move.storagePosition == storagePosition && frameTime - move.startTime < BlockAnimator.MOVE_NANOS) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Draws each block that is sliding into place, part of the way from where it was to
+	 * where it is going
+	 * @param canvas - the canvas to draw on
+	 * @param frame - what to draw
+	 * @param frameTime - the time the frame is for
+	 */
+	private void drawMoves(Canvas canvas, PuzzleSnapshot frame, long frameTime) {
+		for (PuzzleSnapshot.Move move : frame.moves) {
+			long elapsed = frameTime - move.startTime;
+			if (elapsed < BlockAnimator.MOVE_NANOS) {
+				float t = BlockAnimator.ease(BlockAnimator.DECELERATE, elapsed, BlockAnimator.MOVE_NANOS);
+				drawBlockAt(canvas, frame, move.block,
+						move.fromX + (move.toX - move.fromX) * t,
+						move.fromY + (move.toY - move.fromY) * t);
+			}
+		}
+	}
+	
+	/**
+	 * Lights up each section of the board in turn, from the first to the last, after the
+	 * puzzle has been solved
+	 * @param canvas - the canvas to draw on
+	 * @param frame - what to draw
+	 * @param frameTime - the time the frame is for
+	 * @return true if the wave hasn't finished
+	 */
+	private boolean drawSolvedWave(Canvas canvas, PuzzleSnapshot frame, long frameTime) {
+		PuzzleLayout layout = frame.layout;
+		int sections = layout.length / layout.sectionLength;
+		long elapsed = frameTime - frame.solvedTime;
+		if (frame.solvedTime == Long.MIN_VALUE || elapsed < 0
+				|| elapsed >= (sections - 1) * BlockAnimator.SOLVED_STAGGER_NANOS + BlockAnimator.SOLVED_PULSE_NANOS) {
+			return false;
+		}
+		// Only the sections on the lines that can be seen are lit up
+		int lastSection = layout.endVisibleLine() * layout.sectionsPerLine;
+		for (int section = layout.firstVisibleLine() * layout.sectionsPerLine; section < lastSection; section++) {
+			float light = BlockAnimator.ease(BlockAnimator.PULSE,
+					elapsed - section * BlockAnimator.SOLVED_STAGGER_NANOS, BlockAnimator.SOLVED_PULSE_NANOS);
+			if (light > 0) {
+				solvedPaint.setAlpha((int) (160 * light));
+				int position = section * layout.sectionLength;
+				int left = layout.boardX(position);
+				int top = layout.boardY(position);
+				canvas.drawRect(left, top, left + layout.sectionLength*layout.squareSize, top + layout.squareSize, solvedPaint);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Sets up the rectangles that are drawn, using the layout of the frame.
+	 * The view is 10 pixels wider and taller than the puzzle on each side.
+	 * @param layout - where everything is shown on the screen
+	 */
+	private void updateRects(PuzzleLayout layout) {
+		int left = layout.left;
+		int right = layout.right;
+		int bottom = layout.bottom;
+		int storageTop = layout.storageTop;
+		
+		this.storageRect.set(left, storageTop, right, bottom);
+		// Wide enough for the separators at the edges of the board
+		this.boardRect.set(left-5, layout.top-5, right+5, layout.boardBottom);
+		this.aboveStorageRect.set(0, 0, right+10, storageTop-1);
+		this.underStorageRect.set(0, bottom+1, right+10, bottom+10);
+		this.retryRect.set(
+				left+(right-left)/2 - 50,
+				storageTop + 3*(bottom-storageTop)/4 - 50,
+				left+(right-left)/2 + 50,
+				storageTop + 3*(bottom-storageTop)/4 + 50
+				);
+	}
+	
+	/**
+	 * Draws the part of the board that can be seen in the viewport, with all squares that are
+	 * in it. Only the squares and separators in view are drawn, so the cost doesn't depend on
+	 * the size of the board.
+	 * 
+	 * Rather than filling and outlining each square, the squares are gathered up by color
+	 * first: each run of squares of the same color on a line becomes one line as thick as a
+	 * square. Then every run of a color is drawn in one call, and every outline and every
+	 * separator in one call each, so a frame takes a call per color rather than two calls
+	 * (and a change of color) per square.
+	 * @param canvas - the canvas to draw on
+	 * @param frame - what to draw
+	 */
+	private void drawSquares(Canvas canvas, PuzzleSnapshot frame) {
+		PuzzleLayout layout = frame.layout;
+		int sectionLength = layout.sectionLength;
+		int lineLength = sectionLength*layout.sectionsPerLine;
+		int size = layout.squareSize;
+		
+		int firstLine = layout.firstVisibleLine();
+		int endLine = layout.endVisibleLine();
+		int firstColumn = layout.firstVisibleColumn();
+		int endColumn = layout.endVisibleColumn();
+		if (firstLine >= endLine || firstColumn >= endColumn) {
+			return;
+		}
+		
+		// A list of runs for each color, and then one for empty squares
+		int empty = frame.palette.length;
+		if (runs.length < empty + 1) {
+			runs = new float[empty + 1][64];
+			runCounts = new int[empty + 1];
+		}
+		Arrays.fill(runCounts, 0);
+		int outlineCount = 0;
+		
+		// Go through each line in view
+		for (int line = firstLine; line < endLine; line++) {
+			int lineStart = line*lineLength;
+			int lineX = layout.boardX(lineStart);
+			int top = layout.boardY(lineStart);
+			float middle = top + size / 2f;
+			
+			// Go through each position in view, adding a run each time the color changes
+			int runStart = firstColumn;
+			int runColor = colorAt(frame, lineStart + firstColumn, empty);
+			for (int position = firstColumn + 1; position <= endColumn; position++) {
+				int color = position < endColumn ? colorAt(frame, lineStart + position, empty) : -1;
+				if (color != runColor) {
+					addRun(runColor, lineX + runStart*size, lineX + position*size, middle);
+					runStart = position;
+					runColor = color;
+				}
+			}
+			
+			// Outline the squares: along the top and bottom, and between each square
+			outlines = reserve(outlines, outlineCount, 4 * (endColumn - firstColumn + 3));
+			int left = lineX + firstColumn*size;
+			int right = lineX + endColumn*size;
+			outlineCount = putLine(outlines, outlineCount, left, top, right, top);
+			outlineCount = putLine(outlines, outlineCount, left, top + size, right, top + size);
+			for (int x = left; x <= right; x += size) {
+				outlineCount = putLine(outlines, outlineCount, x, top, x, top + size);
+			}
+		}
+		
+		// Fill every run of each color (squares without a color, or whose block hasn't slid
+		// into place yet, are white)
+		runPaint.setStrokeWidth(size);
+		for (int color = 0; color <= empty; color++) {
+			if (runCounts[color] > 0) {
+				runPaint.setColor(color == empty ? emptyColor : frame.palette[color]);
+				canvas.drawLines(runs[color], 0, runCounts[color], runPaint);
+			}
+		}
+		canvas.drawLines(outlines, 0, outlineCount, linePaint);
+		
+		// Draw bold separators between the sections in view, including either end of each line
+		int firstSeparator = (firstColumn + sectionLength - 1) / sectionLength;
+		int lastSeparator = endColumn / sectionLength;
+		int separatorCount = 0;
+		separators = reserve(separators, 0, 4 * (endLine - firstLine) * (lastSeparator - firstSeparator + 1));
+		// Go through each line
+		for (int line = firstLine; line < endLine; line++) {
+			for (int i = firstSeparator; i <= lastSeparator; i++) {
+				int x = layout.boardX(line*lineLength) + i*sectionLength*size;
+				int y = layout.boardY(line*lineLength);
+				separatorCount = putLine(separators, separatorCount, x, y, x, y + size);
+			}
+		}
+		if (separatorCount > 0) {
+			canvas.drawLines(separators, 0, separatorCount, separatorPaint);
+		}
+	}
+	
+	/**
+	 * @param frame - what to draw
+	 * @param position - a position on the board
+	 * @param empty - the run list used for empty squares
+	 * @return the color of the square at the position, or empty if there isn't a square
+	 * 		there or its block is still sliding into place
+	 */
+	private int colorAt(PuzzleSnapshot frame, int position, int empty) {
+		int color = frame.board.getSquare(position);
+		return color == Puzzle.EMPTY || Bits.get(arriving, position) ? empty : color;
+	}
+	
+	/**
+	 * Adds a run of squares to the runs of its color
+	 * @param color - the color of the run (the palette index, or empty)
+	 * @param left - the x-coordinate of the left of the run
+	 * @param right - the x-coordinate of the right of the run
+	 * @param middle - the y-coordinate of the middle of the run
+	 */
+	private void addRun(int color, int left, int right, float middle) {
+		runs[color] = reserve(runs[color], runCounts[color], 4);
+		runCounts[color] = putLine(runs[color], runCounts[color], left, middle, right, middle);
+	}
+	
+	/**
+	 * Makes sure a list of lines has room for more values
+	 * @param lines - the list of lines
+	 * @param count - the amount of values in the list
+	 * @param more - the amount of values to be added
+	 * @return the list, or a bigger copy of it if it was too small
+	 */
+	private static float[] reserve(float[] lines, int count, int more) {
+		if (count + more <= lines.length) {
+			return lines;
+		}
+		float[] bigger = new float[Math.max(2*lines.length, count + more)];
+		System.arraycopy(lines, 0, bigger, 0, count);
+		return bigger;
+	}
+	
+	/**
+	 * Adds a line to a list of lines, which must have room for it
+	 * @return the amount of values in the list now
+	 */
+	private static int putLine(float[] lines, int count, float x0, float y0, float x1, float y1) {
+		lines[count] = x0;
+		lines[count + 1] = y0;
+		lines[count + 2] = x1;
+		lines[count + 3] = y1;
+		return count + 4;
+	}
+	
+	/**
+	 * Draws the opponent's board in a race as a single thin line above the board, a third of
+	 * the width of the screen, outlined in the selected color once they have solved it.
+	 * Squares of the same color next to each other are drawn as one rectangle.
+	 * @param canvas - the canvas to draw on
+	 * @param frame - what to draw
+	 */
+	private void drawOpponent(Canvas canvas, PuzzleSnapshot frame) {
+		PuzzleSnapshot.Board board = frame.opponentBoard;
+		if (board == null || board.length == 0) {
+			return;
+		}
+		PuzzleLayout layout = frame.layout;
+		int width = (layout.right - layout.left) / 3;
+		int left = layout.right - width;
+		int top = layout.top / 4;
+		int bottom = layout.top - layout.top / 4;
+		
+		int runStart = 0;
+		int runColor = board.getSquare(0);
+		for (int i = 1; i <= board.length; i++) {
+			int color = i == board.length ? runColor : board.getSquare(i);
+			if (i == board.length || color != runColor) {
+				squarePaint.setColor(runColor == Puzzle.EMPTY ? emptyColor : frame.palette[runColor]);
+				squareRect.set(left + runStart*width/board.length, top, left + i*width/board.length, bottom);
+				canvas.drawRect(squareRect, squarePaint);
+				runStart = i;
+				runColor = color;
+			}
+		}
+		squareRect.set(left, top, layout.right, bottom);
+		canvas.drawRect(squareRect, frame.opponentSolved ? selectedPaint : linePaint);
+	}
+	
+	/**
+	 * Draw the blocks in the storage area that can be seen, other than those still sliding
+	 * into place
+	 * @param canvas - the canvas to draw on
+	 * @param frame - what to draw
+	 * @param frameTime - the time the frame is for
+	 */
+	private void drawBlocks(Canvas canvas, PuzzleSnapshot frame, long frameTime) {
+		PuzzleLayout layout = frame.layout;
+		// Go through the blocks that have been scrolled into view, drawing them
+		int first = Math.max(0, (layout.storageTop - layout.storageTopBlock) / (layout.height+10) - 1);
+		for (int position = first; position < frame.storage.length && layout.storageY(position) < layout.bottom; position++) {
+			if (!isArrivingInStorage(frame, position, frameTime)) {
+				drawBlockAt(canvas, frame, frame.storage[position], layout.storageX(), layout.storageY(position));
+			}
+		}
+	}
+	
+	/**
+	 * Draws a single block given coordinates, copying each square from the tile atlas
+	 * @param canvas - the canvas to draw on
+	 * @param frame - what to draw
+	 * @param block - the block to be drawn
+	 * @param xfloat - the x-coordinate where the block will be drawn
+	 * @param yfloat - the y-coordinate where the block will be drawn
+	 */
+	private void drawBlockAt(Canvas canvas, PuzzleSnapshot frame, Block block, float xfloat, float yfloat) {
+		
+		int x = (int) xfloat;
+		int y = (int) yfloat;
+		int width = frame.layout.width;
+		tiles.prepare(width, frame.palette);
+		
+		// j is the horizontal position of the individual square
+		// Go through the block's squares, copying the tile of each one's color
+		for (int j = 0; j < block.getSize(); j++) {
+			squareRect.set(
+					x + j*width,
+					y,
+					x + j*width + width,
+					y + frame.layout.height
+					);
+			tiles.draw(canvas, block.getSquare(j), squareRect);
+		}
+	}
+	
+	/**
+	 * Highlights with an orange border the block that the user has selected.
+	 * If the block overflows lines, the selection lines will also overflow onto the next line.
+	 * @param canvas - the canvas to draw on
+	 * @param frame - what to draw
+	 */
+	private void highlightSelection(Canvas canvas, PuzzleSnapshot frame) {
+		PuzzleLayout layout = frame.layout;
+		// Make sure the user has selected a block
+		if (frame.selectedSize > 0) {
+			// Find the length of the block
+			int blockLength = frame.selectedSize;
+			int width = layout.width;
+			int height = layout.height;
+			
+			// If the block is on the board
+			if (frame.selectedBoardPosition != -1) {
+				
+				int position = frame.selectedBoardPosition;
+				
+				// First draw a vertical line representing the start of the block
+				canvas.drawLine(
+						layout.boardX(position),
+						layout.boardY(position),
+						layout.boardX(position),
+						layout.boardY(position) + layout.squareSize,
+						selectedPaint
+						);
+				
+				// Use a recursive method to go through each line that the block is on,
+				// printing the 'tramlines' and the final vertical line
+				drawHorizontalSelectedLines(canvas, layout, position, blockLength);
+				
+			}
+			
+			// If the block is in storage, just draw a rectangle around it
+			else {
+				int position = frame.selectedStoragePosition;
+				squareRect.set(
+						layout.left+10,
+						layout.storageTopBlock + 10 + position*(10+height),
+						layout.left + 10 + width * blockLength,
+						layout.storageTopBlock + 10 + position*(10+height) + height
+						);
+				canvas.drawRect(squareRect, selectedPaint);
+			}
+		}
+	}
+	
+	/**
+	 * Shades every square that the selected block could start on if it was moved, so the
+	 * user can see where it will fit before they drag it there.
+	 * @param canvas - the canvas to draw on
+	 * @param frame - what to draw
+	 */
+	private void drawDropTargets(Canvas canvas, PuzzleSnapshot frame) {
+		long[] targets = frame.dropTargets;
+		if (targets == null) {
+			return;
+		}
+		PuzzleLayout layout = frame.layout;
+		int lineLength = layout.sectionLength*layout.sectionsPerLine;
+		int endLine = layout.endVisibleLine();
+		int firstColumn = layout.firstVisibleColumn();
+		int endColumn = layout.endVisibleColumn();
+		
+		// Only look for targets in the part of each line that is in view
+		for (int line = layout.firstVisibleLine(); line < endLine; line++) {
+			int end = line*lineLength + endColumn;
+			int position = Bits.nextSet(targets, line*lineLength + firstColumn, end);
+			while (position < end) {
+				int left = layout.boardX(position);
+				int top = layout.boardY(position);
+				squareRect.set(left, top, left + layout.squareSize, top + layout.squareSize);
+				canvas.drawRect(squareRect, dropTargetPaint);
+				position = Bits.nextSet(targets, position + 1, end);
+			}
+		}
+	}
+	
+	/**
+	 * Recursive method that draws the orange 'tramlines' above and below the selected block on the current line.
+	 * Once one line is done, if there are squares overflowing, we call the method again for the next line.
+	 * @param canvas - the canvas to draw on
+	 * @param layout - where everything is shown on the screen
+	 * @param currentPosition - the position on the board we are currently on
+	 * @param squaresLeft - the amount of squares we still need to highlight
+	 */
+	private void drawHorizontalSelectedLines(Canvas canvas, PuzzleLayout layout, int currentPosition, int squaresLeft) {
+		
+		/*
+		 *  Set up some values that will be used frequently
+		 */
+		// The length of a line of squares in the puzzle
+		int lineLength = layout.length / layout.noOfLines;
+		
+		// Where the 'tramlines' start - on the current line (in pixels)
+		int startX = layout.boardX(currentPosition);
+		
+		// Where the tramlines end - on the current line (in pixels) - this will be different
+		// depending on whether we are on a base case or not
+		int stopX;
+		
+		// The y position (in pixels) of the top tramline
+		int topY = layout.boardY(currentPosition);
+		
+		// The y position (in pixels) of the bottom tramline
+		int bottomY = topY + layout.squareSize;
+		
+		// The distance to the end of the line from the current position (in squares)
+		int distToEndOfLine = (lineLength-1) - (currentPosition % lineLength);
+		
+		/*
+		 * If we are overflowing the line, draw to the end of the current line,
+		 * and recurse onto new line
+		 */
+		if (squaresLeft > distToEndOfLine+1) {
+			stopX = startX + (distToEndOfLine+1)*layout.squareSize;
+			canvas.drawLine(startX, topY, stopX, topY, selectedPaint);
+			canvas.drawLine(startX, bottomY, stopX, bottomY, selectedPaint);
+			
+			int nextPosition = currentPosition + distToEndOfLine + 1;
+			int nextSquaresLeft = (squaresLeft - distToEndOfLine) - 1;
+			
+			drawHorizontalSelectedLines(canvas, layout, nextPosition, nextSquaresLeft);
+			
+		}
+		
+		/*
+		 *  The base case:
+		 *  If we aren't going to overflow, then we don't need to recurse onto the next line,
+		 *  so draw the tramlines up to the end of the block and draw the last vertical line
+		 *  to represent the end of the selected block.
+		 */
+		else {
+			stopX = startX + layout.squareSize*squaresLeft;
+			canvas.drawLine(startX, topY, stopX, topY, selectedPaint);
+			canvas.drawLine(startX, bottomY, stopX, bottomY, selectedPaint);
+			
+			canvas.drawLine(stopX, topY, stopX, bottomY, selectedPaint);
+		}
+	}
+}
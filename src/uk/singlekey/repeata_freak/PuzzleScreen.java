@@ -0,0 +1,488 @@
+package uk.singlekey.repeata_freak;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.Toast;
+
+/**
+ * Everything the puzzle screen does other than drawing: runs the timer, plays sounds, keeps
+ * scores and recordings, passes touches to the controller and plays races. After anything
+ * changes, it takes a snapshot of the game and gives it to the view to draw.
+ *
+ * In a race, every move the user makes is sent to the opponent, and the opponent's moves are
+ * played on a copy of their session, which is shown above the board.
+ *
+ * Shared by PuzzleView and PuzzleSurfaceView, so the two behave identically. Everything here
+ * runs on the UI thread.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class PuzzleScreen implements PuzzleController.Listener, RaceClient.Listener {
+	
+	/**
+	 * Implemented by the views that show the puzzle screen
+	 */
+	public interface Display {
+		/**
+		 * Called on the UI thread whenever something has changed
+		 * @param snapshot - the game as it is now
+		 */
+		void show(PuzzleSnapshot snapshot);
+	}
+	
+	// A Handler to run the timer
+	private Handler timeHandler = new Handler();
+	
+	/*
+	 * Create a new Runnable that decrements the timer and causes itself to run
+	 * again after 1 second
+	 */
+	private Runnable timerTask = new Runnable() {
+		/**
+		 * Triggered when the timerTask is run by a Handler
+		 */
+		public void run() {
+			// decrement the timer
+			controller.tick();
+			if (recorder != null) {
+				recorder.recordTick(SystemClock.uptimeMillis());
+			}
+			// refresh the screen
+			update();
+			// run again in 1 second using timeHandler
+			timeHandler.postDelayed(timerTask, 1000);
+		}
+	};
+	
+	// Used for resources and sounds
+	private Context context;
+	
+	// Where the snapshots are shown
+	private Display display;
+	
+	// Whether we want sound effects or not
+	private boolean sfxOn;
+	
+	// The MediaPlayer used to play sounds
+	private MediaPlayer mp;
+	
+	// Holds the state of the game and decides what happens when the user touches the screen
+	private PuzzleController controller;
+	
+	// The puzzle's colors, looked up from resources. Every puzzle with the same amount of
+	// colors has the same palette, so a new array is only needed when the amount changes (and
+	// an old array is never changed, as snapshots of the old puzzle may still be being drawn).
+	private int[] paletteColors;
+	
+	// The last snapshot taken, whose copies the next snapshot shares where nothing has changed
+	private PuzzleSnapshot lastSnapshot;
+	
+	// Records the session if the user has chosen to, otherwise null
+	private TouchRecorder recorder;
+	
+	// Collects statistics about how the user plays if they have chosen to, otherwise null
+	private Telemetry telemetry;
+	
+	// Keeps the user's scores in timed mode, or null if they aren't being kept
+	private ScoreStore scoreStore;
+	
+	// The best score the user has had on this difficulty, found when the round is over
+	private int bestScore;
+	
+	// Slides blocks into place and lights up solved puzzles
+	private BlockAnimator animator = new BlockAnimator();
+	
+	// The race being played if the user has chosen to race, otherwise null
+	private RaceClient race;
+	
+	// A copy of the opponent's session, which their moves are played on (null until the race
+	// has started), and whether they have solved their puzzle
+	private PuzzleController opponent;
+	private boolean opponentSolved;
+	
+	// The seed the user's session was last started from that the opponent knows about, so
+	// that a restart (e.g. a new timed round) is sent as a RESTART rather than a NEW_PUZZLE
+	private long raceSeed;
+	
+	// Whether the user is zooming and panning the board with two fingers, and the distance
+	// between their fingers and the point between them the last time they moved
+	private boolean pinching;
+	private float lastSpan, lastFocusX, lastFocusY;
+	
+	/**
+	 * Constructor for the PuzzleScreen class
+	 * @param context - used for resources and sounds
+	 * @param controller - the game session to display
+	 * @param sfx - true if the user wants sound effects, false otherwise
+	 * @param display - where the game is shown
+	 */
+	public PuzzleScreen(Context context, PuzzleController controller, boolean sfx, Display display) {
+		this.context = context;
+		this.controller = controller;
+		this.sfxOn = sfx;
+		this.display = display;
+		
+		// Display the session, listening for new puzzles and sounds
+		controller.setListener(this);
+		onNewPuzzle();
+	}
+	
+	/**
+	 * Starts recording everything that happens in the session
+	 * @param recorder - where the session is recorded, or null to stop recording
+	 */
+	public void setRecorder(TouchRecorder recorder) {
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * Starts collecting statistics about how the user plays
+	 * @param telemetry - where the statistics are collected, or null to stop collecting them
+	 */
+	public void setTelemetry(Telemetry telemetry) {
+		this.telemetry = telemetry;
+		if (telemetry != null) {
+			telemetry.onNewPuzzle(SystemClock.uptimeMillis(), controller.getPuzzle());
+		}
+	}
+	
+	/**
+	 * Joins a race against someone else, which starts once the relay has found an opponent
+	 * @param race - the race to join, which must call this screen's RaceClient.Listener
+	 * 		methods on the UI thread
+	 */
+	public void setRace(RaceClient race) {
+		this.race = race;
+		race.join(controller.getDifficulty(), controller.getColorCount(), PuzzleLayout.maxSquaresPerLine(getScreenWidth()));
+	}
+	
+	/**
+	 * Keeps the score of every round in a score store
+	 * @param scoreStore - the score store to use
+	 */
+	public void setScoreStore(ScoreStore scoreStore) {
+		this.scoreStore = scoreStore;
+	}
+	
+	/**
+	 * @return the game session being displayed
+	 */
+	public PuzzleController getController() {
+		return this.controller;
+	}
+	
+	/**
+	 * Takes a snapshot of the game and gives it to the display
+	 */
+	public void update() {
+		lastSnapshot = new PuzzleSnapshot(controller, paletteColors, scoreStore != null ? bestScore : -1, animator,
+				opponent != null ? opponent.getPuzzle() : null, opponentSolved, System.nanoTime(), lastSnapshot);
+		display.show(lastSnapshot);
+	}
+	
+	/**
+	 * Called by the controller when the time runs out. Saves the score and looks up the
+	 * best score to show on the end of round screen.
+	 */
+	public void onRoundOver(int score) {
+		if (scoreStore != null) {
+			scoreStore.submit(controller.getDifficulty(), controller.getColorCount(), score);
+			bestScore = scoreStore.getBestScore(controller.getDifficulty(), controller.getColorCount());
+		}
+	}
+	
+	/**
+	 * Called by the controller when a block has been moved. Starts sliding it into place.
+	 */
+	public void onBlockMoved(Block block, float fromX, float fromY) {
+		animator.startMove(block, fromX, fromY, System.nanoTime());
+		if (opponent != null) {
+			race.sendMove(controller.getPuzzle().getBlockIndex(block), block.getBoardPosition());
+		}
+	}
+	
+	/**
+	 * Called by the controller when the user solves a puzzle. Starts the solved wave.
+	 */
+	public void onPuzzleSolved() {
+		animator.startSolved(System.nanoTime());
+		if (telemetry != null) {
+			telemetry.onPuzzleSolved(SystemClock.uptimeMillis());
+		}
+		if (opponent != null) {
+			race.send(RaceProtocol.SOLVED);
+		}
+	}
+	
+	/**
+	 * Called by the controller when a block has been put down in a new place
+	 */
+	public void onBlockPlaced() {
+		if (telemetry != null) {
+			telemetry.onBlockPlaced(SystemClock.uptimeMillis(), controller.getPuzzle());
+		}
+	}
+	
+	/**
+	 * Called by the controller when a new puzzle has been created.
+	 */
+	public void onNewPuzzle() {
+		animator.clear();
+		Puzzle puzzle = controller.getPuzzle();
+		if (paletteColors == null || paletteColors.length != puzzle.getColorCount()) {
+			paletteColors = new int[puzzle.getColorCount()];
+			for (int i = 0; i < paletteColors.length; i++) {
+				paletteColors[i] = context.getResources().getColor(puzzle.getColor(i));
+			}
+		}
+		if (telemetry != null) {
+			telemetry.onNewPuzzle(SystemClock.uptimeMillis(), puzzle);
+		}
+		if (opponent != null) {
+			if (controller.getSessionSeed() != raceSeed) {
+				raceSeed = controller.getSessionSeed();
+				race.sendRestart(raceSeed, controller.getMaxSquaresPerLine());
+			}
+			else {
+				race.send(RaceProtocol.NEW_PUZZLE);
+			}
+		}
+		
+		// Display the puzzle
+		update();
+	}
+	
+	/**
+	 * Called when an opponent has been found. Both sessions start again from the race's seed,
+	 * so the user and the opponent get the same puzzles.
+	 */
+	public void onRaceStart(long seed, int maxSquaresPerLine) {
+		if (recorder != null) {
+			recorder.recordRace(SystemClock.uptimeMillis(), seed, maxSquaresPerLine);
+		}
+		// The new puzzle the race starts on isn't sent, as the opponent starts on it too
+		controller.restart(seed, maxSquaresPerLine);
+		opponent = new PuzzleController(controller.getDifficulty(), controller.getColorCount(), false, false, seed);
+		opponent.restart(seed, maxSquaresPerLine);
+		opponentSolved = false;
+		raceSeed = seed;
+		update();
+	}
+	
+	/**
+	 * Called when the opponent has moved a block. Moves that don't fit the copy of their
+	 * puzzle are ignored.
+	 */
+	public void onOpponentMove(int block, int position) {
+		if (opponent == null) {
+			return;
+		}
+		Puzzle puzzle = opponent.getPuzzle();
+		if (block >= puzzle.getBlockCount()) {
+			return;
+		}
+		Block moved = puzzle.getBlock(block);
+		if (position == -1) {
+			puzzle.removeBlockFromBoard(moved);
+		}
+		else if (puzzle.isSpace(moved, position)) {
+			puzzle.addBlockToBoard(moved, position);
+		}
+		update();
+	}
+	
+	/**
+	 * Called when the opponent has moved on to the next puzzle
+	 */
+	public void onOpponentNewPuzzle() {
+		if (opponent != null) {
+			opponent.newPuzzle();
+			opponentSolved = false;
+			update();
+		}
+	}
+	
+	/**
+	 * Called when the opponent has started their session again. Their copy starts again in
+	 * the same way, so it carries on getting the same puzzles as them.
+	 */
+	public void onOpponentRestart(long seed, int maxSquaresPerLine) {
+		if (opponent != null) {
+			opponent.restart(seed, maxSquaresPerLine);
+			opponentSolved = false;
+			update();
+		}
+	}
+	
+	/**
+	 * Called when the opponent has solved their puzzle
+	 */
+	public void onOpponentSolved() {
+		opponentSolved = true;
+		update();
+	}
+	
+	/**
+	 * Called when the opponent has gone. The user carries on playing on their own.
+	 */
+	public void onOpponentLeft() {
+		Toast.makeText(context, opponent != null ? "Your opponent has left the race" : "The race couldn't be started", Toast.LENGTH_LONG).show();
+		race = null;
+		opponent = null;
+		opponentSolved = false;
+		update();
+	}
+	
+	/**
+	 * If the user can no longer see the puzzle, e.g. they have quit or gone to main menu,
+	 * stop the counter from counting (also called when the puzzle is first shown).
+	 * @param visibility - the visibility of the view's window
+	 */
+	public void onWindowVisibilityChanged(int visibility) {
+		// Make sure we're in timed mode, otherwise we don't need to do anything
+		if (controller.isTimedMode()) {
+			// If we can no longer see the view, stop the timerTask from occurring again.
+			if (visibility == View.GONE) {
+				timeHandler.removeCallbacks(timerTask);
+			}
+			// If the view is now visible, schedule timerTask again.
+			else {
+				timeHandler.removeCallbacks(timerTask);
+				timeHandler.postDelayed(timerTask, 1000);
+			}
+		}
+	}
+	
+	/**
+	 * Called whenever the size of the view changes (including when the puzzle is first shown).
+	 * This makes sure that the puzzle displays correctly when changing orientation or when
+	 * using different devices.
+	 * @param w - the width of the view (pixels)
+	 * @param h - the height of the view (pixels)
+	 */
+	public void onSizeChanged(int w, int h) {
+		controller.setSize(w, h, getScreenWidth());
+		if (recorder != null) {
+			recorder.recordSize(SystemClock.uptimeMillis(), w, h, getScreenWidth());
+		}
+		
+		// If the user can't see the storage area (very rare), tell them to change
+		// to vertical orientation
+		if (controller.getLayout().isStorageHidden() && h > 0) {
+			Toast.makeText(context, "Can't see the blocks? Try turning your phone to portrait", Toast.LENGTH_LONG).show();
+		}
+		update();
+	}
+	
+	/**
+	 * Finds the physical width of the screen, used to decide how many sections to draw
+	 * on each line
+	 * @return the width of the screen (inches)
+	 */
+	private int getScreenWidth() {
+		int widthPixels = context.getResources().getDisplayMetrics().widthPixels;
+		int pixelDensity = context.getResources().getDisplayMetrics().densityDpi;
+		return widthPixels/pixelDensity;
+	}
+	
+	/**
+	 * Called whenever their is a change in how the user is touching the screen
+	 * @param event - the touch event
+	 */
+	public void onTouchEvent(MotionEvent event) {
+		Tracer.begin("onTouchEvent");
+		// Two fingers zoom and pan the board, until every finger has been lifted
+		if (event.getPointerCount() > 1 || pinching) {
+			onPinch(event);
+		}
+		else {
+			passTouch(event.getEventTime(), event.getAction(), event.getX(), event.getY());
+		}
+		
+		// Refresh the screen
+		update();
+		Tracer.end();
+	}
+	
+	/**
+	 * Records a single-finger touch and lets the controller decide what it does
+	 * @param time - when the touch happened (milliseconds)
+	 * @param action - the action of the touch
+	 * @param x - the x coordinate of the touch
+	 * @param y - the y coordinate of the touch
+	 */
+	private void passTouch(long time, int action, float x, float y) {
+		if (recorder != null) {
+			recorder.recordTouch(time, action, x, y);
+		}
+		
+		// Let the controller decide what the touch does
+		controller.onTouch(action, x, y);
+		if (telemetry != null) {
+			telemetry.onTouch(time, action, !controller.isManualSelect() && controller.getSelectedBlock() != null);
+		}
+	}
+	
+	/**
+	 * Zooms and pans the board as the user moves two fingers on the screen. When a second
+	 * finger is put down, any drag the first finger was making is finished where it is.
+	 * @param event - the touch event
+	 */
+	private void onPinch(MotionEvent event) {
+		int action = event.getActionMasked();
+		
+		// Once fewer than two fingers are left, wait for the last to be lifted
+		if (event.getPointerCount() < 2) {
+			if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+				pinching = false;
+			}
+			return;
+		}
+		
+		float x0 = event.getX(0);
+		float y0 = event.getY(0);
+		float focusX = (x0 + event.getX(1)) / 2;
+		float focusY = (y0 + event.getY(1)) / 2;
+		float span = (float) Math.hypot(event.getX(1) - x0, event.getY(1) - y0);
+		
+		if (!pinching) {
+			pinching = true;
+			passTouch(event.getEventTime(), MotionEvent.ACTION_UP, x0, y0);
+		}
+		// Fingers moving zoom by how much further apart they are, and pan by how far the
+		// point between them has moved. Fingers being put down or lifted just start again
+		// from where they now are.
+		else if (action == MotionEvent.ACTION_MOVE) {
+			controller.zoomBoard(lastSpan > 0 ? span / lastSpan : 1, lastFocusX, lastFocusY, focusX - lastFocusX, focusY - lastFocusY);
+			if (recorder != null) {
+				PuzzleLayout layout = controller.getLayout();
+				recorder.recordViewport(event.getEventTime(), layout.zoom, layout.panX, layout.panY);
+			}
+		}
+		lastSpan = span;
+		lastFocusX = focusX;
+		lastFocusY = focusY;
+	}
+	
+	/**
+	 * Simple method to play a sound given its id.
+	 * NOTE: This will give error: "should have subtitle controller already set".
+	 * This should not be classed as an error but it not is not important in this
+	 * context anyway.
+	 * @param id - the id of the sound to be played
+	 */
+	public void playSound(int id) {
+		if (sfxOn) {
+			if (mp != null) {
+				mp.reset();
+				mp.release();
+			}
+			mp = MediaPlayer.create(context, id);
+			mp.start();
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package uk.singlekey.repeata_freak;
+
+import java.util.Arrays;
+
+/**
+ * Everything needed to draw one frame of a puzzle, copied from the controller at a single
+ * moment. Once created it never changes, so it can be drawn on any thread while the user
+ * carries on playing on the UI thread.
+ *
+ * Blocks are shared rather than copied, as the colors of a block never change while it is
+ * in play; only where they are is copied. The controller only reuses a puzzle's blocks for
+ * the round after next, by which time its snapshots have long been drawn.
+ *
+ * Taking a snapshot mustn't cost more the bigger the board is, as one is taken for every
+ * touch event. So the board, storage area, layout and drop targets are only copied when they
+ * have changed since the last snapshot; otherwise the last snapshot's copies are shared, as
+ * nothing ever changes them.
+ *
+ * The fields are read directly by PuzzleRenderer, in the same way as PuzzleLayout's.
+ *
+ * @author Samuel O'Sullivan
+ */
+public final class PuzzleSnapshot {
+	
+	/**
+	 * A block sliding into the place it has been moved to
+	 */
+	static final class Move {
+		
+		// The block that is moving
+		final Block block;
+		
+		// Where the block is now, on the board or in storage (-1 if it isn't there)
+		final int boardPosition;
+		final int storagePosition;
+		
+		// Where the block is drawn from and to (pixels)
+		final float fromX, fromY, toX, toY;
+		
+		// When the block started moving (System.nanoTime)
+		final long startTime;
+		
+		Move(Block block, int boardPosition, int storagePosition, float fromX, float fromY, float toX, float toY, long startTime) {
+			this.block = block;
+			this.boardPosition = boardPosition;
+			this.storagePosition = storagePosition;
+			this.fromX = fromX;
+			this.fromY = fromY;
+			this.toX = toX;
+			this.toY = toY;
+			this.startTime = startTime;
+		}
+	}
+	
+	/**
+	 * The squares of a puzzle's board, copied packed as the puzzle holds them
+	 */
+	static final class Board {
+		
+		// The puzzle that was copied, and its version when it was copied
+		private final Puzzle puzzle;
+		private final int version;
+		
+		// The amount of squares on the board
+		final int length;
+		
+		// The color of every square, and which squares are occupied (see Puzzle)
+		private final long[] squares;
+		private final long[] occupied;
+		
+		private Board(Puzzle puzzle) {
+			this.puzzle = puzzle;
+			this.version = puzzle.getVersion();
+			this.length = puzzle.getLength();
+			this.squares = puzzle.copySquares();
+			this.occupied = puzzle.copyOccupied();
+		}
+		
+		/**
+		 * Copies a puzzle's board, unless a copy already made is still up to date
+		 * @param puzzle - the puzzle to copy
+		 * @param last - the last copy made, or null if there isn't one
+		 * @return a copy of the puzzle's board
+		 */
+		static Board of(Puzzle puzzle, Board last) {
+			if (last != null && last.puzzle == puzzle && last.version == puzzle.getVersion()) {
+				return last;
+			}
+			return new Board(puzzle);
+		}
+		
+		/**
+		 * @return true if this is a copy of the puzzle as it is now
+		 */
+		boolean isCopyOf(Puzzle puzzle) {
+			return this.puzzle == puzzle && this.version == puzzle.getVersion();
+		}
+		
+		/**
+		 * @param position - a square of the board
+		 * @return the color index of the square, or Puzzle.EMPTY
+		 */
+		int getSquare(int position) {
+			if (!Bits.get(occupied, position)) {
+				return Puzzle.EMPTY;
+			}
+			return Bits.getSquare(squares, position);
+		}
+	}
+	
+	// Where everything is shown on the screen
+	final PuzzleLayout layout;
+	
+	// The color of each index of the puzzle's palette
+	final int[] palette;
+	
+	// The squares of the board
+	final Board board;
+	
+	// The blocks in the storage area, top first
+	final Block[] storage;
+	
+	// Where the selected block is: its size, and its position on the board or in storage
+	// (-1 if it isn't there). The size is 0 if no block is selected.
+	final int selectedSize;
+	final int selectedBoardPosition;
+	final int selectedStoragePosition;
+	
+	// Every position the selected block could be moved to, or null if no block is selected
+	final long[] dropTargets;
+	
+	// The block being dragged and where it is, or null if there isn't one
+	final Block draggedBlock;
+	final float dragX, dragY;
+	
+	// The state of the game
+	final boolean solved;
+	final boolean deadEnd;
+	final boolean timedMode;
+	final int timeCounter;
+	final int solvedCounter;
+	
+	// The best score to show at the end of a round, or -1 if it isn't known
+	final int bestScore;
+	
+	// The blocks that are still sliding into place
+	final Move[] moves;
+	
+	// When the puzzle was last solved, for the solved wave (System.nanoTime)
+	final long solvedTime;
+	
+	// The squares of the opponent's board in a race, or null if there isn't a race, and
+	// whether they have solved it
+	final Board opponentBoard;
+	final boolean opponentSolved;
+	
+	/**
+	 * Copies the state of a game. Must be called on the thread that the game is played on.
+	 * @param controller - the game to copy
+	 * @param palette - the color of each index of the puzzle's palette (not copied, so it
+	 * 		mustn't be changed afterwards)
+	 * @param bestScore - the best score to show at the end of a round, or -1 if it isn't known
+	 * @param animator - the animations that are running
+	 * @param opponent - the opponent's puzzle in a race, or null if there isn't a race
+	 * @param opponentSolved - true if the opponent has solved their puzzle
+	 * @param now - the time now (System.nanoTime)
+	 * @param last - the last snapshot taken of the game, whose copies are shared where
+	 * 		nothing has changed, or null
+	 */
+	public PuzzleSnapshot(PuzzleController controller, int[] palette, int bestScore, BlockAnimator animator, Puzzle opponent, boolean opponentSolved, long now, PuzzleSnapshot last) {
+		Puzzle puzzle = controller.getPuzzle();
+		if (last != null && last.layout.matches(controller.getLayout())) {
+			this.layout = last.layout;
+		}
+		else {
+			this.layout = new PuzzleLayout(controller.getLayout());
+		}
+		this.palette = palette;
+		
+		// The storage area only changes when the board does
+		if (last != null && last.board.isCopyOf(puzzle)) {
+			this.board = last.board;
+			this.storage = last.storage;
+		}
+		else {
+			this.board = new Board(puzzle);
+			this.storage = new Block[puzzle.getStorageSize()];
+			for (int i = 0; i < storage.length; i++) {
+				storage[i] = puzzle.getBlockFromStorage(i);
+			}
+		}
+		
+		Block selected = controller.getSelectedBlock();
+		if (selected != null) {
+			this.selectedSize = selected.getSize();
+			this.selectedBoardPosition = selected.getBoardPosition();
+			this.selectedStoragePosition = selected.getBoardPosition() == -1 ? puzzle.getBlockStoragePosition(selected) : -1;
+			long[] targets = controller.getDropTargets();
+			this.dropTargets = last != null && Arrays.equals(last.dropTargets, targets) ? last.dropTargets : targets.clone();
+		}
+		else {
+			this.selectedSize = 0;
+			this.selectedBoardPosition = -1;
+			this.selectedStoragePosition = -1;
+			this.dropTargets = null;
+		}
+		
+		if (controller.isShowingSelectedBlock()) {
+			this.draggedBlock = selected;
+			this.dragX = controller.getDragCoords()[0];
+			this.dragY = controller.getDragCoords()[1];
+		}
+		else {
+			this.draggedBlock = null;
+			this.dragX = 0;
+			this.dragY = 0;
+		}
+		
+		this.solved = controller.isSolved();
+		this.deadEnd = controller.isDeadEnd();
+		this.timedMode = controller.isTimedMode();
+		this.timeCounter = controller.getTimeCounter();
+		this.solvedCounter = controller.getSolvedCounter();
+		this.bestScore = bestScore;
+		this.moves = animator.capture(puzzle, controller.getLayout(), now);
+		this.solvedTime = animator.getSolvedTime();
+		
+		if (opponent != null) {
+			this.opponentBoard = Board.of(opponent, last != null ? last.opponentBoard : null);
+		}
+		else {
+			this.opponentBoard = null;
+		}
+		this.opponentSolved = opponentSolved;
+	}
+}
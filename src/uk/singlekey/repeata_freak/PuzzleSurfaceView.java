@@ -0,0 +1,229 @@
+package uk.singlekey.repeata_freak;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.MotionEvent;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+/**
+ * Another way of displaying a puzzle, chosen in the preferences. Touches are still handled on
+ * the UI thread, but drawing happens on a render thread of its own, one frame per vsync, so a
+ * slow frame never holds up the next touch.
+ *
+ * The two threads share nothing but the latest snapshot of the game: the UI thread replaces
+ * it after every change, and the render thread draws whichever snapshot is newest when a
+ * frame starts. Snapshots never change, so no locking is needed.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class PuzzleSurfaceView extends SurfaceView implements PuzzleScreen.Display, SurfaceHolder.Callback {
+	
+	// Runs the game and takes snapshots of it
+	private PuzzleScreen screen;
+	
+	// Draws the snapshots (only used on the render thread)
+	private PuzzleRenderer renderer;
+	
+	// The latest snapshot of the game, replaced on the UI thread and drawn on the render thread
+	private volatile PuzzleSnapshot snapshot;
+	
+	// Draws frames while there is a surface to draw on, otherwise null
+	private RenderThread renderThread;
+	
+	/**
+	 * Constructor for the PuzzleSurfaceView class
+	 * @param context
+	 * @param controller - the game session to display
+	 * @param sfx - true if the user wants sound effects, false otherwise
+	 */
+	public PuzzleSurfaceView(Context context, PuzzleController controller, boolean sfx) {
+		super(context);
+		this.renderer = new PuzzleRenderer(getResources());
+		getHolder().addCallback(this);
+		this.screen = new PuzzleScreen(context, controller, sfx, this);
+	}
+	
+	/**
+	 * @return the screen being shown, used to record it and keep its scores
+	 */
+	public PuzzleScreen getScreen() {
+		return this.screen;
+	}
+	
+	/**
+	 * Called by the screen whenever something has changed
+	 */
+	public void show(PuzzleSnapshot snapshot) {
+		this.snapshot = snapshot;
+		if (renderThread != null) {
+			renderThread.requestFrame(false);
+		}
+	}
+	
+	/**
+	 * Starts drawing once there is a surface to draw on
+	 */
+	public void surfaceCreated(SurfaceHolder holder) {
+		renderThread = new RenderThread(holder);
+		renderThread.start();
+		renderThread.handler = new Handler(renderThread.getLooper());
+	}
+	
+	/**
+	 * The surface has been resized, so everything has to be drawn again
+	 */
+	public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+		renderThread.requestFrame(true);
+	}
+	
+	/**
+	 * Stops drawing, waiting for the frame being drawn to finish, as the surface can't be
+	 * used once this returns
+	 */
+	public void surfaceDestroyed(SurfaceHolder holder) {
+		renderThread.finish();
+		renderThread = null;
+	}
+	
+	/**
+	 * If the user can no longer see the puzzle, e.g. they have quit or gone to main menu,
+	 * stop the counter from counting (also called when the puzzle is first shown).
+	 */
+	@Override
+	protected void onWindowVisibilityChanged(int visibility) {
+		screen.onWindowVisibilityChanged(visibility);
+		super.onWindowVisibilityChanged(visibility);
+	}
+	
+	/**
+	 * Called whenever the screen size changes (including when the puzzle is first created).
+	 */
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		screen.onSizeChanged(w, h);
+		super.onSizeChanged(w, h, oldw, oldh);
+	}
+	
+	/**
+	 * Called whenever their is a change in how the user is touching the screen
+	 */
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		screen.onTouchEvent(event);
+		return true;
+	}
+	
+	/**
+	 * Draws the latest snapshot at the start of each frame, if it hasn't already been drawn
+	 */
+	private class RenderThread extends HandlerThread implements FrameScheduler.Callback {
+		
+		// The surface being drawn on
+		private SurfaceHolder holder;
+		
+		// Runs tasks on the render thread (set by the UI thread once the thread has started)
+		private Handler handler;
+		
+		// Paces the frames to the display (created on the render thread)
+		private FrameScheduler scheduler;
+		
+		// The snapshot on the surface, or null if the surface needs to be drawn again
+		private PuzzleSnapshot drawn;
+		
+		// Whether the snapshot on the surface has an animation that is still running
+		private boolean animating;
+		
+		// Whether the last frame was skipped for being late
+		private boolean skipped;
+		
+		/**
+		 * Asks for a frame
+		 */
+		private Runnable requestTask = new Runnable() {
+			public void run() {
+				scheduler.scheduleFrame();
+			}
+		};
+		
+		/**
+		 * Asks for a frame that draws everything again, even if nothing has changed
+		 */
+		private Runnable redrawTask = new Runnable() {
+			public void run() {
+				drawn = null;
+				scheduler.scheduleFrame();
+			}
+		};
+		
+		RenderThread(SurfaceHolder holder) {
+			super("PuzzleRenderThread");
+			this.holder = holder;
+		}
+		
+		@Override
+		protected void onLooperPrepared() {
+			scheduler = new FrameScheduler(getLooper(), this);
+		}
+		
+		/**
+		 * Asks for the latest snapshot to be drawn on the next frame. Called on the UI thread.
+		 * @param redraw - true if the surface has to be drawn again even if nothing has changed
+		 */
+		void requestFrame(boolean redraw) {
+			handler.post(redraw ? redrawTask : requestTask);
+		}
+		
+		/**
+		 * Stops the thread, and waits for it to stop. Called on the UI thread.
+		 */
+		void finish() {
+			quit();
+			boolean interrupted = false;
+			while (isAlive()) {
+				try {
+					join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		public void onFrame(long frameTimeNanos) {
+			PuzzleSnapshot frame = snapshot;
+			if (frame == drawn && !animating) {
+				return;
+			}
+			// If only an animation has changed and this frame is already late, skip it rather
+			// than making the next frame late as well (but never skip two in a row, so the
+			// animation still finishes under load)
+			if (frame == drawn && !skipped && FrameScheduler.isLate(frameTimeNanos)) {
+				skipped = true;
+				scheduler.scheduleFrame();
+				return;
+			}
+			skipped = false;
+			Canvas canvas = holder.lockCanvas();
+			if (canvas == null) {
+				// The surface has gone, and the thread is about to be stopped
+				return;
+			}
+			Tracer.begin("drawFrame");
+			try {
+				animating = renderer.draw(canvas, frame, frameTimeNanos);
+			} finally {
+				holder.unlockCanvasAndPost(canvas);
+				Tracer.end();
+			}
+			drawn = frame;
+			if (animating) {
+				scheduler.scheduleFrame();
+			}
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package uk.singlekey.repeata_freak;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import android.os.Handler;
+
+/**
+ * Races someone else through a RaceRelay: joins a race, sends the player's moves and passes
+ * on the opponent's (see RaceProtocol).
+ *
+ * The connection is used by two threads of its own, so nothing here ever waits for the
+ * network on the UI thread. Moves are put in a buffer, and the writer sends everything in the
+ * buffer in one write as soon as there is anything, so moves made while a write is going out
+ * are sent together in the next one, without waiting for anything to come back. Nagle's
+ * algorithm is turned off, so a move is never held back waiting for more.
+ *
+ * The reader hands everything that arrived together to the Listener in one go, on the thread
+ * of the Handler given (or on the reader itself if there isn't one).
+ *
+ * @author Samuel O'Sullivan
+ */
+public class RaceClient {
+	
+	/**
+	 * Told about the race. Called on the Handler's thread.
+	 */
+	public interface Listener {
+		
+		/**
+		 * Called once an opponent has been found
+		 * @param seed - the session seed both players start from
+		 * @param maxSquaresPerLine - the max squares per line both players' puzzles use
+		 */
+		void onRaceStart(long seed, int maxSquaresPerLine);
+		
+		/**
+		 * Called when the opponent has moved a block
+		 * @param block - the index of the block in the solution
+		 * @param position - where the block now is on the board, or -1 if it is in storage
+		 */
+		void onOpponentMove(int block, int position);
+		
+		/**
+		 * Called when the opponent has moved on to the next puzzle
+		 */
+		void onOpponentNewPuzzle();
+		
+		/**
+		 * Called when the opponent has started their session again, e.g. for a new round
+		 * @param seed - the seed they restarted from
+		 * @param maxSquaresPerLine - the max squares per line they restarted with
+		 */
+		void onOpponentRestart(long seed, int maxSquaresPerLine);
+		
+		/**
+		 * Called when the opponent has solved their puzzle
+		 */
+		void onOpponentSolved();
+		
+		/**
+		 * Called when the opponent has gone, or the relay can't be reached. Nothing more
+		 * is heard about the race after this.
+		 */
+		void onOpponentLeft();
+	}
+	
+	// The size of the buffers each way (bytes)
+	private static final int BUFFER_SIZE = 4096;
+	
+	// Where the relay is
+	private final String host;
+	private final int port;
+	
+	// Told about the race, on the handler's thread if there is one
+	private final Listener listener;
+	private final Handler handler;
+	
+	// The connection to the relay, which is closed to stop the reader
+	private final SocketChannel channel;
+	
+	// Messages waiting to be sent, and messages being sent (only used by the writer).
+	// outgoing is guarded by lock.
+	private final ByteBuffer outgoing = ByteBuffer.allocate(BUFFER_SIZE);
+	private final ByteBuffer sending = ByteBuffer.allocate(BUFFER_SIZE);
+	
+	// Whole messages read but not yet given to the listener, and whether delivering them has
+	// been posted to the handler. Guarded by lock.
+	private final ByteBuffer received = ByteBuffer.allocate(BUFFER_SIZE);
+	private boolean deliveryPosted;
+	
+	// Messages being given to the listener (only used by whichever thread that is on)
+	private final ByteBuffer delivering = ByteBuffer.allocate(BUFFER_SIZE);
+	
+	// Whether the race has finished. Guarded by lock.
+	private boolean finished;
+	
+	private final Object lock = new Object();
+	
+	// Gives everything received to the listener
+	private final Runnable delivery = new Runnable() {
+		public void run() {
+			deliver();
+		}
+	};
+	
+	/**
+	 * Constructor for the RaceClient class. Nothing happens until join() is called.
+	 * @param host - the host name of the relay
+	 * @param port - the port the relay listens on
+	 * @param listener - told about the race
+	 * @param handler - where the listener is called, or null to call it on the reader thread
+	 * @throws IOException if a connection can't be created
+	 */
+	public RaceClient(String host, int port, Listener listener, Handler handler) throws IOException {
+		this.host = host;
+		this.port = port;
+		this.listener = listener;
+		this.handler = handler;
+		this.channel = SocketChannel.open();
+	}
+	
+	/**
+	 * Connects to the relay and asks for an opponent playing the same race
+	 * @param difficulty - the difficulty being played
+	 * @param colors - the amount of colors being played with
+	 * @param maxSquaresPerLine - the most squares this screen fits on a line
+	 */
+	public void join(int difficulty, int colors, int maxSquaresPerLine) {
+		synchronized (lock) {
+			RaceProtocol.putJoin(outgoing, difficulty, colors, maxSquaresPerLine);
+		}
+		Thread reader = new Thread("RaceReader") {
+			public void run() {
+				read();
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+	}
+	
+	/**
+	 * Sends a move. Never waits for the network; if so much is waiting to be sent that there
+	 * isn't room for the move, the connection is too far behind to race on and the move is
+	 * dropped.
+	 * @param block - the index of the block in the solution
+	 * @param position - where the block now is on the board, or -1 if it is in storage
+	 */
+	public void sendMove(int block, int position) {
+		synchronized (lock) {
+			if (outgoing.remaining() >= RaceProtocol.sizeOf(RaceProtocol.MOVE)) {
+				RaceProtocol.putMove(outgoing, block, position);
+				lock.notify();
+			}
+		}
+	}
+	
+	/**
+	 * Sends that the session has been started again, in the same way as sendMove
+	 * @param seed - the seed the session was restarted from
+	 * @param maxSquaresPerLine - the max squares per line it was restarted with
+	 */
+	public void sendRestart(long seed, int maxSquaresPerLine) {
+		synchronized (lock) {
+			if (outgoing.remaining() >= RaceProtocol.sizeOf(RaceProtocol.RESTART)) {
+				RaceProtocol.putRestart(outgoing, seed, maxSquaresPerLine);
+				lock.notify();
+			}
+		}
+	}
+	
+	/**
+	 * Sends a message without a payload (NEW_PUZZLE or SOLVED), in the same way as sendMove
+	 * @param type - the type of the message
+	 */
+	public void send(int type) {
+		synchronized (lock) {
+			if (outgoing.remaining() >= 1) {
+				RaceProtocol.put(outgoing, type);
+				lock.notify();
+			}
+		}
+	}
+	
+	/**
+	 * Leaves the race, closing the connection. The listener isn't told anything more.
+	 */
+	public void finish() {
+		synchronized (lock) {
+			finished = true;
+			lock.notify();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Closed anyway
+		}
+	}
+	
+	/**
+	 * Run on the reader thread: connects, starts the writer and reads until the connection
+	 * is closed
+	 */
+	private void read() {
+		ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+		try {
+			channel.connect(new InetSocketAddress(host, port));
+			channel.socket().setTcpNoDelay(true);
+			Thread writer = new Thread("RaceWriter") {
+				public void run() {
+					write();
+				}
+			};
+			writer.setDaemon(true);
+			writer.start();
+			
+			while (channel.read(in) != -1) {
+				in.flip();
+				int length = RaceProtocol.completeLength(in);
+				if (length == -1) {
+					break;
+				}
+				received(in, length);
+				in.compact();
+			}
+		} catch (IOException e) {
+			// The race is over either way
+		} catch (InterruptedException e) {
+			// As above
+		}
+		
+		// Tell the listener, unless we were the ones to leave
+		synchronized (lock) {
+			if (finished) {
+				return;
+			}
+			finished = true;
+			lock.notify();
+		}
+		in.clear();
+		RaceProtocol.put(in, RaceProtocol.LEFT);
+		in.flip();
+		try {
+			received(in, 1);
+		} catch (InterruptedException e) {
+			// Finishing anyway
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Closed anyway
+		}
+	}
+	
+	/**
+	 * Passes whole messages from the reader to the listener, waiting if the listener is so
+	 * far behind there isn't room for them
+	 * @param in - holds the messages from its position
+	 * @param length - the size of the messages (bytes)
+	 */
+	private void received(ByteBuffer in, int length) throws InterruptedException {
+		if (handler == null) {
+			int limit = in.limit();
+			in.limit(in.position() + length);
+			synchronized (lock) {
+				received.put(in);
+			}
+			in.limit(limit);
+			deliver();
+			return;
+		}
+		
+		int limit = in.limit();
+		while (length > 0) {
+			synchronized (lock) {
+				while (received.remaining() == 0) {
+					lock.wait();
+				}
+				int chunk = Math.min(length, received.remaining());
+				in.limit(in.position() + chunk);
+				received.put(in);
+				length -= chunk;
+				if (!deliveryPosted) {
+					deliveryPosted = true;
+					handler.post(delivery);
+				}
+			}
+			in.limit(limit);
+		}
+	}
+	
+	/**
+	 * Gives every whole message received to the listener
+	 */
+	private void deliver() {
+		// Copy the messages out, so that the listener is called without holding the lock
+		ByteBuffer messages = delivering;
+		messages.clear();
+		synchronized (lock) {
+			deliveryPosted = false;
+			received.flip();
+			int length = RaceProtocol.completeLength(received);
+			int limit = received.limit();
+			received.limit(length);
+			messages.put(received);
+			received.limit(limit);
+			received.compact();
+			lock.notifyAll();
+		}
+		messages.flip();
+		
+		while (messages.hasRemaining()) {
+			int type = messages.get();
+			switch (type) {
+			case RaceProtocol.START:
+				long seed = messages.getLong();
+				listener.onRaceStart(seed, messages.get() & 0xFF);
+				break;
+			case RaceProtocol.MOVE:
+				int block = messages.getShort() & 0xFFFF;
+				listener.onOpponentMove(block, messages.getShort());
+				break;
+			case RaceProtocol.NEW_PUZZLE:
+				listener.onOpponentNewPuzzle();
+				break;
+			case RaceProtocol.RESTART:
+				long restartSeed = messages.getLong();
+				listener.onOpponentRestart(restartSeed, messages.get() & 0xFF);
+				break;
+			case RaceProtocol.SOLVED:
+				listener.onOpponentSolved();
+				break;
+			case RaceProtocol.LEFT:
+				listener.onOpponentLeft();
+				break;
+			default:
+				// Only the relay reads JOIN
+				messages.position(messages.position() + RaceProtocol.sizeOf(type) - 1);
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Run on the writer thread: sends whatever is waiting until finished
+	 */
+	private void write() {
+		try {
+			while (true) {
+				synchronized (lock) {
+					while (!finished && outgoing.position() == 0) {
+						lock.wait();
+					}
+					if (finished) {
+						return;
+					}
+					outgoing.flip();
+					sending.clear();
+					sending.put(outgoing);
+					outgoing.clear();
+				}
+				sending.flip();
+				while (sending.hasRemaining()) {
+					channel.write(sending);
+				}
+			}
+		} catch (IOException e) {
+			// The reader finds out the connection has gone
+		} catch (InterruptedException e) {
+			// As above
+		}
+	}
+}
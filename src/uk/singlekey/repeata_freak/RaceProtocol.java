@@ -0,0 +1,159 @@
+package uk.singlekey.repeata_freak;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The messages sent between RaceClients and a RaceRelay during a race.
+ *
+ * Every message is a type (byte) followed by a payload whose size depends only on the type,
+ * so there are no lengths to send and any number of messages can be sent in one write:
+ * 		JOIN        difficulty (byte), colors (byte), max squares per line (byte)
+ * 		START       session seed (long), max squares per line (byte)
+ * 		MOVE        block index (unsigned short), board position (short, -1 for storage)
+ * 		RESTART     session seed (long), max squares per line (byte)
+ * 		NEW_PUZZLE, SOLVED, LEFT    nothing
+ * A client sends JOIN, the relay answers with START once it has found an opponent, and from
+ * then on the relay passes MOVE, NEW_PUZZLE, SOLVED and RESTART to the opponent as they are.
+ * LEFT is sent by the relay when the opponent has gone. Numbers are big-endian.
+ *
+ * @author Samuel O'Sullivan
+ */
+public final class RaceProtocol {
+	
+	// The port a relay listens on, if not chosen
+	public static final int DEFAULT_PORT = 7177;
+	
+	/**
+	 * Sent by a client to ask for an opponent playing the same difficulty and colors
+	 */
+	public static final int JOIN = 1;
+	
+	/**
+	 * Sent by the relay to both players once they have been paired: the session seed both
+	 * start from, and the max squares per line that fits both screens
+	 */
+	public static final int START = 2;
+	
+	/**
+	 * A block has been moved. The block is its index in the solution (see Puzzle.getBlock).
+	 */
+	public static final int MOVE = 3;
+	
+	/**
+	 * The player has moved on to the next puzzle of the session
+	 */
+	public static final int NEW_PUZZLE = 4;
+	
+	/**
+	 * The player has solved the puzzle
+	 */
+	public static final int SOLVED = 5;
+	
+	/**
+	 * Sent by the relay when the opponent has disconnected
+	 */
+	public static final int LEFT = 6;
+	
+	/**
+	 * The player has started their session again from a new seed, e.g. a new round in timed
+	 * mode: the seed and the max squares per line it was restarted with
+	 */
+	public static final int RESTART = 7;
+	
+	// The size of each type of message, including the type (bytes)
+	private static final int[] SIZES = { 0, 4, 10, 5, 1, 1, 1, 10 };
+	
+	private RaceProtocol() {
+	}
+	
+	/**
+	 * @param type - the type of a message
+	 * @return the size of a message of that type (bytes), or -1 if there is no such type
+	 */
+	public static int sizeOf(int type) {
+		return type > 0 && type < SIZES.length ? SIZES[type] : -1;
+	}
+	
+	/**
+	 * Finds how many of the bytes waiting to be read from a buffer make up whole messages.
+	 * The buffer isn't changed.
+	 * @param buffer - messages from its position to its limit, the last of which may not
+	 * 		have arrived completely yet
+	 * @return the amount of bytes of whole messages, or -1 if the buffer holds something
+	 * 		that isn't a message
+	 */
+	public static int completeLength(ByteBuffer buffer) {
+		int start = buffer.position();
+		int i = start;
+		while (i < buffer.limit()) {
+			int size = sizeOf(buffer.get(i));
+			if (size == -1) {
+				return -1;
+			}
+			if (i + size > buffer.limit()) {
+				break;
+			}
+			i += size;
+		}
+		return i - start;
+	}
+	
+	/**
+	 * Adds a JOIN message to a buffer
+	 * @param buffer - where to put the message
+	 * @param difficulty - the difficulty the player is playing
+	 * @param colors - the amount of colors the player is playing with
+	 * @param maxSquaresPerLine - the most squares the player's screen fits on a line
+	 */
+	public static void putJoin(ByteBuffer buffer, int difficulty, int colors, int maxSquaresPerLine) {
+		buffer.put((byte) JOIN);
+		buffer.put((byte) difficulty);
+		buffer.put((byte) colors);
+		buffer.put((byte) Math.min(maxSquaresPerLine, 0xFF));
+	}
+	
+	/**
+	 * Adds a START message to a buffer
+	 * @param buffer - where to put the message
+	 * @param seed - the session seed both players start from
+	 * @param maxSquaresPerLine - the most squares both screens fit on a line
+	 */
+	public static void putStart(ByteBuffer buffer, long seed, int maxSquaresPerLine) {
+		buffer.put((byte) START);
+		buffer.putLong(seed);
+		buffer.put((byte) maxSquaresPerLine);
+	}
+	
+	/**
+	 * Adds a RESTART message to a buffer
+	 * @param buffer - where to put the message
+	 * @param seed - the seed the session was restarted from
+	 * @param maxSquaresPerLine - the max squares per line the session was restarted with
+	 */
+	public static void putRestart(ByteBuffer buffer, long seed, int maxSquaresPerLine) {
+		buffer.put((byte) RESTART);
+		buffer.putLong(seed);
+		buffer.put((byte) maxSquaresPerLine);
+	}
+	
+	/**
+	 * Adds a MOVE message to a buffer
+	 * @param buffer - where to put the message
+	 * @param block - the index of the block in the solution
+	 * @param position - where the block now is on the board, or -1 if it is in storage
+	 */
+	public static void putMove(ByteBuffer buffer, int block, int position) {
+		buffer.put((byte) MOVE);
+		buffer.putShort((short) block);
+		buffer.putShort((short) position);
+	}
+	
+	/**
+	 * Adds a message without a payload (NEW_PUZZLE, SOLVED or LEFT) to a buffer
+	 * @param buffer - where to put the message
+	 * @param type - the type of the message
+	 */
+	public static void put(ByteBuffer buffer, int type) {
+		buffer.put((byte) type);
+	}
+}
@@ -0,0 +1,357 @@
+package uk.singlekey.repeata_freak;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Pairs up players who want to race and passes each player's moves on to their opponent
+ * (see RaceProtocol). Players are paired with the first other player waiting for the same
+ * difficulty and colors.
+ *
+ * Every connection is handled on a single thread with non-blocking channels and a Selector,
+ * so a relay needs no thread per player and can run thousands of races at once. Each
+ * connection has a fixed buffer each way. Whatever arrives from a player is passed on in
+ * one write as soon as it has been read, without waiting for anything from the other side.
+ * An opponent that falls so far behind that its buffer fills up is disconnected.
+ *
+ * Usage: RaceRelay [-port n]
+ *
+ * @author Samuel O'Sullivan
+ */
+public class RaceRelay implements Runnable {
+	
+	// The size of the buffers of each connection (bytes)
+	private static final int IN_SIZE = 1024;
+	private static final int OUT_SIZE = 4096;
+	
+	/**
+	 * A connected player
+	 */
+	private static class Player {
+		
+		// The connection to the player
+		final SocketChannel channel;
+		final SelectionKey key;
+		
+		// What has been read from the player but not handled yet, and what is waiting to be
+		// written to them. Both are kept ready to be filled.
+		final ByteBuffer in = ByteBuffer.allocate(IN_SIZE);
+		final ByteBuffer out = ByteBuffer.allocate(OUT_SIZE);
+		
+		// Whether the player has sent JOIN, and what they sent
+		boolean joined;
+		int settings;
+		int maxSquaresPerLine;
+		
+		// Who the player is racing, or null if they haven't been paired yet
+		Player opponent;
+		
+		Player(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+	}
+	
+	// Tells us which connections are ready
+	private final Selector selector;
+	
+	// Accepts new connections
+	private final ServerSocketChannel server;
+	
+	// The player waiting for an opponent for each difficulty and amount of colors
+	private final HashMap<Integer, Player> waiting = new HashMap<Integer, Player>();
+	
+	// The players that have been sent something since they were last written to
+	private final ArrayList<Player> toFlush = new ArrayList<Player>();
+	
+	// Gives the session seed of each race
+	private final Random seeds = new Random();
+	
+	// The amount of players connected and races being run
+	private int players;
+	private int races;
+	
+	// Set when the relay should stop
+	private volatile boolean finished;
+	
+	/**
+	 * Opens a relay, ready to be run
+	 * @param port - the port to listen on, or 0 for any free port
+	 * @throws IOException if the port can't be listened on
+	 */
+	public RaceRelay(int port) throws IOException {
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.configureBlocking(false);
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress(port), 1024);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+	
+	/**
+	 * @return the port the relay is listening on
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+	
+	/**
+	 * @return the amount of players connected
+	 */
+	public synchronized int getPlayers() {
+		return players;
+	}
+	
+	/**
+	 * @return the amount of races being run
+	 */
+	public synchronized int getRaces() {
+		return races;
+	}
+	
+	/**
+	 * Runs the relay until finished
+	 */
+	public void run() {
+		try {
+			while (!finished) {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					}
+					else {
+						Player player = (Player) key.attachment();
+						if (key.isReadable()) {
+							read(player);
+						}
+						if (key.isValid() && key.isWritable()) {
+							flush(player);
+						}
+					}
+				}
+				
+				// Pass on everything read this time round in one write per player
+				for (int i = 0; i < toFlush.size(); i++) {
+					flush(toFlush.get(i));
+				}
+				toFlush.clear();
+			}
+		} catch (IOException e) {
+			System.err.println("Relay stopped: " + e);
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				try {
+					key.channel().close();
+				} catch (IOException e) {
+					// Closing anyway
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// As above
+			}
+		}
+	}
+	
+	/**
+	 * Stops the relay, disconnecting every player
+	 */
+	public void finish() {
+		finished = true;
+		selector.wakeup();
+	}
+	
+	/**
+	 * Accepts every connection waiting
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = server.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new Player(channel, key));
+			synchronized (this) {
+				players++;
+			}
+		}
+	}
+	
+	/**
+	 * Reads what a player has sent and handles every whole message
+	 */
+	private void read(Player player) {
+		int read;
+		try {
+			read = player.channel.read(player.in);
+		} catch (IOException e) {
+			read = -1;
+		}
+		if (read == -1) {
+			disconnect(player);
+			return;
+		}
+		
+		player.in.flip();
+		int length = RaceProtocol.completeLength(player.in);
+		if (length == -1) {
+			disconnect(player);
+			return;
+		}
+		int end = player.in.position() + length;
+		while (player.in.position() < end) {
+			int type = player.in.get(player.in.position());
+			if (type == RaceProtocol.JOIN) {
+				player.in.get();
+				join(player, player.in.get(), player.in.get(), player.in.get() & 0xFF);
+			}
+			else if (player.opponent != null && (type == RaceProtocol.MOVE || type == RaceProtocol.NEW_PUZZLE || type == RaceProtocol.SOLVED || type == RaceProtocol.RESTART)) {
+				forward(player, RaceProtocol.sizeOf(type));
+			}
+			else {
+				// Nothing to do with it before the race has started
+				player.in.position(player.in.position() + RaceProtocol.sizeOf(type));
+			}
+		}
+		player.in.compact();
+	}
+	
+	/**
+	 * Pairs a player with whoever is waiting for the same race, or makes them wait
+	 */
+	private void join(Player player, int difficulty, int colors, int maxSquaresPerLine) {
+		if (player.joined) {
+			return;
+		}
+		player.joined = true;
+		player.settings = (difficulty & 0xFF) << 8 | (colors & 0xFF);
+		player.maxSquaresPerLine = maxSquaresPerLine;
+		
+		Player opponent = waiting.remove(player.settings);
+		if (opponent == null) {
+			waiting.put(player.settings, player);
+			return;
+		}
+		player.opponent = opponent;
+		opponent.opponent = player;
+		synchronized (this) {
+			races++;
+		}
+		
+		long seed = seeds.nextLong();
+		int maxSquares = Math.max(1, Math.min(player.maxSquaresPerLine, opponent.maxSquaresPerLine));
+		RaceProtocol.putStart(player.out, seed, maxSquares);
+		RaceProtocol.putStart(opponent.out, seed, maxSquares);
+		toFlush.add(player);
+		toFlush.add(opponent);
+	}
+	
+	/**
+	 * Copies the next message from a player to their opponent
+	 * @param size - the size of the message
+	 */
+	private void forward(Player player, int size) {
+		Player opponent = player.opponent;
+		if (opponent.out.remaining() < size) {
+			player.in.position(player.in.position() + size);
+			disconnect(opponent);
+			return;
+		}
+		if (opponent.out.position() == 0) {
+			toFlush.add(opponent);
+		}
+		int limit = player.in.limit();
+		player.in.limit(player.in.position() + size);
+		opponent.out.put(player.in);
+		player.in.limit(limit);
+	}
+	
+	/**
+	 * Writes as much as possible of what is waiting to be sent to a player, and waits for
+	 * the connection to be ready for the rest
+	 */
+	private void flush(Player player) {
+		if (!player.key.isValid()) {
+			return;
+		}
+		player.out.flip();
+		try {
+			player.channel.write(player.out);
+		} catch (IOException e) {
+			player.out.compact();
+			disconnect(player);
+			return;
+		}
+		player.out.compact();
+		player.key.interestOps(player.out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+	
+	/**
+	 * Closes a player's connection, telling their opponent they have gone
+	 */
+	private void disconnect(Player player) {
+		if (!player.key.isValid()) {
+			return;
+		}
+		player.key.cancel();
+		try {
+			player.channel.close();
+		} catch (IOException e) {
+			// Closed anyway
+		}
+		if (waiting.get(player.settings) == player) {
+			waiting.remove(player.settings);
+		}
+		Player opponent = player.opponent;
+		if (opponent != null) {
+			opponent.opponent = null;
+			player.opponent = null;
+			if (opponent.out.remaining() > 0) {
+				RaceProtocol.put(opponent.out, RaceProtocol.LEFT);
+				toFlush.add(opponent);
+			}
+		}
+		synchronized (this) {
+			players--;
+			if (opponent != null) {
+				races--;
+			}
+		}
+	}
+	
+	/**
+	 * Runs a relay until the process is stopped
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = RaceProtocol.DEFAULT_PORT;
+		for (int i = 0; i < args.length; i += 2) {
+			if (args[i].equals("-port")) {
+				port = Integer.parseInt(args[i + 1]);
+			}
+			else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		RaceRelay relay = new RaceRelay(port);
+		System.out.println("Relaying races on port " + relay.getPort());
+		relay.run();
+	}
+}
@@ -0,0 +1,518 @@
+package uk.singlekey.repeata_freak;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks runs of the "30 Second Challenge" submitted for a leaderboard on a normal JVM, by
+ * playing every move of each run again and checking that it was allowed and that the run
+ * solved as many puzzles as it claims.
+ *
+ * Every timed round the game plays starts with PuzzleController.restart(seed, maxSquaresPerLine),
+ * so a run is submitted with the controller's getSessionSeed() and getMaxSquaresPerLine() as
+ * they were at the start of the round, and its puzzles can be created again from them with
+ * PuzzleController.nextPuzzle. Each move must be of a
+ * block of the current puzzle, to a space on the board it fits in (Puzzle.isSpace) or back
+ * to storage from the board, and made before the round was over. Once the puzzle is solved,
+ * the moves carry on on the next puzzle.
+ *
+ * A file of runs starts with MAGIC (int) and VERSION (byte), followed by each run as its size
+ * (varint) and then:
+ * 		run id (long), seed (long), difficulty (byte), colors (byte), max squares per line (byte),
+ * 		claimed score (varint), amount of moves (varint), then for each move:
+ * 		milliseconds since the last move or the start of the round (varint), block index in
+ * 		the solution (varint), board position + 1, or 0 for storage (varint)
+ *
+ * The file is read as a stream on one thread and handed out in chunks of runs to a worker on
+ * every core, so only a few chunks are ever in memory however big the file is. Each worker
+ * reuses one puzzle for every run it checks. Every run that fails is printed with why.
+ *
+ * Usage: RunVerifier [-threads n] file
+ * 		checks the runs in the file ("-" for standard input)
+ * Usage: RunVerifier -generate n [-cheats fraction] [-seed n] file
+ * 		writes n made-up runs to the file, the fraction given of which cheat, for testing
+ *
+ * @author Samuel O'Sullivan
+ */
+public class RunVerifier {
+	
+	// "RFRN" - marks the start of a file of runs
+	public static final int MAGIC = 0x5246524E;
+	
+	public static final int VERSION = 1;
+	
+	// The length of a round (milliseconds)
+	private static final int ROUND_MILLIS = PuzzleController.TIMED_MODE_LENGTH * 1000;
+	
+	// The size of each chunk of runs handed to a worker, which is also the biggest a run can
+	// be (bytes)
+	private static final int CHUNK_BYTES = 64 * 1024;
+	
+	// The amount of chunks waiting to be checked per worker
+	private static final int CHUNKS_PER_THREAD = 4;
+	
+	// The amount of runs checked, and how many of them failed
+	private final AtomicLong checked = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	
+	// The chunks that have been read, and the chunks ready to be read into
+	private BlockingQueue<Chunk> full;
+	private BlockingQueue<Chunk> empty;
+	
+	// Handed to each worker once every run has been read
+	private static final Chunk END = new Chunk();
+	
+	// The smallest a run can be, with no moves (bytes)
+	private static final int MIN_RUN_BYTES = 8 + 8 + 3 + 1 + 1;
+	
+	/**
+	 * Whole runs read from the file, one after another
+	 */
+	private static class Chunk {
+		final byte[] data = new byte[CHUNK_BYTES];
+		int length;
+		
+		// Where each run ends
+		final int[] ends = new int[CHUNK_BYTES / MIN_RUN_BYTES + 1];
+		int runs;
+	}
+	
+	/**
+	 * Thrown when a run isn't allowed, or can't be read
+	 */
+	private static class Invalid extends Exception {
+		private static final long serialVersionUID = 1L;
+		
+		Invalid(String reason) {
+			super(reason);
+		}
+	}
+	
+	/**
+	 * Checks the runs in each chunk it is handed
+	 */
+	private class Worker extends Thread {
+		
+		// The chunk being checked, and where the next byte is read from
+		private byte[] data;
+		private int position;
+		private int end;
+		
+		// The puzzle that is regenerated for every puzzle of every run, and what is needed to
+		// create the puzzles of a run in the same way as the game
+		private Puzzle puzzle;
+		private final Random sessionRandom = new Random();
+		private final BloomFilter seenPuzzles = new BloomFilter(PuzzleController.REMEMBERED_PUZZLES);
+		
+		@Override
+		public void run() {
+			try {
+				Chunk chunk;
+				while ((chunk = full.take()) != END) {
+					checkChunk(chunk);
+					empty.put(chunk);
+				}
+			} catch (InterruptedException e) {
+				// Stopping early
+			}
+		}
+		
+		/**
+		 * Checks every run in a chunk
+		 */
+		private void checkChunk(Chunk chunk) {
+			data = chunk.data;
+			position = 0;
+			for (int r = 0; r < chunk.runs; r++) {
+				position = r == 0 ? 0 : chunk.ends[r - 1];
+				end = chunk.ends[r];
+				long id = -1;
+				try {
+					id = readLong();
+					check();
+				} catch (Invalid e) {
+					fail(id, e.getMessage());
+				} catch (RuntimeException e) {
+					// A run that breaks the puzzle fails, rather than stopping the worker
+					fail(id, "couldn't be played (" + e + ")");
+				}
+				checked.incrementAndGet();
+			}
+		}
+		
+		/**
+		 * Counts a run as failed, and prints why
+		 * @param id - the run's id, or -1 if it couldn't be read
+		 * @param reason - why the run failed
+		 */
+		private void fail(long id, String reason) {
+			failed.incrementAndGet();
+			synchronized (System.out) {
+				System.out.println("run " + id + ": " + reason);
+			}
+		}
+		
+		/**
+		 * Checks the run being read, from just after its id
+		 * @throws Invalid if the run isn't allowed
+		 */
+		private void check() throws Invalid {
+			long seed = readLong();
+			int difficulty = readByte();
+			int colors = readByte();
+			int maxSquaresPerLine = readByte() & 0xFF;
+			if (difficulty < 1 || colors < 2 || colors > Puzzle.MAX_COLORS || maxSquaresPerLine < 1) {
+				throw new Invalid("difficulty " + difficulty + ", " + colors + " colors and max squares per line " + maxSquaresPerLine + " aren't possible");
+			}
+			int claimed = readVarInt();
+			int moves = readVarInt();
+			
+			sessionRandom.setSeed(seed);
+			seenPuzzles.clear();
+			puzzle = PuzzleController.nextPuzzle(puzzle, difficulty, colors, maxSquaresPerLine, sessionRandom, seenPuzzles);
+			
+			int solved = 0;
+			long time = 0;
+			for (int m = 0; m < moves; m++) {
+				time += readVarInt();
+				int block = readVarInt();
+				int to = readVarInt() - 1;
+				if (time > ROUND_MILLIS) {
+					throw new Invalid("move " + m + " was made " + (time - ROUND_MILLIS) + "ms after the round was over");
+				}
+				if (block >= puzzle.getBlockCount()) {
+					throw new Invalid("move " + m + " is of block " + block + ", but the puzzle only has " + puzzle.getBlockCount());
+				}
+				Block moved = puzzle.getBlock(block);
+				if (to == -1) {
+					if (moved.getBoardPosition() == -1) {
+						throw new Invalid("move " + m + " puts block " + block + " in storage, but it's already there");
+					}
+					puzzle.removeBlockFromBoard(moved);
+				}
+				else {
+					if (to >= puzzle.getLength() || to == moved.getBoardPosition() || !puzzle.isSpace(moved, to)) {
+						throw new Invalid("move " + m + " puts block " + block + " at " + to + ", where it can't go");
+					}
+					puzzle.addBlockToBoard(moved, to);
+					if (puzzle.isSolved()) {
+						solved++;
+						puzzle = PuzzleController.nextPuzzle(puzzle, difficulty, colors, maxSquaresPerLine, sessionRandom, seenPuzzles);
+					}
+				}
+			}
+			if (position != end) {
+				throw new Invalid((end - position) + " bytes left over after the moves");
+			}
+			if (solved != claimed) {
+				throw new Invalid("claims a score of " + claimed + ", but solved " + solved);
+			}
+		}
+		
+		private int readByte() throws Invalid {
+			if (position >= end) {
+				throw new Invalid("cut short");
+			}
+			return data[position++];
+		}
+		
+		private long readLong() throws Invalid {
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				value = value << 8 | (readByte() & 0xFF);
+			}
+			return value;
+		}
+		
+		/**
+		 * Reads an int written by TouchRecorder.writeVarInt
+		 */
+		private int readVarInt() throws Invalid {
+			int value = 0;
+			int b;
+			for (int shift = 0; shift < 32; shift += 7) {
+				b = readByte();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					if (value < 0) {
+						break;
+					}
+					return value;
+				}
+			}
+			throw new Invalid("a number is too big");
+		}
+	}
+	
+	/**
+	 * Checks every run in a stream, printing the ones that fail and a summary
+	 * @param stream - the runs
+	 * @param threads - the amount of workers to check runs on
+	 * @throws IOException if the runs can't be read
+	 */
+	public void verify(InputStream stream, int threads) throws IOException, InterruptedException {
+		full = new ArrayBlockingQueue<Chunk>(threads * CHUNKS_PER_THREAD + threads);
+		empty = new ArrayBlockingQueue<Chunk>(threads * CHUNKS_PER_THREAD + 1);
+		for (int i = 0; i < threads * CHUNKS_PER_THREAD; i++) {
+			empty.add(new Chunk());
+		}
+		Worker[] workers = new Worker[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Worker();
+			workers[i].start();
+		}
+		
+		long start = System.nanoTime();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream, CHUNK_BYTES));
+		try {
+			if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+				throw new IOException("Not a file of runs");
+			}
+			
+			// Fill each chunk with whole runs, starting a new chunk when the next run doesn't fit
+			Chunk chunk = empty.take();
+			chunk.length = 0;
+			chunk.runs = 0;
+			while (true) {
+				int size;
+				try {
+					size = TouchReplay.readVarInt(in);
+				} catch (EOFException e) {
+					break;
+				}
+				if (size < MIN_RUN_BYTES || size > CHUNK_BYTES) {
+					throw new IOException("A run of " + size + " bytes can't be a round");
+				}
+				if (chunk.length + size > CHUNK_BYTES) {
+					full.put(chunk);
+					chunk = empty.take();
+					chunk.length = 0;
+					chunk.runs = 0;
+				}
+				in.readFully(chunk.data, chunk.length, size);
+				chunk.length += size;
+				chunk.ends[chunk.runs++] = chunk.length;
+			}
+			if (chunk.runs > 0) {
+				full.put(chunk);
+			}
+		} finally {
+			in.close();
+			for (int i = 0; i < threads; i++) {
+				full.put(END);
+			}
+			for (Worker worker : workers) {
+				worker.join();
+			}
+		}
+		
+		long nanos = System.nanoTime() - start;
+		System.out.println("Checked " + checked.get() + " runs in " + nanos / 1000000 + "ms"
+				+ " (" + (long) (checked.get() / (nanos / 1e9)) + " runs/s) on " + threads + " threads: "
+				+ (checked.get() - failed.get()) + " valid, " + failed.get() + " failed");
+	}
+	
+	/**
+	 * Writes made-up runs for testing: each plays the puzzles of a round by putting the
+	 * blocks in their places in a random order, sometimes putting a block in the wrong place
+	 * and taking it back out first. A run that cheats either claims one puzzle more than it
+	 * solved, or puts a block where it can't go.
+	 * @param out - where to write the runs
+	 * @param runs - the amount of runs
+	 * @param cheats - the fraction of runs that cheat
+	 * @param seed - the seed every choice is made from
+	 */
+	public static void generate(DataOutputStream out, int runs, double cheats, long seed) throws IOException {
+		Random random = new Random(seed);
+		Random sessionRandom = new Random();
+		BloomFilter seenPuzzles = new BloomFilter(PuzzleController.REMEMBERED_PUZZLES);
+		Puzzle puzzle = null;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream moves = new DataOutputStream(bytes);
+		int[] order = new int[0];
+		
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		for (int r = 0; r < runs; r++) {
+			long runSeed = random.nextLong();
+			int difficulty = 1 + random.nextInt(6);
+			int colors = 3 + random.nextInt(3);
+			int maxSquaresPerLine = 16 + random.nextInt(3) * 4;
+			boolean cheat = random.nextDouble() < cheats;
+			boolean illegal = cheat && random.nextBoolean();
+			
+			sessionRandom.setSeed(runSeed);
+			seenPuzzles.clear();
+			puzzle = PuzzleController.nextPuzzle(puzzle, difficulty, colors, maxSquaresPerLine, sessionRandom, seenPuzzles);
+			
+			bytes.reset();
+			int moveCount = 0;
+			int solved = 0;
+			
+			// The time of the next move, and of the last move written (milliseconds)
+			int time = 0;
+			int written = 0;
+			while (true) {
+				// Where each block goes in the solution, and the order to put them there
+				int blocks = puzzle.getBlockCount();
+				if (order.length < blocks) {
+					order = new int[blocks];
+				}
+				for (int i = 0; i < blocks; i++) {
+					order[i] = i;
+				}
+				for (int i = blocks - 1; i > 0; i--) {
+					int j = random.nextInt(i + 1);
+					int swap = order[i];
+					order[i] = order[j];
+					order[j] = swap;
+				}
+				
+				int placed = 0;
+				for (; placed < blocks; placed++) {
+					Block block = puzzle.getBlock(order[placed]);
+					int target = 0;
+					for (int i = 0; i < order[placed]; i++) {
+						target += puzzle.getBlock(i).getSize();
+					}
+					
+					// Sometimes try somewhere else first
+					int wrong = random.nextInt(puzzle.getLength());
+					if (random.nextInt(8) == 0 && wrong != target && puzzle.isSpace(block, wrong)) {
+						time += 150 + random.nextInt(400);
+						if (time > ROUND_MILLIS) {
+							break;
+						}
+						writeMove(moves, time - written, order[placed], wrong);
+						puzzle.addBlockToBoard(block, wrong);
+						written = time;
+						moveCount++;
+						
+						time += 150 + random.nextInt(400);
+						if (time > ROUND_MILLIS) {
+							break;
+						}
+						writeMove(moves, time - written, order[placed], -1);
+						puzzle.removeBlockFromBoard(block);
+						written = time;
+						moveCount++;
+					}
+					
+					time += 150 + random.nextInt(400);
+					if (time > ROUND_MILLIS) {
+						break;
+					}
+					writeMove(moves, time - written, order[placed], target);
+					puzzle.addBlockToBoard(block, target);
+					written = time;
+					moveCount++;
+				}
+				if (placed < blocks) {
+					break;
+				}
+				solved++;
+				puzzle = PuzzleController.nextPuzzle(puzzle, difficulty, colors, maxSquaresPerLine, sessionRandom, seenPuzzles);
+			}
+			
+			// Cheat by putting the first block of the current puzzle over the second, once
+			// both are on the board (or by claiming another puzzle, if they aren't)
+			Block first = puzzle.getBlock(0);
+			if (illegal && first.getBoardPosition() != -1 && puzzle.getBlock(1).getBoardPosition() != -1) {
+				writeMove(moves, ROUND_MILLIS - written, 0, puzzle.getBlock(1).getBoardPosition());
+				moveCount++;
+			}
+			else if (cheat) {
+				solved++;
+			}
+			
+			ByteArrayOutputStream run = new ByteArrayOutputStream();
+			DataOutputStream runOut = new DataOutputStream(run);
+			runOut.writeLong(r);
+			runOut.writeLong(runSeed);
+			runOut.writeByte(difficulty);
+			runOut.writeByte(colors);
+			runOut.writeByte(maxSquaresPerLine);
+			TouchRecorder.writeVarInt(runOut, solved);
+			TouchRecorder.writeVarInt(runOut, moveCount);
+			runOut.write(bytes.toByteArray());
+			
+			TouchRecorder.writeVarInt(out, run.size());
+			run.writeTo(out);
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Writes a move of a made-up run
+	 * @param delay - the time since the last move (milliseconds)
+	 */
+	private static void writeMove(DataOutputStream out, int delay, int block, int position) throws IOException {
+		TouchRecorder.writeVarInt(out, delay);
+		TouchRecorder.writeVarInt(out, block);
+		TouchRecorder.writeVarInt(out, position + 1);
+	}
+	
+	/**
+	 * Checks a file of runs, or writes one for testing
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		int generate = -1;
+		double cheats = 0.01;
+		long seed = 1;
+		String file = null;
+		for (int i = 0; i < args.length; i += 2) {
+			if (i == args.length - 1) {
+				file = args[i];
+				break;
+			}
+			String option = args[i];
+			String value = args[i + 1];
+			if (option.equals("-threads")) {
+				threads = Math.max(1, Integer.parseInt(value));
+			}
+			else if (option.equals("-generate")) {
+				generate = Integer.parseInt(value);
+			}
+			else if (option.equals("-cheats")) {
+				cheats = Double.parseDouble(value);
+			}
+			else if (option.equals("-seed")) {
+				seed = Long.parseLong(value);
+			}
+			else {
+				System.err.println("Unknown option " + option);
+				System.exit(1);
+			}
+		}
+		if (file == null) {
+			System.err.println("Usage: RunVerifier [-threads n] file");
+			System.err.println("       RunVerifier -generate n [-cheats fraction] [-seed n] file");
+			System.exit(2);
+		}
+		
+		if (generate >= 0) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			try {
+				generate(out, generate, cheats, seed);
+			} finally {
+				out.close();
+			}
+		}
+		else {
+			new RunVerifier().verify(file.equals("-") ? System.in : new FileInputStream(file), threads);
+		}
+	}
+}
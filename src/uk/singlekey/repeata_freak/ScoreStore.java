@@ -0,0 +1,352 @@
+package uk.singlekey.repeata_freak;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the scores of every "30 Second Challenge" on the device.
+ *
+ * Scores are appended to a binary log (a fixed 16 byte record each), and the best TOP_K
+ * scores for each difficulty and amount of colors are kept in memory in a min-heap, so the
+ * leaderboard never needs the log to be read again. Every COMPACT_AFTER records, the log is
+ * rewritten to hold only the scores still in a top K, so it stays small however many rounds
+ * are played and loading it stays quick.
+ *
+ * Loading and writing happen on a single background thread, in the order they were asked
+ * for. Scores submitted together are written in one batch.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class ScoreStore {
+	
+	// The amount of scores kept for each leaderboard
+	public static final int TOP_K = 10;
+	
+	// "RFSC" - marks the start of a score log
+	private static final int MAGIC = 0x52465343;
+	private static final int VERSION = 1;
+	
+	// The size of the log's header, and of each record (bytes)
+	private static final int HEADER_BYTES = 8;
+	private static final int RECORD_BYTES = 16;
+	
+	// The log is compacted once it has this many records more than it needs
+	private static final int COMPACT_AFTER = 1000;
+	
+	private static final String LOG_NAME = "scores.log";
+	
+	// There is only one store, as only one thread should ever write to the log
+	private static ScoreStore instance;
+	
+	/**
+	 * A single score
+	 */
+	public static class Score implements Comparable<Score> {
+		public final int difficulty;
+		public final int colors;
+		public final int score;
+		public final long time;
+		
+		public Score(int difficulty, int colors, int score, long time) {
+			this.difficulty = difficulty;
+			this.colors = colors;
+			this.score = score;
+			this.time = time;
+		}
+		
+		/**
+		 * Scores are ordered lowest first, with older scores before newer scores for the
+		 * same score (so a new score has to beat an old one to replace it)
+		 */
+		public int compareTo(Score other) {
+			if (score != other.score) {
+				return score < other.score ? -1 : 1;
+			}
+			return time > other.time ? -1 : (time < other.time ? 1 : 0);
+		}
+	}
+	
+	// The log file
+	private File log;
+	
+	// The best scores for each leaderboard, lowest first so the worst can be replaced
+	private HashMap<Integer, PriorityQueue<Score>> topScores = new HashMap<Integer, PriorityQueue<Score>>();
+	
+	// Scores waiting to be written to the log
+	private ArrayList<Score> pending = new ArrayList<Score>();
+	
+	// The amount of records in the log
+	private int logRecords;
+	
+	// Loads and writes the log, one task at a time
+	private ExecutorService writer = Executors.newSingleThreadExecutor();
+	
+	/**
+	 * Writes every score that is waiting, as one batch
+	 */
+	private Runnable flushTask = new Runnable() {
+		public void run() {
+			flush();
+		}
+	};
+	
+	/**
+	 * Gets the score store, loading it in the background the first time
+	 * @param dir - the directory that the log is kept in
+	 * @return the score store
+	 */
+	public static synchronized ScoreStore open(File dir) {
+		if (instance == null) {
+			instance = new ScoreStore(new File(dir, LOG_NAME));
+		}
+		return instance;
+	}
+	
+	/**
+	 * Creates a store and starts loading the log in the background
+	 * @param log - the log file
+	 */
+	ScoreStore(File log) {
+		this.log = log;
+		writer.execute(new Runnable() {
+			public void run() {
+				load();
+			}
+		});
+	}
+	
+	/**
+	 * Adds a score. It is added to the leaderboard straight away, and written to the log
+	 * in the background.
+	 * @param difficulty - the difficulty the round was played on
+	 * @param colors - the amount of colors the round was played with
+	 * @param score - the amount of puzzles solved
+	 */
+	public void submit(int difficulty, int colors, int score) {
+		Score entry = new Score(difficulty, colors, score, System.currentTimeMillis());
+		boolean flushScheduled;
+		synchronized (this) {
+			offer(entry);
+			flushScheduled = !pending.isEmpty();
+			pending.add(entry);
+		}
+		// If a flush is already waiting, it will write this score too
+		if (!flushScheduled) {
+			writer.execute(flushTask);
+		}
+	}
+	
+	/**
+	 * Gets a leaderboard
+	 * @param difficulty - the difficulty of the leaderboard
+	 * @param colors - the amount of colors of the leaderboard
+	 * @return the best scores (at most TOP_K), best first
+	 */
+	public synchronized List<Score> getTopScores(int difficulty, int colors) {
+		PriorityQueue<Score> heap = topScores.get(key(difficulty, colors));
+		ArrayList<Score> scores = heap == null ? new ArrayList<Score>() : new ArrayList<Score>(heap);
+		Collections.sort(scores, Collections.reverseOrder());
+		return scores;
+	}
+	
+	/**
+	 * Gets the best score of a leaderboard
+	 * @param difficulty - the difficulty of the leaderboard
+	 * @param colors - the amount of colors of the leaderboard
+	 * @return the best score, or 0 if there aren't any scores yet
+	 */
+	public synchronized int getBestScore(int difficulty, int colors) {
+		PriorityQueue<Score> heap = topScores.get(key(difficulty, colors));
+		int best = 0;
+		if (heap != null) {
+			for (Score score : heap) {
+				best = Math.max(best, score.score);
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Adds a score to its leaderboard if it is good enough, dropping the worst score if
+	 * the leaderboard is full. Must be called while synchronized.
+	 */
+	private void offer(Score score) {
+		Integer key = key(score.difficulty, score.colors);
+		PriorityQueue<Score> heap = topScores.get(key);
+		if (heap == null) {
+			heap = new PriorityQueue<Score>(TOP_K + 1);
+			topScores.put(key, heap);
+		}
+		if (heap.size() < TOP_K) {
+			heap.add(score);
+		}
+		else if (score.compareTo(heap.peek()) > 0) {
+			heap.poll();
+			heap.add(score);
+		}
+	}
+	
+	private static Integer key(int difficulty, int colors) {
+		return (difficulty << 8) | colors;
+	}
+	
+	/**
+	 * Reads every record in the log into the leaderboards. Runs on the writer thread.
+	 *
+	 * The amount of records is worked out from the length of the log. If the last record was
+	 * cut short (by the app being killed while writing it), the log is cut back to the last
+	 * whole record, so that the next records appended line up. A log that isn't a score log
+	 * (or is from another version) is deleted, so that a new one is started.
+	 */
+	private void load() {
+		if (!log.exists()) {
+			return;
+		}
+		long length = log.length();
+		int records = (int) ((length - HEADER_BYTES) / RECORD_BYTES);
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+			try {
+				if (length < HEADER_BYTES || in.readInt() != MAGIC || in.readInt() != VERSION) {
+					records = -1;
+				}
+				for (int i = 0; i < records; i++) {
+					Score score = readRecord(in);
+					logRecords++;
+					synchronized (this) {
+						offer(score);
+					}
+				}
+			} finally {
+				in.close();
+			}
+			
+			if (records == -1) {
+				log.delete();
+			}
+			else if (length != HEADER_BYTES + (long) records * RECORD_BYTES) {
+				truncate(HEADER_BYTES + (long) records * RECORD_BYTES);
+			}
+		} catch (IOException e) {
+			// Leave the leaderboards with whatever was read
+		}
+	}
+	
+	/**
+	 * Cuts the log back to a length, or rewrites it with only the leaderboards if it can't be
+	 */
+	private void truncate(long length) throws IOException {
+		try {
+			RandomAccessFile file = new RandomAccessFile(log, "rw");
+			try {
+				file.setLength(length);
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			compact();
+		}
+	}
+	
+	/**
+	 * Appends every score that is waiting to the log, compacting it if it has grown too big.
+	 * Runs on the writer thread.
+	 */
+	private void flush() {
+		ArrayList<Score> batch;
+		synchronized (this) {
+			batch = pending;
+			pending = new ArrayList<Score>();
+		}
+		try {
+			boolean isNew = !log.exists();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(log, true)));
+			try {
+				if (isNew) {
+					writeHeader(out);
+				}
+				for (Score score : batch) {
+					writeRecord(out, score);
+				}
+			} finally {
+				out.close();
+			}
+			logRecords += batch.size();
+			
+			int leaderboards;
+			synchronized (this) {
+				leaderboards = topScores.size();
+			}
+			if (logRecords > COMPACT_AFTER + TOP_K * leaderboards) {
+				compact();
+			}
+		} catch (IOException e) {
+			// The scores are still on the leaderboards for this session
+		}
+	}
+	
+	/**
+	 * Rewrites the log so that it only holds the scores on the leaderboards. The new log is
+	 * written to a temporary file first, so the old one is only replaced once it's complete.
+	 */
+	private void compact() throws IOException {
+		ArrayList<Score> keep = new ArrayList<Score>();
+		synchronized (this) {
+			for (PriorityQueue<Score> heap : topScores.values()) {
+				keep.addAll(heap);
+			}
+		}
+		File temp = new File(log.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			writeHeader(out);
+			for (Score score : keep) {
+				writeRecord(out, score);
+			}
+		} finally {
+			out.close();
+		}
+		if (temp.renameTo(log)) {
+			logRecords = keep.size();
+		}
+	}
+	
+	private static void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+	
+	/**
+	 * Writes a record: difficulty (byte), colors (byte), unused (short), score (int), time (long)
+	 */
+	private static void writeRecord(DataOutputStream out, Score score) throws IOException {
+		out.writeByte(score.difficulty);
+		out.writeByte(score.colors);
+		out.writeShort(0);
+		out.writeInt(score.score);
+		out.writeLong(score.time);
+	}
+	
+	private static Score readRecord(DataInputStream in) throws IOException {
+		int difficulty = in.readUnsignedByte();
+		int colors = in.readUnsignedByte();
+		in.readShort();
+		int score = in.readInt();
+		long time = in.readLong();
+		return new Score(difficulty, colors, score, time);
+	}
+}
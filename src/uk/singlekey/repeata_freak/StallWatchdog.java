@@ -0,0 +1,166 @@
+package uk.singlekey.repeata_freak;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Watches for the UI thread getting stuck, e.g. while a drag "freezes". A heartbeat is posted
+ * to the UI thread's message loop, which the timer, touches and drawing all run on, and if it
+ * hasn't run after the threshold the UI thread's stack is written to a log, along with the
+ * puzzle being played. When the heartbeat finally runs, how long the stall lasted is added.
+ *
+ * Each stall is only logged once however long it lasts. The log is kept below MAX_LOG_BYTES
+ * by moving it to a ".old" file when it gets too big, replacing the last one.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class StallWatchdog extends Thread {
+	
+	// How late the heartbeat has to be to count as a stall, if not chosen (milliseconds)
+	public static final long DEFAULT_THRESHOLD_MILLIS = 500;
+	
+	// The most the log can grow to before it is moved out of the way (bytes)
+	private static final long MAX_LOG_BYTES = 64 * 1024;
+	
+	// How late the heartbeat has to be to count as a stall (milliseconds)
+	private final long threshold;
+	
+	// Posts the heartbeat to the UI thread, and the UI thread itself
+	private final Handler mainHandler;
+	private final Thread mainThread;
+	
+	// The session being played, to say which puzzle was being played in the log
+	private final PuzzleController controller;
+	
+	// Where stalls are logged
+	private final File logFile;
+	
+	// Whether the heartbeat has been posted but not run yet, and when it last ran (uptime
+	// milliseconds)
+	private volatile boolean pending;
+	private volatile long lastBeat;
+	
+	// Set when the watchdog should stop
+	private volatile boolean finished;
+	
+	// Run on the UI thread to show it isn't stuck
+	private final Runnable heartbeat = new Runnable() {
+		public void run() {
+			lastBeat = SystemClock.uptimeMillis();
+			pending = false;
+		}
+	};
+	
+	/**
+	 * Constructor for the StallWatchdog class. The watchdog must then be started.
+	 * @param controller - the session being played
+	 * @param logFile - where stalls are logged
+	 * @param threshold - how late the heartbeat has to be to count as a stall (milliseconds)
+	 */
+	public StallWatchdog(PuzzleController controller, File logFile, long threshold) {
+		super("StallWatchdog");
+		this.controller = controller;
+		this.logFile = logFile;
+		this.threshold = threshold;
+		this.mainHandler = new Handler(Looper.getMainLooper());
+		this.mainThread = Looper.getMainLooper().getThread();
+		setDaemon(true);
+	}
+	
+	/**
+	 * Posts heartbeats and checks that they run in time until finished
+	 */
+	@Override
+	public void run() {
+		// When the heartbeat waiting to run was posted, and whether it has been logged as a stall
+		long posted = 0;
+		boolean stalled = false;
+		
+		while (!finished) {
+			if (!pending) {
+				if (stalled) {
+					log("recovered after " + (lastBeat - posted) + "ms\n\n");
+					stalled = false;
+				}
+				posted = SystemClock.uptimeMillis();
+				pending = true;
+				mainHandler.post(heartbeat);
+			}
+			
+			try {
+				Thread.sleep(threshold / 2);
+			} catch (InterruptedException e) {
+				// Woken up by finish()
+			}
+			
+			long late = SystemClock.uptimeMillis() - posted;
+			if (pending && !stalled && late > threshold && !finished) {
+				stalled = true;
+				logStall(late);
+			}
+		}
+		mainHandler.removeCallbacks(heartbeat);
+	}
+	
+	/**
+	 * Stops the watchdog, waiting until it has
+	 */
+	public void finish() {
+		finished = true;
+		interrupt();
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Logs what the UI thread is doing, and the puzzle being played
+	 * @param late - how late the heartbeat is (milliseconds)
+	 */
+	private void logStall(long late) {
+		StackTraceElement[] stack = mainThread.getStackTrace();
+		
+		// The UI thread is stuck, so it won't be changing the puzzle while we read it
+		Puzzle puzzle = controller.getPuzzle();
+		StringBuilder entry = new StringBuilder();
+		entry.append(new Date()).append(": UI thread stalled for ").append(late).append("ms")
+				.append(", difficulty ").append(controller.getDifficulty())
+				.append(", board ").append(puzzle.getLength()).append(" squares")
+				.append(", ").append(puzzle.getColorCount()).append(" colors\n");
+		for (StackTraceElement frame : stack) {
+			entry.append("\tat ").append(frame).append('\n');
+		}
+		log(entry.toString());
+	}
+	
+	/**
+	 * Adds to the end of the log, first moving the log out of the way if it is too big
+	 * @param text - what to add
+	 */
+	private void log(String text) {
+		if (logFile.length() + text.length() > MAX_LOG_BYTES) {
+			File old = new File(logFile.getPath() + ".old");
+			old.delete();
+			logFile.renameTo(old);
+		}
+		try {
+			Writer out = new FileWriter(logFile, true);
+			try {
+				out.write(text);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			// Nothing more we can do, the stall just isn't logged
+		}
+	}
+}
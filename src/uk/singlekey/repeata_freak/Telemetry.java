@@ -0,0 +1,351 @@
+package uk.singlekey.repeata_freak;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import android.view.MotionEvent;
+
+/**
+ * Collects statistics about how the user plays: how many moves and how long each puzzle
+ * takes, how long each drag lasts, and how often every block ends up on the board without
+ * the puzzle being solved (a dead end).
+ *
+ * Every statistic is a fixed-size record (type, time and two ints), put in a ring buffer of
+ * preallocated arrays by the UI thread and taken out by a Writer on its own thread, which
+ * writes them to a file in batches. Recording never blocks or allocates - if the Writer falls
+ * so far behind that the buffer is full, the record is dropped and counted instead. There
+ * must only be one thread recording and one Writer.
+ *
+ * A binary file starts with MAGIC (int) and VERSION (byte), followed by each record:
+ * 		type (byte), time (long, milliseconds), a (int), b (int)
+ * A CSV file has a header line, then one line per record: type name, time, a, b
+ *
+ * Usage: Telemetry [-csv] file
+ * 		prints a summary of a binary file, or every record as CSV
+ *
+ * @author Samuel O'Sullivan
+ */
+public class Telemetry {
+	
+	// "RFTM" - marks the start of a telemetry file
+	public static final int MAGIC = 0x5246544D;
+	
+	public static final int VERSION = 1;
+	
+	/**
+	 * A new puzzle is shown. a: its length, b: its amount of colors
+	 */
+	public static final int TYPE_PUZZLE = 1;
+	
+	/**
+	 * A block is put down somewhere new. a: the moves made on the puzzle so far,
+	 * b: 1 if every block is on the board but the puzzle isn't solved, otherwise 0
+	 */
+	public static final int TYPE_PLACE = 2;
+	
+	/**
+	 * A drag has finished. a: how long it lasted (milliseconds), b: 1 if the block moved
+	 */
+	public static final int TYPE_DRAG = 3;
+	
+	/**
+	 * The puzzle is solved. a: the moves made on it, b: how long it took (milliseconds)
+	 */
+	public static final int TYPE_SOLVED = 4;
+	
+	// The name of each type in a CSV file
+	private static final String[] TYPE_NAMES = { "", "puzzle", "place", "drag", "solved" };
+	
+	// The amount of records the buffer holds (a power of two)
+	private static final int CAPACITY = 1024;
+	private static final int MASK = CAPACITY - 1;
+	
+	// The records in the buffer, one array per field
+	private final byte[] types = new byte[CAPACITY];
+	private final long[] times = new long[CAPACITY];
+	private final int[] as = new int[CAPACITY];
+	private final int[] bs = new int[CAPACITY];
+	
+	// The amount of records ever put in (only written by the recording thread) and taken out
+	// (only written by the Writer). Record n is at index n & MASK.
+	private volatile long head;
+	private volatile long tail;
+	
+	// The amount of records dropped because the buffer was full
+	private int dropped;
+	
+	// The puzzle being played: when it was shown, and the moves made on it
+	private long puzzleStart;
+	private int moves;
+	
+	// When the current drag started, or -1 if there isn't one, and the moves made on the
+	// puzzle by then
+	private long dragStart = -1;
+	private int dragMoves;
+	
+	/**
+	 * Records a new puzzle being shown
+	 * @param time - when it was shown (milliseconds)
+	 * @param puzzle - the puzzle
+	 */
+	public void onNewPuzzle(long time, Puzzle puzzle) {
+		puzzleStart = time;
+		moves = 0;
+		record(TYPE_PUZZLE, time, puzzle.getLength(), puzzle.getColorCount());
+	}
+	
+	/**
+	 * Records a block being put down in a new place
+	 * @param time - when it was put down (milliseconds)
+	 * @param puzzle - the puzzle the block was put down in
+	 */
+	public void onBlockPlaced(long time, Puzzle puzzle) {
+		moves++;
+		boolean deadEnd = puzzle.getStorageSize() == 0 && !puzzle.isSolved();
+		record(TYPE_PLACE, time, moves, deadEnd ? 1 : 0);
+	}
+	
+	/**
+	 * Records the puzzle being solved
+	 * @param time - when it was solved (milliseconds)
+	 */
+	public void onPuzzleSolved(long time) {
+		record(TYPE_SOLVED, time, moves, (int) Math.min(time - puzzleStart, Integer.MAX_VALUE));
+	}
+	
+	/**
+	 * Keeps track of drags. Called after the controller has handled each touch.
+	 * @param time - when the touch happened (milliseconds)
+	 * @param action - the action of the touch
+	 * @param dragging - true if a block is being dragged after the touch
+	 */
+	public void onTouch(long time, int action, boolean dragging) {
+		if (action == MotionEvent.ACTION_DOWN && dragging) {
+			dragStart = time;
+			dragMoves = moves;
+		}
+		else if ((action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_POINTER_UP) && dragStart != -1) {
+			record(TYPE_DRAG, time, (int) Math.min(time - dragStart, Integer.MAX_VALUE), moves != dragMoves ? 1 : 0);
+			dragStart = -1;
+		}
+	}
+	
+	/**
+	 * @return the amount of records dropped because the buffer was full
+	 */
+	public int getDropped() {
+		return dropped;
+	}
+	
+	/**
+	 * Puts a record in the buffer, or drops it if the buffer is full
+	 */
+	private void record(int type, long time, int a, int b) {
+		long h = head;
+		if (h - tail == CAPACITY) {
+			dropped++;
+			return;
+		}
+		int i = (int) h & MASK;
+		types[i] = (byte) type;
+		times[i] = time;
+		as[i] = a;
+		bs[i] = b;
+		// Writing head makes the record visible to the Writer
+		head = h + 1;
+	}
+	
+	/**
+	 * Takes the records out of a Telemetry on its own thread, writing them to a stream
+	 * every BATCH_MILLIS.
+	 */
+	public static class Writer extends Thread {
+		
+		// How long to wait between batches (milliseconds)
+		private static final long BATCH_MILLIS = 500;
+		
+		// Where the records come from
+		private Telemetry source;
+		
+		// Where the records are written, as binary or CSV
+		private DataOutputStream out;
+		private boolean csv;
+		
+		// Set when the Writer should write what is left and stop
+		private volatile boolean finished;
+		
+		/**
+		 * Creates a Writer and writes the start of the file. The Writer must then be started.
+		 * @param source - where the records come from
+		 * @param stream - where the records are written
+		 * @param csv - true to write CSV, false to write binary
+		 * @throws IOException if the start of the file can't be written
+		 */
+		public Writer(Telemetry source, OutputStream stream, boolean csv) throws IOException {
+			super("Telemetry");
+			this.source = source;
+			this.out = new DataOutputStream(new BufferedOutputStream(stream));
+			this.csv = csv;
+			setDaemon(true);
+			
+			if (csv) {
+				out.writeBytes("type,time,a,b\n");
+			}
+			else {
+				out.writeInt(MAGIC);
+				out.writeByte(VERSION);
+			}
+		}
+		
+		/**
+		 * Writes a batch of records every BATCH_MILLIS until finished
+		 */
+		@Override
+		public void run() {
+			try {
+				while (!finished) {
+					if (writeBatch()) {
+						out.flush();
+					}
+					try {
+						Thread.sleep(BATCH_MILLIS);
+					} catch (InterruptedException e) {
+						// Woken up by finish()
+					}
+				}
+				writeBatch();
+			} catch (IOException e) {
+				// Nothing more we can do, the file is just cut short
+			} finally {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// As above
+				}
+			}
+		}
+		
+		/**
+		 * Writes every record in the buffer and then stops, waiting until it has
+		 */
+		public void finish() {
+			finished = true;
+			interrupt();
+			try {
+				join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		/**
+		 * Writes every record in the buffer
+		 * @return true if anything was written
+		 */
+		private boolean writeBatch() throws IOException {
+			long t = source.tail;
+			long h = source.head;
+			if (t == h) {
+				return false;
+			}
+			for (; t < h; t++) {
+				int i = (int) t & MASK;
+				if (csv) {
+					out.writeBytes(TYPE_NAMES[source.types[i]] + "," + source.times[i] + "," + source.as[i] + "," + source.bs[i] + "\n");
+				}
+				else {
+					out.writeByte(source.types[i]);
+					out.writeLong(source.times[i]);
+					out.writeInt(source.as[i]);
+					out.writeInt(source.bs[i]);
+				}
+			}
+			// Writing tail gives the space back to the recording thread
+			source.tail = h;
+			return true;
+		}
+	}
+	
+	/**
+	 * Reads a binary telemetry file and prints a summary of it, or every record as CSV
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean csv = false;
+		String file = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-csv")) {
+				csv = true;
+			}
+			else {
+				file = args[i];
+			}
+		}
+		if (file == null) {
+			System.err.println("Usage: Telemetry [-csv] file");
+			System.exit(2);
+		}
+		
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		PrintStream out = System.out;
+		try {
+			if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+				throw new IOException(file + " isn't a telemetry file");
+			}
+			if (csv) {
+				out.println("type,time,a,b");
+			}
+			
+			int puzzles = 0, solved = 0, deadEnds = 0, drags = 0;
+			long solvedMoves = 0, solvedTime = 0, dragTime = 0;
+			while (true) {
+				int type;
+				try {
+					type = in.readByte();
+				} catch (EOFException e) {
+					break;
+				}
+				long time = in.readLong();
+				int a = in.readInt();
+				int b = in.readInt();
+				if (csv) {
+					out.println(TYPE_NAMES[type] + "," + time + "," + a + "," + b);
+				}
+				switch (type) {
+				case TYPE_PUZZLE:
+					puzzles++;
+					break;
+				case TYPE_PLACE:
+					deadEnds += b;
+					break;
+				case TYPE_DRAG:
+					drags++;
+					dragTime += a;
+					break;
+				case TYPE_SOLVED:
+					solved++;
+					solvedMoves += a;
+					solvedTime += b;
+					break;
+				}
+			}
+			
+			if (!csv) {
+				out.println("Puzzles:            " + puzzles);
+				out.println("Solved:             " + solved);
+				out.println("Moves per puzzle:   " + (solved == 0 ? 0 : (double) solvedMoves / solved));
+				out.println("Time per puzzle:    " + (solved == 0 ? 0 : solvedTime / solved) + "ms");
+				out.println("Drags:              " + drags + " (" + dragTime + "ms dragging)");
+				out.println("Dead ends:          " + deadEnds);
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package uk.singlekey.repeata_freak;
+
+import java.util.Arrays;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * A square of each color of the palette, filled and outlined, drawn once side by side into a
+ * single bitmap. A square of a block is then drawn by copying its tile out of the bitmap, so
+ * drawing a block takes one call per square and never changes the color of a paint.
+ *
+ * The tiles are only drawn again when the size of a square or the palette changes. Like
+ * PuzzleRenderer, an atlas must only be used by one thread.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class TileAtlas {
+	
+	// The tiles, one per color of the palette in order, or null before the first prepare()
+	private Bitmap bitmap;
+	
+	// The size of each tile (pixels), and the colors they were drawn in
+	private int size;
+	private int[] colors = new int[0];
+	
+	// Used to fill and outline the tiles
+	private final Paint fillPaint = new Paint();
+	private final Paint linePaint;
+	
+	// The part of the bitmap a tile is copied from
+	private final Rect source = new Rect();
+	
+	/**
+	 * Constructor for the TileAtlas class. Nothing is drawn until prepare() is called.
+	 * @param linePaint - the paint the tiles are outlined with
+	 */
+	public TileAtlas(Paint linePaint) {
+		this.linePaint = linePaint;
+		fillPaint.setStyle(Paint.Style.FILL);
+	}
+	
+	/**
+	 * Makes sure there is a tile of each color of a palette at the given size, drawing them
+	 * again if they were drawn for a different size or palette
+	 * @param size - the size of a tile (pixels)
+	 * @param palette - the color of each index of the puzzle's palette
+	 */
+	public void prepare(int size, int[] palette) {
+		size = Math.max(1, size);
+		if (bitmap != null && size == this.size && Arrays.equals(palette, colors)) {
+			return;
+		}
+		if (bitmap != null) {
+			bitmap.recycle();
+		}
+		this.size = size;
+		this.colors = palette.clone();
+		bitmap = Bitmap.createBitmap(size * Math.max(1, palette.length), size, Bitmap.Config.ARGB_8888);
+		
+		Canvas canvas = new Canvas(bitmap);
+		Rect tile = new Rect();
+		for (int i = 0; i < palette.length; i++) {
+			tile.set(i*size, 0, i*size + size, size);
+			fillPaint.setColor(palette[i]);
+			canvas.drawRect(tile, fillPaint);
+			// The outline is kept inside the tile, so the tile next to it doesn't cover it
+			tile.set(i*size, 0, i*size + size - 1, size - 1);
+			canvas.drawRect(tile, linePaint);
+		}
+	}
+	
+	/**
+	 * Draws a tile. prepare() must have been called first.
+	 * @param canvas - the canvas to draw on
+	 * @param color - the index of the tile's color in the palette
+	 * @param destination - where to draw the tile, which it is stretched to fill
+	 */
+	public void draw(Canvas canvas, int color, Rect destination) {
+		source.set(color*size, 0, color*size + size, size);
+		canvas.drawBitmap(bitmap, source, destination, null);
+	}
+}
@@ -0,0 +1,199 @@
+package uk.singlekey.repeata_freak;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records everything that happens to a PuzzleController during a session (touches, timer
+ * ticks, size changes and races starting), so that the session can be replayed by TouchReplay.
+ *
+ * A recording starts with a header:
+ * 		MAGIC (int), VERSION (byte), session seed (long), difficulty (byte), colors (byte), flags (byte)
+ * followed by one entry per event:
+ * 		type (byte), milliseconds since the previous event (varint), then
+ * 		x and y (floats) for touches, width, height and screen width (varints) for SIZE,
+ * 		zoom, pan x and pan y (floats) for VIEWPORT, or the race's session seed (long) and
+ * 		max squares per line (varint) for RACE.
+ * The type of a touch is its MotionEvent action, which is always below TICK.
+ *
+ * @author Samuel O'Sullivan
+ */
+public class TouchRecorder {
+	
+	// "RFTR" - marks the start of a touch recording
+	public static final int MAGIC = 0x52465452;
+	
+	public static final int VERSION = 4;
+	
+	// Flags stored in the header
+	public static final int FLAG_MANUAL_SELECT = 1;
+	public static final int FLAG_TIMED_MODE = 2;
+	
+	// Event types that aren't touches
+	public static final int TYPE_TICK = 0x40;
+	public static final int TYPE_SIZE = 0x41;
+	public static final int TYPE_VIEWPORT = 0x42;
+	public static final int TYPE_RACE = 0x43;
+	
+	// Where the recording is written
+	private DataOutputStream out;
+	
+	// The time of the last event recorded (milliseconds)
+	private long lastTime = -1;
+	
+	/**
+	 * Starts a recording, writing the header for the session controller is running
+	 * @param stream - where the recording is written
+	 * @param controller - the session being recorded, before any events have been passed to it
+	 * @throws IOException if the header can't be written
+	 */
+	public TouchRecorder(OutputStream stream, PuzzleController controller) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(stream));
+		
+		int flags = 0;
+		if (controller.isManualSelect()) {
+			flags |= FLAG_MANUAL_SELECT;
+		}
+		if (controller.isTimedMode()) {
+			flags |= FLAG_TIMED_MODE;
+		}
+		
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeLong(controller.getSessionSeed());
+		out.writeByte(controller.getDifficulty());
+		out.writeByte(controller.getColorCount());
+		out.writeByte(flags);
+	}
+	
+	/**
+	 * Records a touch event
+	 * @param time - when the event happened (milliseconds)
+	 * @param action - the action of the event
+	 * @param x - the x coordinate of the event
+	 * @param y - the y coordinate of the event
+	 */
+	public void recordTouch(long time, int action, float x, float y) {
+		try {
+			if (out != null) {
+				writeEvent(action, time);
+				out.writeFloat(x);
+				out.writeFloat(y);
+			}
+		} catch (IOException e) {
+			close();
+		}
+	}
+	
+	/**
+	 * Records one second passing on the timed mode timer
+	 * @param time - when the tick happened (milliseconds)
+	 */
+	public void recordTick(long time) {
+		try {
+			if (out != null) {
+				writeEvent(TYPE_TICK, time);
+			}
+		} catch (IOException e) {
+			close();
+		}
+	}
+	
+	/**
+	 * Records the size of the view changing
+	 * @param time - when the size changed (milliseconds)
+	 * @param w - the new width (pixels)
+	 * @param h - the new height (pixels)
+	 * @param screenWidth - the physical width of the screen (inches)
+	 */
+	public void recordSize(long time, int w, int h, int screenWidth) {
+		try {
+			if (out != null) {
+				writeEvent(TYPE_SIZE, time);
+				writeVarInt(out, w);
+				writeVarInt(out, h);
+				writeVarInt(out, screenWidth);
+			}
+		} catch (IOException e) {
+			close();
+		}
+	}
+	
+	/**
+	 * Records the user zooming or panning the board
+	 * @param time - when the board moved (milliseconds)
+	 * @param zoom - how far the board is now zoomed in
+	 * @param panX - how far right the board is now panned (pixels)
+	 * @param panY - how far down the board is now panned (pixels)
+	 */
+	public void recordViewport(long time, float zoom, float panX, float panY) {
+		try {
+			if (out != null) {
+				writeEvent(TYPE_VIEWPORT, time);
+				out.writeFloat(zoom);
+				out.writeFloat(panX);
+				out.writeFloat(panY);
+			}
+		} catch (IOException e) {
+			close();
+		}
+	}
+	
+	/**
+	 * Records a race starting
+	 * @param time - when the race started (milliseconds)
+	 * @param seed - the session seed of the race
+	 * @param maxSquaresPerLine - the max squares per line of the race
+	 */
+	public void recordRace(long time, long seed, int maxSquaresPerLine) {
+		try {
+			if (out != null) {
+				writeEvent(TYPE_RACE, time);
+				out.writeLong(seed);
+				writeVarInt(out, maxSquaresPerLine);
+			}
+		} catch (IOException e) {
+			close();
+		}
+	}
+	
+	/**
+	 * Finishes the recording. Nothing more is recorded after this.
+	 */
+	public void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// Nothing more we can do, the recording is just cut short
+			}
+			out = null;
+		}
+	}
+	
+	/**
+	 * Writes the start of an event - its type and the time since the last event
+	 */
+	private void writeEvent(int type, long time) throws IOException {
+		long delta = lastTime == -1 ? 0 : Math.max(0, time - lastTime);
+		lastTime = time;
+		out.writeByte(type);
+		writeVarInt(out, (int) Math.min(delta, Integer.MAX_VALUE));
+	}
+	
+	/**
+	 * Writes a non-negative int using as few bytes as possible (7 bits per byte)
+	 * @param out - where to write the int
+	 * @param value - the int to write
+	 * @throws IOException if it can't be written
+	 */
+	static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+}
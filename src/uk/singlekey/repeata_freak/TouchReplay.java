@@ -0,0 +1,313 @@
+package uk.singlekey.repeata_freak;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import android.view.MotionEvent;
+
+/**
+ * Replays sessions recorded by TouchRecorder through PuzzleController, without a device,
+ * and reports how long each kind of event took to handle and the state the session ended in.
+ * Because every puzzle in a session comes from the session seed, a replay always ends in
+ * the same state as the recorded session.
+ *
+ * Usage: TouchReplay [-n iterations] [-trace file] recording...
+ * 		-trace replays each recording once more with a Tracer.Recorder, and writes what it
+ * 		recorded to the file as a Chrome trace
+ *
+ * @author Samuel O'Sullivan
+ */
+public class TouchReplay {
+	
+	// The first iterations aren't timed, to give the JIT a chance to warm up
+	private static final int WARMUP_ITERATIONS = 5;
+	
+	// The most events kept when tracing a replay
+	private static final int TRACE_EVENTS = 1 << 20;
+	
+	// The session settings, read from the header
+	private long sessionSeed;
+	private int difficulty;
+	private int colorCount;
+	private boolean manualSelect;
+	private boolean timedMode;
+	
+	// The events of the session, in order
+	private int eventCount;
+	private int[] types = new int[256];
+	private long[] times = new long[256];
+	private float[] xs = new float[256];
+	private float[] ys = new float[256];
+	private float[] zooms = new float[256];
+	private int[] sizes = new int[256 * 3];
+	private long[] seeds = new long[256];
+	
+	/**
+	 * Reads a recording
+	 * @param in - the recording
+	 * @throws IOException if the recording can't be read, or isn't a touch recording
+	 */
+	public TouchReplay(DataInputStream in) throws IOException {
+		// Recordings from before the board could be zoomed or races run are the same, without
+		// VIEWPORT or RACE events
+		int magic = in.readInt();
+		int version = in.readByte();
+		if (magic != TouchRecorder.MAGIC || version < 2 || version > TouchRecorder.VERSION) {
+			throw new IOException("Not a touch recording");
+		}
+		sessionSeed = in.readLong();
+		difficulty = in.readByte();
+		colorCount = in.readByte();
+		int flags = in.readByte();
+		manualSelect = (flags & TouchRecorder.FLAG_MANUAL_SELECT) != 0;
+		timedMode = (flags & TouchRecorder.FLAG_TIMED_MODE) != 0;
+		
+		long time = 0;
+		while (true) {
+			int type;
+			try {
+				type = in.readUnsignedByte();
+			} catch (EOFException e) {
+				break;
+			}
+			ensureCapacity(eventCount + 1);
+			time += readVarInt(in);
+			types[eventCount] = type;
+			times[eventCount] = time;
+			if (type == TouchRecorder.TYPE_SIZE) {
+				sizes[eventCount*3] = readVarInt(in);
+				sizes[eventCount*3 + 1] = readVarInt(in);
+				sizes[eventCount*3 + 2] = readVarInt(in);
+			}
+			else if (type == TouchRecorder.TYPE_VIEWPORT) {
+				zooms[eventCount] = in.readFloat();
+				xs[eventCount] = in.readFloat();
+				ys[eventCount] = in.readFloat();
+			}
+			else if (type == TouchRecorder.TYPE_RACE) {
+				seeds[eventCount] = in.readLong();
+				sizes[eventCount*3] = readVarInt(in);
+			}
+			else if (type != TouchRecorder.TYPE_TICK) {
+				xs[eventCount] = in.readFloat();
+				ys[eventCount] = in.readFloat();
+			}
+			eventCount++;
+		}
+	}
+	
+	/**
+	 * Replays the whole session once
+	 * @param nanos - filled with the time taken to handle each event (nanoseconds), may be null
+	 * @return the controller, in the state the session ended in
+	 */
+	public PuzzleController replay(long[] nanos) {
+		PuzzleController controller = new PuzzleController(difficulty, colorCount, manualSelect, timedMode, sessionSeed);
+		for (int i = 0; i < eventCount; i++) {
+			long start = System.nanoTime();
+			switch (types[i]) {
+			case TouchRecorder.TYPE_TICK:
+				controller.tick();
+				break;
+			case TouchRecorder.TYPE_SIZE:
+				controller.setSize(sizes[i*3], sizes[i*3 + 1], sizes[i*3 + 2]);
+				break;
+			case TouchRecorder.TYPE_VIEWPORT:
+				controller.setViewport(zooms[i], xs[i], ys[i]);
+				break;
+			case TouchRecorder.TYPE_RACE:
+				controller.restart(seeds[i], sizes[i*3]);
+				break;
+			default:
+				Tracer.begin("onTouchEvent");
+				controller.onTouch(types[i], xs[i], ys[i]);
+				Tracer.end();
+				break;
+			}
+			if (nanos != null) {
+				nanos[i] = System.nanoTime() - start;
+			}
+		}
+		return controller;
+	}
+	
+	/**
+	 * Replays the session a number of times and prints the timings and final state
+	 * @param name - the name of the recording
+	 * @param iterations - the amount of timed replays
+	 */
+	public void report(String name, int iterations) {
+		long[] nanos = new long[eventCount];
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			replay(null);
+		}
+		
+		// Timings of every event over every iteration, grouped by what kind of event it was
+		String[] kinds = {"down", "move", "up", "tick", "size", "viewport", "race"};
+		long[][] timings = new long[kinds.length][eventCount * iterations];
+		int[] counts = new int[kinds.length];
+		
+		PuzzleController controller = null;
+		long total = 0;
+		for (int n = 0; n < iterations; n++) {
+			long start = System.nanoTime();
+			controller = replay(nanos);
+			total += System.nanoTime() - start;
+			for (int i = 0; i < eventCount; i++) {
+				int kind = kindOf(types[i]);
+				if (kind != -1) {
+					timings[kind][counts[kind]++] = nanos[i];
+				}
+			}
+		}
+		
+		System.out.println(name + ": " + eventCount + " events over "
+				+ (eventCount == 0 ? 0 : times[eventCount-1]) + "ms, "
+				+ (manualSelect ? "manual select" : "drag-and-drop")
+				+ (timedMode ? ", timed mode" : "")
+				+ ", difficulty " + difficulty + ", " + colorCount + " colors, seed " + sessionSeed);
+		System.out.println("  replay: " + (total / iterations / 1000) + "us per session");
+		for (int kind = 0; kind < kinds.length; kind++) {
+			if (counts[kind] > 0) {
+				long[] sorted = Arrays.copyOf(timings[kind], counts[kind]);
+				Arrays.sort(sorted);
+				long sum = 0;
+				for (long t : sorted) {
+					sum += t;
+				}
+				System.out.println("  " + kinds[kind] + ": " + counts[kind] / iterations + " events"
+						+ ", mean " + sum / sorted.length + "ns"
+						+ ", p50 " + sorted[sorted.length / 2] + "ns"
+						+ ", p99 " + sorted[(int) (sorted.length * 0.99)] + "ns"
+						+ ", max " + sorted[sorted.length - 1] + "ns");
+			}
+		}
+		Puzzle puzzle = controller.getPuzzle();
+		System.out.println("  final state: puzzle seed " + puzzle.getSeed()
+				+ ", solved " + controller.isSolved()
+				+ ", blocks in storage " + puzzle.getStorageSize()
+				+ (timedMode ? ", puzzles solved " + controller.getSolvedCounter()
+						+ ", time left " + controller.getTimeCounter() : ""));
+	}
+	
+	/**
+	 * Groups event types into the kinds that are reported
+	 */
+	private static int kindOf(int type) {
+		switch (type) {
+		case MotionEvent.ACTION_DOWN:
+			return 0;
+		case MotionEvent.ACTION_MOVE:
+			return 1;
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_POINTER_UP:
+			return 2;
+		case TouchRecorder.TYPE_TICK:
+			return 3;
+		case TouchRecorder.TYPE_SIZE:
+			return 4;
+		case TouchRecorder.TYPE_VIEWPORT:
+			return 5;
+		case TouchRecorder.TYPE_RACE:
+			return 6;
+		default:
+			return -1;
+		}
+	}
+	
+	/**
+	 * Makes sure the event arrays can hold a number of events
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > types.length) {
+			int newLength = Math.max(capacity, types.length * 2);
+			types = Arrays.copyOf(types, newLength);
+			times = Arrays.copyOf(times, newLength);
+			xs = Arrays.copyOf(xs, newLength);
+			ys = Arrays.copyOf(ys, newLength);
+			zooms = Arrays.copyOf(zooms, newLength);
+			sizes = Arrays.copyOf(sizes, newLength * 3);
+			seeds = Arrays.copyOf(seeds, newLength);
+		}
+	}
+	
+	/**
+	 * Reads an int written by TouchRecorder.writeVarInt
+	 */
+	static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+	
+	/**
+	 * Replays each recording given as an argument
+	 * @param args - [-n iterations] [-trace file] recording...
+	 * @throws IOException if a recording can't be read, or the trace can't be written
+	 */
+	public static void main(String[] args) throws IOException {
+		int iterations = 20;
+		String traceFile = null;
+		int i = 0;
+		for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+			if (args[i].equals("-n")) {
+				iterations = Integer.parseInt(args[i+1]);
+				if (iterations < 1) {
+					System.err.println("-n must be at least 1");
+					System.exit(1);
+				}
+			}
+			else if (args[i].equals("-trace")) {
+				traceFile = args[i+1];
+			}
+			else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		if (i == args.length) {
+			System.err.println("Usage: TouchReplay [-n iterations] [-trace file] recording...");
+			System.exit(1);
+		}
+		
+		Tracer.Recorder recorder = traceFile != null ? new Tracer.Recorder(TRACE_EVENTS) : null;
+		for (; i < args.length; i++) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[i])));
+			try {
+				TouchReplay replay = new TouchReplay(in);
+				replay.report(args[i], iterations);
+				if (recorder != null) {
+					Tracer.setBackend(recorder);
+					replay.replay(null);
+					Tracer.setBackend(null);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		
+		if (recorder != null) {
+			Writer out = new BufferedWriter(new FileWriter(traceFile));
+			try {
+				recorder.writeChromeTrace(out);
+			} finally {
+				out.close();
+			}
+			System.out.println("Trace written to " + traceFile
+					+ (recorder.getDropped() > 0 ? " (" + recorder.getDropped() + " events dropped)" : ""));
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package uk.singlekey.repeata_freak;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Marks named sections of the game's hot paths (drawing, touches, creating puzzles), so that
+ * where the time goes can be seen in a trace.
+ *
+ * Sections are sent to a Backend: on a device the platform tracer, so they show up in
+ * systrace, or on a normal JVM a Recorder, which keeps them in memory and writes them as a
+ * Chrome trace (open it at chrome://tracing). With no backend, which is the default, begin()
+ * and end() are just a read and a null check, so the sections can stay in release builds.
+ *
+ * Section names should be constants, so that nothing is allocated while tracing. Every
+ * begin() must be followed by an end() on the same thread.
+ *
+ * @author Samuel O'Sullivan
+ */
+public final class Tracer {
+	
+	/**
+	 * Somewhere to send sections
+	 */
+	public interface Backend {
+		/**
+		 * Called when a section starts on the current thread
+		 * @param name - the name of the section
+		 */
+		void begin(String name);
+		
+		/**
+		 * Called when the last section started on the current thread ends
+		 */
+		void end();
+	}
+	
+	// Where sections are sent, or null if tracing is off
+	private static volatile Backend backend;
+	
+	private Tracer() {
+	}
+	
+	/**
+	 * Starts a section on the current thread
+	 * @param name - the name of the section
+	 */
+	public static void begin(String name) {
+		Backend b = backend;
+		if (b != null) {
+			b.begin(name);
+		}
+	}
+	
+	/**
+	 * Ends the last section started on the current thread
+	 */
+	public static void end() {
+		Backend b = backend;
+		if (b != null) {
+			b.end();
+		}
+	}
+	
+	/**
+	 * Sets where sections are sent. Should be set when nothing is being traced, as a section
+	 * that begins with one backend and ends with another is lost.
+	 * @param backend - the backend, or null to stop tracing
+	 */
+	public static void setBackend(Backend backend) {
+		Tracer.backend = backend;
+	}
+	
+	/**
+	 * @return the platform tracer, or null if the device is too old to have one (API 18)
+	 */
+	public static Backend platform() {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			return new Platform();
+		}
+		return null;
+	}
+	
+	/**
+	 * Sends sections to android.os.Trace. A separate class, so that it is only loaded on
+	 * devices that have android.os.Trace.
+	 */
+	private static class Platform implements Backend {
+		public void begin(String name) {
+			Trace.beginSection(name);
+		}
+		public void end() {
+			Trace.endSection();
+		}
+	}
+	
+	/**
+	 * Keeps sections in memory, to be written as a Chrome trace once tracing has finished.
+	 * Can be used from any amount of threads. Room for every event is allocated up front; once
+	 * it is full, later events are dropped.
+	 */
+	public static class Recorder implements Backend {
+		
+		// Marks an event that ends a section
+		private static final String END = null;
+		
+		// When the recorder was created (nanoseconds), which the times in the trace count from
+		private final long startTime = System.nanoTime();
+		
+		// Each event: the name of the section it begins (END for an end), when it happened
+		// (nanoseconds since startTime), and the thread it happened on
+		private final String[] names;
+		private final long[] times;
+		private final long[] threads;
+		
+		// The amount of events recorded, including any that were dropped
+		private final AtomicInteger count = new AtomicInteger();
+		
+		/**
+		 * Constructor for the Recorder class
+		 * @param capacity - the most events that can be recorded (a section is two events)
+		 */
+		public Recorder(int capacity) {
+			names = new String[capacity];
+			times = new long[capacity];
+			threads = new long[capacity];
+		}
+		
+		public void begin(String name) {
+			record(name);
+		}
+		
+		public void end() {
+			record(END);
+		}
+		
+		/**
+		 * Records an event, if there is room
+		 */
+		private void record(String name) {
+			long time = System.nanoTime() - startTime;
+			int i = count.getAndIncrement();
+			if (i < names.length) {
+				names[i] = name;
+				times[i] = time;
+				threads[i] = Thread.currentThread().getId();
+			}
+		}
+		
+		/**
+		 * @return the amount of events that were dropped because there wasn't room for them
+		 */
+		public int getDropped() {
+			return Math.max(0, count.get() - names.length);
+		}
+		
+		/**
+		 * Writes every event recorded in the Chrome trace event format. Must only be called
+		 * once tracing has finished.
+		 * @param out - where to write the trace
+		 * @throws IOException if the trace can't be written
+		 */
+		public void writeChromeTrace(Writer out) throws IOException {
+			int events = Math.min(count.get(), names.length);
+			out.write("{\"traceEvents\":[\n");
+			for (int i = 0; i < events; i++) {
+				out.write("{\"ph\":\"");
+				out.write(names[i] == END ? "E" : "B");
+				if (names[i] != END) {
+					out.write("\",\"name\":\"");
+					out.write(names[i].replace("\\", "\\\\").replace("\"", "\\\""));
+				}
+				// Chrome traces are in microseconds
+				out.write("\",\"ts\":" + times[i] / 1000 + "." + String.format("%03d", times[i] % 1000));
+				out.write(",\"pid\":1,\"tid\":" + threads[i] + "}");
+				out.write(i < events - 1 ? ",\n" : "\n");
+			}
+			out.write("],\"displayTimeUnit\":\"ms\"}\n");
+		}
+	}
+}